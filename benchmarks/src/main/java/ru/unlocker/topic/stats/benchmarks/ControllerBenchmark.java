@@ -0,0 +1,176 @@
+package ru.unlocker.topic.stats.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.unlocker.topic.stats.config.WebContext;
+import ru.unlocker.topic.stats.controllers.TopicsController;
+import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.filesystem.RunPartsCache;
+import ru.unlocker.topic.stats.services.ResponseCompression;
+import ru.unlocker.topic.stats.services.SerializedResponseCache;
+import ru.unlocker.topic.stats.services.TopicHistoryCollector;
+import ru.unlocker.topic.stats.services.TopicIoExecutor;
+import ru.unlocker.topic.stats.services.TopicStatsCollector;
+
+/**
+ * Замеры обработки запросов контроллером целиком: разбор запроса, чтение данных и сериализация ответа.
+ *
+ * @author unlocker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerBenchmark {
+
+    /**
+     * число топиков
+     */
+    @Param({"100"})
+    public int topics;
+
+    /**
+     * число запусков каждого топика
+     */
+    @Param({"10"})
+    public int runs;
+
+    /**
+     * число партиций в запуске
+     */
+    @Param({"100", "10000"})
+    public int partitions;
+
+    /**
+     * число записей кэша разобранных файлов и кэша готовых ответов (0 - замер разбора и сериализации)
+     */
+    @Param({"0", "10000"})
+    public int cacheEntries;
+
+    /**
+     * корневая папка
+     */
+    private Path root;
+
+    /**
+     * пул потоков контроллера
+     */
+    private ExecutorService executor;
+
+    /**
+     * пул потоков чтения данных
+     */
+    private TopicIoExecutor ioExecutor;
+
+    /**
+     * обработчик запросов
+     */
+    private MockMvc mvc;
+
+    /**
+     * номер следующего топика
+     */
+    private int next;
+
+    /**
+     * Создание корневой папки и контроллера.
+     *
+     * @throws Exception ошибка подготовки
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = SyntheticBaseDir.create(topics, runs, partitions, 0.0);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(root.toString());
+        provider.setPartsCache(new RunPartsCache(cacheEntries, Long.MAX_VALUE));
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        WebContext context = new WebContext();
+        TopicsController controller = new TopicsController();
+        controller.setProvider(provider);
+        controller.setStatsCollector(new TopicStatsCollector(provider, executor, 64));
+        controller.setHistoryCollector(new TopicHistoryCollector(provider, executor, 16));
+        controller.setObjectMapper(context.objectMapper());
+        ioExecutor = new TopicIoExecutor(Runtime.getRuntime().availableProcessors(), 256, 30000L, 1);
+        controller.setIoExecutor(ioExecutor);
+        controller.setResponseCache(new SerializedResponseCache(cacheEntries, Long.MAX_VALUE));
+        controller.setCompression(new ResponseCompression(true, 2048, Deflater.BEST_SPEED));
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(context.jsonConverter())
+                .build();
+    }
+
+    /**
+     * Удаление корневой папки.
+     *
+     * @throws IOException ошибка удаления
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        ioExecutor.close();
+        SyntheticBaseDir.delete(root);
+    }
+
+    /**
+     * @return идентификатор следующего топика по кругу
+     */
+    private String nextTopic() {
+        final int index = next;
+        next = index + 1 == topics ? 0 : index + 1;
+        return SyntheticBaseDir.topicId(index);
+    }
+
+    /**
+     * Выполняет асинхронный запрос до конца: ожидание результата и повторная обработка.
+     *
+     * @param builder запрос
+     * @return код ответа
+     * @throws Exception ошибка обработки
+     */
+    private int perform(RequestBuilder builder) throws Exception {
+        final MvcResult started = mvc.perform(builder).andReturn();
+        if (started.getAsyncResult(30000L) == null) {
+            return started.getResponse().getStatus();
+        }
+        return mvc.perform(asyncDispatch(started)).andReturn().getResponse().getStatus();
+    }
+
+    @Benchmark
+    public int topicStats() throws Exception {
+        return perform(get("/topics/{id}/stats", nextTopic()));
+    }
+
+    @Benchmark
+    public int topicParts() throws Exception {
+        return perform(get("/topics/{id}/parts", nextTopic()));
+    }
+
+    @Benchmark
+    public int topicsList() throws Exception {
+        return perform(get("/topics"));
+    }
+}
@@ -0,0 +1,87 @@
+package ru.unlocker.topic.stats.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.filesystem.IntLongMap;
+import ru.unlocker.topic.stats.filesystem.OffsetsCsvParser;
+
+/**
+ * Замеры разбора строк файла offsets.csv.
+ *
+ * @author unlocker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffsetsCsvParserBenchmark {
+
+    /**
+     * число партиций в файле
+     */
+    @Param({"100", "10000", "1000000"})
+    public int partitions;
+
+    /**
+     * доля повторяющихся строк
+     */
+    @Param({"0.0", "0.1"})
+    public double duplicateRate;
+
+    /**
+     * корневая папка
+     */
+    private Path root;
+
+    /**
+     * путь к файлу CSV
+     */
+    private Path csvPath;
+
+    /**
+     * Создание файла CSV.
+     *
+     * @throws IOException ошибка записи
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = SyntheticBaseDir.create(1, 1, partitions, duplicateRate);
+        csvPath = root.resolve(SyntheticBaseDir.topicId(0))
+                .resolve(FileSystemTopicDataProvider.HISTORY_FOLDER_NAME)
+                .resolve(SyntheticBaseDir.runTimestamp(0)
+                        .toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE))
+                .resolve(FileSystemTopicDataProvider.CSV_DATAFILE_NAME);
+    }
+
+    /**
+     * Удаление корневой папки.
+     *
+     * @throws IOException ошибка удаления
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticBaseDir.delete(root);
+    }
+
+    @Benchmark
+    public IntLongMap parse() throws IOException {
+        return OffsetsCsvParser.parse(csvPath);
+    }
+}
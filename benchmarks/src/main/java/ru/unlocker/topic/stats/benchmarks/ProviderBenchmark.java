@@ -0,0 +1,136 @@
+package ru.unlocker.topic.stats.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.filesystem.RunPartsCache;
+import ru.unlocker.topic.stats.views.TopicParts;
+import ru.unlocker.topic.stats.views.TopicStats;
+
+/**
+ * Замеры поставщика данных о топиках на синтетической корневой папке.
+ *
+ * @author unlocker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderBenchmark {
+
+    /**
+     * число топиков
+     */
+    @Param({"100"})
+    public int topics;
+
+    /**
+     * число запусков каждого топика; большие значения задаются через -p runs=...
+     */
+    @Param({"10"})
+    public int runs;
+
+    /**
+     * число партиций в запуске
+     */
+    @Param({"100", "10000"})
+    public int partitions;
+
+    /**
+     * доля повторяющихся строк
+     */
+    @Param({"0.0", "0.1"})
+    public double duplicateRate;
+
+    /**
+     * число записей кэша разобранных файлов (0 - замер разбора)
+     */
+    @Param({"0"})
+    public int cacheEntries;
+
+    /**
+     * корневая папка
+     */
+    private Path root;
+
+    /**
+     * поставщик данных
+     */
+    private FileSystemTopicDataProvider provider;
+
+    /**
+     * номер следующего топика
+     */
+    private int next;
+
+    /**
+     * Создание корневой папки.
+     *
+     * @throws IOException ошибка записи
+     * @throws TopicDataException ошибка создания поставщика
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, TopicDataException {
+        root = SyntheticBaseDir.create(topics, runs, partitions, duplicateRate);
+        provider = new FileSystemTopicDataProvider(root.toString());
+        provider.setPartsCache(new RunPartsCache(cacheEntries, Long.MAX_VALUE));
+    }
+
+    /**
+     * Удаление корневой папки.
+     *
+     * @throws IOException ошибка удаления
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticBaseDir.delete(root);
+    }
+
+    /**
+     * @return идентификатор следующего топика по кругу
+     */
+    private String nextTopic() {
+        final int index = next;
+        next = index + 1 == topics ? 0 : index + 1;
+        return SyntheticBaseDir.topicId(index);
+    }
+
+    @Benchmark
+    public List<String> getTopics() throws TopicDataException {
+        return provider.getTopics();
+    }
+
+    @Benchmark
+    public DateTime getLastTopicTimestamp() throws TopicDataException {
+        return provider.getLastTopicTimestamp(nextTopic());
+    }
+
+    @Benchmark
+    public TopicStats getTopicStats() throws TopicDataException {
+        return provider.getTopicStats(nextTopic());
+    }
+
+    @Benchmark
+    public TopicParts getTopicParts() throws TopicDataException {
+        return provider.getTopicParts(nextTopic());
+    }
+}
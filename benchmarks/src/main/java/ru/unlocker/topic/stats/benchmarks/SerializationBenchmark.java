@@ -0,0 +1,84 @@
+package ru.unlocker.topic.stats.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.unlocker.topic.stats.config.WebContext;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.TopicParts;
+import ru.unlocker.topic.stats.views.TopicStats;
+
+/**
+ * Замеры сериализации ответов в JSON тем же преобразователем, что и в приложении.
+ *
+ * @author unlocker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * число партиций
+     */
+    @Param({"100", "10000"})
+    public int partitions;
+
+    /**
+     * преобразователь в JSON
+     */
+    private ObjectMapper mapper;
+
+    /**
+     * статистика топика
+     */
+    private TopicStats stats;
+
+    /**
+     * партиции топика
+     */
+    private TopicParts parts;
+
+    /**
+     * Подготовка данных.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        mapper = new WebContext().objectMapper();
+        final DateTime ts = SyntheticBaseDir.FIRST_RUN;
+        stats = new TopicStats("topic-0", ts, 100L, 500L, 300L);
+        int[] partitionIds = new int[partitions];
+        long[] counts = new long[partitions];
+        for (int i = 0; i < partitions; i++) {
+            partitionIds[i] = i;
+            counts[i] = 1000L * i;
+        }
+        parts = new TopicParts("topic-0", ts, new PartitionCounts(partitionIds, counts));
+    }
+
+    @Benchmark
+    public byte[] topicStats() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(stats);
+    }
+
+    @Benchmark
+    public byte[] topicParts() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(parts);
+    }
+}
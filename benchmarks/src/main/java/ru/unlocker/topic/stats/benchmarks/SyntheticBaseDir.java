@@ -0,0 +1,119 @@
+package ru.unlocker.topic.stats.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+
+/**
+ * Синтетическая корневая папка заданной формы: топики × запуски × партиции с долей повторяющихся строк.
+ *
+ * @author unlocker
+ */
+public final class SyntheticBaseDir {
+
+    /**
+     * Время первого запуска.
+     */
+    public static final DateTime FIRST_RUN = new DateTime(2014, 5, 1, 0, 0);
+
+    /**
+     * Утилитный класс.
+     */
+    private SyntheticBaseDir() {
+    }
+
+    /**
+     * Создаёт корневую папку во временном каталоге.
+     *
+     * @param topics число топиков
+     * @param runs число запусков каждого топика
+     * @param partitions число партиций в каждом запуске
+     * @param duplicateRate доля строк, повторяющих уже записанную партицию
+     * @return путь к корневой папке
+     * @throws IOException ошибка записи
+     */
+    public static Path create(int topics, int runs, int partitions, double duplicateRate) throws IOException {
+        Path root = Files.createTempDirectory("topic-stats-bench");
+        Random random = new Random(42);
+        for (int t = 0; t < topics; t++) {
+            Path history = root.resolve(topicId(t)).resolve(FileSystemTopicDataProvider.HISTORY_FOLDER_NAME);
+            for (int r = 0; r < runs; r++) {
+                Path runDir = history.resolve(runTimestamp(r)
+                        .toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+                Files.createDirectories(runDir);
+                writeCsv(runDir.resolve(FileSystemTopicDataProvider.CSV_DATAFILE_NAME), partitions,
+                        duplicateRate, random);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @param index порядковый номер топика
+     * @return идентификатор топика
+     */
+    public static String topicId(int index) {
+        return "topic-" + index;
+    }
+
+    /**
+     * @param index порядковый номер запуска
+     * @return временная метка запуска
+     */
+    public static DateTime runTimestamp(int index) {
+        return FIRST_RUN.plusMinutes(index);
+    }
+
+    /**
+     * Удаляет корневую папку со всем содержимым.
+     *
+     * @param root путь к корневой папке
+     * @throws IOException ошибка удаления
+     */
+    public static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Записывает файл CSV запуска.
+     *
+     * @param csvPath путь к файлу
+     * @param partitions число партиций
+     * @param duplicateRate доля повторяющихся строк
+     * @param random генератор случайных чисел
+     * @throws IOException ошибка записи
+     */
+    private static void writeCsv(Path csvPath, int partitions, double duplicateRate, Random random)
+            throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csvPath, StandardCharsets.UTF_8)) {
+            for (int p = 0; p < partitions; p++) {
+                final int partition = p > 0 && random.nextDouble() < duplicateRate ? random.nextInt(p) : p;
+                writer.write(Integer.toString(partition));
+                writer.write(',');
+                writer.write(Integer.toString(random.nextInt(1000000)));
+                writer.newLine();
+            }
+        }
+    }
+}
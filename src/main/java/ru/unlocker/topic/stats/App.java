@@ -22,11 +22,11 @@ public class App {
     /**
      * Точка входа приложения
      *
-     * @param args
+     * @param args путь к папке с топиками и, при необходимости, настройки вида --name=value
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            LOGGER.error("Ошибка! Ожидался 1 параметр: путь к папке с топиками.");
+        if (args.length < 1) {
+            LOGGER.error("Ошибка! Ожидался параметр: путь к папке с топиками.");
             return;
         }
         try {
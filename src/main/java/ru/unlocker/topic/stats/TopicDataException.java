@@ -29,6 +29,16 @@ public class TopicDataException extends Exception {
         return new MissingTopicDataException(String.format(template, topicId));
     }
 
+    /**
+     * Исключение, если обход топиков прерван ошибкой обработчика (например, клиент закрыл соединение).
+     *
+     * @param cause ошибка обработчика
+     * @return исключение
+     */
+    public static TopicDataException visitAbortedException(Throwable cause) {
+        return new TopicDataException("Обход топиков прерван обработчиком.", cause);
+    }
+
     /**
      * Базовое исключение приложения.
      */
@@ -1,10 +1,16 @@
 package ru.unlocker.topic.stats;
 
 import java.util.List;
+import java.util.Set;
 import org.joda.time.DateTime;
 import org.springframework.stereotype.Service;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
 import ru.unlocker.topic.stats.views.TopicParts;
 import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
 
 /**
  * Поставщик данных о топиках
@@ -20,6 +26,15 @@ public interface TopicDataProvider {
      */
     List<String> getTopics() throws TopicDataException;
 
+    /**
+     * Обходит топики, передавая их обработчику по одному, без построения полного перечня
+     *
+     * @param visitor обработчик топиков
+     * @throws ru.unlocker.topic.stats.TopicDataException ошибка получения списка топиков или обработки; ошибка
+     * обработчика передаётся причиной исключения {@link TopicDataException#visitAbortedException(Throwable)}
+     */
+    void visitTopics(TopicVisitor visitor) throws TopicDataException;
+
     /**
      * Возвращает дату последнего запуска для топика
      *
@@ -30,6 +45,38 @@ public interface TopicDataProvider {
      */
     DateTime getLastTopicTimestamp(String topicId) throws TopicDataException;
 
+    /**
+     * Возвращает временные метки запусков топика в заданном диапазоне
+     *
+     * @param topicId идентификатор топика
+     * @param from начало диапазона включительно или {@code null}
+     * @param to конец диапазона включительно или {@code null}
+     * @return временные метки запусков по возрастанию; пустой перечень, если начало диапазона позже конца
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    List<DateTime> getTopicTimestamps(String topicId, DateTime from, DateTime to) throws TopicDataException;
+
+    /**
+     * Получает партиции отдельного запуска топика
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @return партиции и число сообщений
+     * @throws ru.unlocker.topic.stats.TopicDataException ошибка чтения данных запуска
+     */
+    PartitionCounts getRunParts(String topicId, DateTime ts) throws TopicDataException;
+
+    /**
+     * Возвращает версию последнего запуска топика без разбора файла CSV
+     *
+     * @param topicId идентификатор топика
+     * @return версия последнего запуска
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    RunVersion getLastRunVersion(String topicId) throws TopicDataException;
+
     /**
      * Получает статистику по топику
      *
@@ -40,6 +87,44 @@ public interface TopicDataProvider {
      */
     TopicStats getTopicStats(String topicId) throws TopicDataException;
 
+    /**
+     * Получает статистику последнего запуска топика: число партиций, сумму, минимум и максимум. Если
+     * включены двоичные снимки, статистика читается из их заголовков без чтения партиций
+     *
+     * @param topicId идентификатор топика
+     * @return статистика последнего запуска
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    RunStats getLastRunStats(String topicId) throws TopicDataException;
+
+    /**
+     * Получает статистику по топику с расширенными показателями, рассчитанными за один проход по партициям
+     *
+     * @param topicId идентификатор топика
+     * @param metrics запрошенные расширенные показатели; если пусто - как {@link #getTopicStats(String)}
+     * @param top число самых нагруженных партиций для показателя {@link TopicStats.Metric#TOP}
+     * @return статистика топика
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    TopicStats getTopicStats(String topicId, Set<TopicStats.Metric> metrics, int top) throws TopicDataException;
+
+    /**
+     * Получает статистику отдельного запуска топика, например, уже найденного через
+     * {@link #getLastRunVersion(String)}, чтобы тело ответа и его версия описывали один и тот же запуск
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @param metrics запрошенные расширенные показатели; если пусто - только минимум, максимум и среднее
+     * @param top число самых нагруженных партиций для показателя {@link TopicStats.Metric#TOP}
+     * @return статистика запуска
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запуску
+     */
+    TopicStats getTopicStats(String topicId, DateTime ts, Set<TopicStats.Metric> metrics, int top)
+            throws TopicDataException;
+
     /**
      * Получает список партиций
      *
@@ -49,4 +134,49 @@ public interface TopicDataProvider {
      * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
      */
     TopicParts getTopicParts(String topicId) throws TopicDataException;
+
+    /**
+     * Получает список партиций отдельного запуска топика
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @return список партиций
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запуску
+     */
+    TopicParts getTopicParts(String topicId, DateTime ts) throws TopicDataException;
+
+    /**
+     * Получает сводку по топику: последний запуск определяется и разбирается один раз для всех
+     * запрошенных разделов
+     *
+     * @param topicId идентификатор топика
+     * @param sections запрошенные разделы сводки
+     * @return сводка по топику
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    TopicSummary getTopicSummary(String topicId, Set<TopicSummary.Section> sections) throws TopicDataException;
+
+    /**
+     * Получает статистику последних запусков топика
+     *
+     * @param topicId идентификатор топика
+     * @param window число последних запусков
+     * @return статистика не более {@code window} последних запусков по возрастанию времени
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    List<RunStats> getRecentRunStats(String topicId, int window) throws TopicDataException;
+
+    /**
+     * Рассчитывает скользящие показатели топика по последним запускам
+     *
+     * @param topicId идентификатор топика
+     * @param window число последних запусков
+     * @return скользящие показатели
+     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топик не найден
+     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException нет данных по запускам топика
+     */
+    TopicTrend getTopicTrend(String topicId, int window) throws TopicDataException;
 }
@@ -0,0 +1,17 @@
+package ru.unlocker.topic.stats;
+
+import java.io.IOException;
+
+/**
+ * Обработчик топиков при потоковом обходе.
+ *
+ * @author unlocker
+ */
+public interface TopicVisitor {
+
+    /**
+     * @param topicId идентификатор топика
+     * @throws IOException ошибка обработки
+     */
+    void visit(String topicId) throws IOException;
+}
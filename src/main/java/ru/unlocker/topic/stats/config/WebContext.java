@@ -4,17 +4,46 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 import ru.unlocker.topic.stats.TopicDataException;
 import ru.unlocker.topic.stats.TopicDataProvider;
 import ru.unlocker.topic.stats.controllers.TopicsController;
 import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.filesystem.IndexedFileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.filesystem.OffHeapRunPartsCache;
+import ru.unlocker.topic.stats.filesystem.RunPartsCache;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.metrics.RequestMetricsInterceptor;
+import ru.unlocker.topic.stats.metrics.TimedJsonHttpMessageConverter;
+import ru.unlocker.topic.stats.services.CoalescingTopicDataProvider;
+import ru.unlocker.topic.stats.services.GlobalStatsCollector;
+import ru.unlocker.topic.stats.services.ResponseCompression;
+import ru.unlocker.topic.stats.services.SerializedResponseCache;
+import ru.unlocker.topic.stats.services.TopicHistoryCollector;
+import ru.unlocker.topic.stats.services.TopicIoExecutor;
+import ru.unlocker.topic.stats.services.TopicStatsCollector;
+import ru.unlocker.topic.stats.services.TopicsWarmUp;
+import ru.unlocker.topic.stats.store.SegmentStoreImporter;
+import ru.unlocker.topic.stats.store.SegmentTopicDataProvider;
+import ru.unlocker.topic.stats.views.PackedHttpMessageConverter;
 
 /**
  * Настройка контекста веб-приложения
@@ -31,11 +60,180 @@ public class WebContext extends WebMvcConfigurerAdapter {
      */
     private static final String DATETIME_FORMAT_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
 
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebContext.class);
+
+    /**
+     * Настройка: включение индекса топиков в памяти.
+     */
+    public static final String INDEX_ENABLED_PROPERTY = "topics.index.enabled";
+
+    /**
+     * Настройка: максимальное число записей кэша разобранных файлов CSV (0 - кэш отключён).
+     */
+    public static final String CACHE_MAX_ENTRIES_PROPERTY = "topics.cache.max-entries";
+
+    /**
+     * Настройка: максимальный объём кэша разобранных файлов CSV в байтах.
+     */
+    public static final String CACHE_MAX_BYTES_PROPERTY = "topics.cache.max-bytes";
+
+    /**
+     * Настройка: максимальный объём тёплого уровня кэша вне кучи в байтах (0 - уровень отключён).
+     */
+    public static final String CACHE_WARM_MAX_BYTES_PROPERTY = "topics.cache.warm.max-bytes";
+
+    /**
+     * Настройка: размер сляба тёплого уровня кэша в байтах.
+     */
+    public static final String CACHE_WARM_SLAB_BYTES_PROPERTY = "topics.cache.warm.slab-bytes";
+
+    /**
+     * Настройка: число обращений к записи тёплого уровня, после которого она переносится в кэш в куче.
+     */
+    public static final String CACHE_PROMOTE_AFTER_HITS_PROPERTY = "topics.cache.promote-after-hits";
+
+    /**
+     * Настройка: перенос вытесненных из кэша в куче записей в тёплый уровень.
+     */
+    public static final String CACHE_DEMOTE_ON_EVICTION_PROPERTY = "topics.cache.demote-on-eviction";
+
+    /**
+     * Настройка: сохранение новых записей сразу в кэш в куче, минуя тёплый уровень.
+     */
+    public static final String CACHE_ADMIT_TO_HOT_PROPERTY = "topics.cache.admit-to-hot";
+
+    /**
+     * Настройка: использование двоичных снимков разобранных файлов CSV.
+     */
+    public static final String SNAPSHOTS_ENABLED_PROPERTY = "topics.snapshots.enabled";
+
+    /**
+     * Настройка: создание двоичных снимков для всех запусков при запуске приложения.
+     */
+    public static final String SNAPSHOTS_COMPACT_ON_START_PROPERTY = "topics.snapshots.compact-on-start";
+
+    /**
+     * Настройка: использование файлов-указателей history/LATEST на последний запуск.
+     */
+    public static final String LATEST_MARKER_ENABLED_PROPERTY = "topics.latest-marker.enabled";
+
+    /**
+     * Настройка: прогрев поставщика данных после запуска приложения.
+     */
+    public static final String WARMUP_ENABLED_PROPERTY = "topics.warmup.enabled";
+
+    /**
+     * Настройка: число потоков прогрева.
+     */
+    public static final String WARMUP_THREADS_PROPERTY = "topics.warmup.threads";
+
+    /**
+     * Настройка: бюджет времени прогрева в миллисекундах.
+     */
+    public static final String WARMUP_BUDGET_PROPERTY = "topics.warmup.budget-ms";
+
+    /**
+     * Настройка: число потоков пула чтения данных для обработки запросов.
+     */
+    public static final String IO_THREADS_PROPERTY = "topics.io.threads";
+
+    /**
+     * Настройка: размер очереди пула чтения данных; при переполнении запрос получает 503.
+     */
+    public static final String IO_QUEUE_PROPERTY = "topics.io.queue";
+
+    /**
+     * Настройка: таймаут запроса в миллисекундах; по истечении запрос получает 503.
+     */
+    public static final String IO_TIMEOUT_PROPERTY = "topics.io.timeout-ms";
+
+    /**
+     * Настройка: значение заголовка Retry-After в секундах для ответов 503.
+     */
+    public static final String IO_RETRY_AFTER_PROPERTY = "topics.io.retry-after";
+
+    /**
+     * Настройка: максимальное число записей кэша готовых тел ответов.
+     */
+    public static final String RESPONSE_CACHE_MAX_ENTRIES_PROPERTY = "topics.response-cache.max-entries";
+
+    /**
+     * Настройка: максимальный объём кэша готовых тел ответов в байтах.
+     */
+    public static final String RESPONSE_CACHE_MAX_BYTES_PROPERTY = "topics.response-cache.max-bytes";
+
+    /**
+     * Настройка: сжатие ответов по заголовку Accept-Encoding.
+     */
+    public static final String COMPRESSION_ENABLED_PROPERTY = "topics.compression.enabled";
+
+    /**
+     * Настройка: минимальный размер тела ответа для сжатия в байтах.
+     */
+    public static final String COMPRESSION_MIN_BYTES_PROPERTY = "topics.compression.min-bytes";
+
+    /**
+     * Настройка: уровень сжатия ответов.
+     */
+    public static final String COMPRESSION_LEVEL_PROPERTY = "topics.compression.level";
+
+    /**
+     * Настройка: ведение журналов статистики запусков в папках топиков.
+     */
+    public static final String SUMMARY_LOG_ENABLED_PROPERTY = "topics.summary-log.enabled";
+
+    /**
+     * Настройка: объединение одновременных одинаковых запросов к поставщику данных.
+     */
+    public static final String COALESCING_ENABLED_PROPERTY = "topics.coalescing.enabled";
+
+    /**
+     * Настройка: хранилище данных о топиках - {@value #FILESYSTEM_STORAGE} или {@value #SEGMENT_STORAGE}.
+     */
+    public static final String STORAGE_PROPERTY = "topics.storage";
+
+    /**
+     * Хранилище: папка с топиками.
+     */
+    public static final String FILESYSTEM_STORAGE = "filesystem";
+
+    /**
+     * Хранилище: встроенное хранилище сегментов в локальной папке.
+     */
+    public static final String SEGMENT_STORAGE = "segment";
+
+    /**
+     * Настройка: папка встроенного хранилища сегментов.
+     */
+    public static final String STORE_DIR_PROPERTY = "topics.store.dir";
+
+    /**
+     * Настройка: загрузка новых запусков из папки с топиками во встроенное хранилище при запуске приложения.
+     */
+    public static final String STORE_IMPORT_ON_START_PROPERTY = "topics.store.import-on-start";
+
+    /**
+     * Настройка: интервал повторной загрузки новых запусков во встроенное хранилище (0 - не повторять).
+     * По умолчанию минута: без повторной загрузки хранилище отдаёт данные и ETag на момент запуска
+     * приложения, и клиенты получают 304 на устаревшие ответы. Отключать имеет смысл только для
+     * неизменного архива запусков.
+     */
+    public static final String STORE_IMPORT_INTERVAL_PROPERTY = "topics.store.import-interval-ms";
+
     /**
      * корневая папка
      */
     private static String rootFolder;
 
+    /**
+     * Окружение приложения.
+     */
+    @Autowired
+    private Environment environment;
+
     /**
      * @param rootFolder корневая папка
      */
@@ -43,9 +241,43 @@ public class WebContext extends WebMvcConfigurerAdapter {
         WebContext.rootFolder = rootFolder;
     }
 
+    /**
+     * Настройка: число потоков пула параллельной обработки топиков.
+     */
+    public static final String PARALLELISM_PROPERTY = "topics.parallelism";
+
+    /**
+     * Настройка: максимальное число топиков в работе на один запрос статистики по множеству топиков.
+     */
+    public static final String BULK_WINDOW_PROPERTY = "topics.bulk.window";
+
+    /**
+     * Настройка: максимальное число запусков в работе на один запрос истории топика.
+     */
+    public static final String HISTORY_WINDOW_PROPERTY = "topics.history.window";
+
+    /**
+     * Настройка: число потоков пула сбора статистики по всем топикам.
+     */
+    public static final String GLOBAL_PARALLELISM_PROPERTY = "topics.global.parallelism";
+
     @Override
     public void configureMessageConverters(final List<HttpMessageConverter<?>> converters) {
         converters.add(0, jsonConverter());
+        converters.add(1, packedConverter());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestMetricsInterceptor(metricsRegistry()));
+    }
+
+    /**
+     * @return реестр метрик приложения
+     */
+    @Bean
+    public MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry();
     }
 
     /**
@@ -53,12 +285,29 @@ public class WebContext extends WebMvcConfigurerAdapter {
      */
     @Bean
     public MappingJackson2HttpMessageConverter jsonConverter() {
-        final MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter();
+        final MappingJackson2HttpMessageConverter converter = new TimedJsonHttpMessageConverter(metricsRegistry());
+        converter.setObjectMapper(objectMapper());
+        return converter;
+    }
+
+    /**
+     * @return конвертер в компактный двоичный формат по типу содержимого
+     * {@code application/vnd.topic-stats.packed}
+     */
+    @Bean
+    public PackedHttpMessageConverter packedConverter() {
+        return new PackedHttpMessageConverter();
+    }
+
+    /**
+     * @return преобразователь объектов в JSON
+     */
+    @Bean
+    public ObjectMapper objectMapper() {
         ObjectMapper mapper = new ObjectMapper();
         mapper.registerModule(new JodaModule());
         mapper.setDateFormat(new SimpleDateFormat(DATETIME_FORMAT_PATTERN));
-        converter.setObjectMapper(mapper);
-        return converter;
+        return mapper;
     }
 
     /**
@@ -67,7 +316,214 @@ public class WebContext extends WebMvcConfigurerAdapter {
      */
     @Bean
     public TopicDataProvider provider() throws TopicDataException {
-        return new FileSystemTopicDataProvider(rootFolder);
+        final String storage = environment.getProperty(STORAGE_PROPERTY, FILESYSTEM_STORAGE);
+        final TopicDataProvider provider;
+        if (SEGMENT_STORAGE.equals(storage)) {
+            provider = segmentProvider();
+        } else if (FILESYSTEM_STORAGE.equals(storage)) {
+            provider = fileSystemProvider();
+        } else {
+            throw new TopicDataException(String.format("Неизвестное хранилище '%s'.", storage));
+        }
+        if (environment.getProperty(COALESCING_ENABLED_PROPERTY, Boolean.class, true)) {
+            CoalescingTopicDataProvider coalescing = new CoalescingTopicDataProvider(provider);
+            coalescing.setMetrics(metricsRegistry());
+            return coalescing;
+        }
+        return provider;
+    }
+
+    /**
+     * @return поставщик данных о топиках в папке с топиками
+     * @throws TopicDataException
+     */
+    private FileSystemTopicDataProvider fileSystemProvider() throws TopicDataException {
+        FileSystemTopicDataProvider provider;
+        if (environment.getProperty(INDEX_ENABLED_PROPERTY, Boolean.class, false)) {
+            provider = new IndexedFileSystemTopicDataProvider(rootFolder);
+        } else {
+            provider = new FileSystemTopicDataProvider(rootFolder);
+        }
+        provider.setPartsCache(partsCache());
+        provider.setMetrics(metricsRegistry());
+        provider.setLatestMarkerEnabled(
+                environment.getProperty(LATEST_MARKER_ENABLED_PROPERTY, Boolean.class, false));
+        provider.setSummaryLogEnabled(
+                environment.getProperty(SUMMARY_LOG_ENABLED_PROPERTY, Boolean.class, false));
+        final boolean snapshots = environment.getProperty(SNAPSHOTS_ENABLED_PROPERTY, Boolean.class, false);
+        provider.setSnapshotsEnabled(snapshots);
+        if (snapshots && environment.getProperty(SNAPSHOTS_COMPACT_ON_START_PROPERTY, Boolean.class, false)) {
+            final FileSystemTopicDataProvider compacted = provider;
+            topicsExecutor().submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws TopicDataException {
+                    final int written = compacted.compactSnapshots();
+                    LOGGER.info("Создано двоичных снимков запусков: {}.", written);
+                    return written;
+                }
+            });
+        }
+        return provider;
+    }
+
+    /**
+     * Открывает встроенное хранилище и загружает в него новые запуски из папки с топиками.
+     *
+     * @return поставщик данных о топиках во встроенном хранилище
+     * @throws TopicDataException
+     */
+    private SegmentTopicDataProvider segmentProvider() throws TopicDataException {
+        SegmentTopicDataProvider store = new SegmentTopicDataProvider(
+                environment.getProperty(STORE_DIR_PROPERTY, "topics-store"));
+        store.setMetrics(metricsRegistry());
+        final boolean importOnStart = environment.getProperty(STORE_IMPORT_ON_START_PROPERTY, Boolean.class, true);
+        final long interval = environment.getProperty(STORE_IMPORT_INTERVAL_PROPERTY, Long.class, 60000L);
+        if (importOnStart || interval > 0) {
+            FileSystemTopicDataProvider source = new FileSystemTopicDataProvider(rootFolder);
+            source.setMetrics(metricsRegistry());
+            SegmentStoreImporter importer = new SegmentStoreImporter(source, store);
+            store.setImporter(importer);
+            if (importOnStart) {
+                importer.importAll();
+            }
+            if (interval > 0) {
+                importer.start(interval);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return кэш разобранных файлов CSV
+     */
+    @Bean
+    public RunPartsCache partsCache() {
+        RunPartsCache cache = new RunPartsCache(
+                environment.getProperty(CACHE_MAX_ENTRIES_PROPERTY, Integer.class, 10000),
+                environment.getProperty(CACHE_MAX_BYTES_PROPERTY, Long.class, 64L * 1024 * 1024));
+        final long warmBytes = environment.getProperty(CACHE_WARM_MAX_BYTES_PROPERTY, Long.class, 0L);
+        if (warmBytes > 0) {
+            cache.setWarmTier(new OffHeapRunPartsCache(warmBytes,
+                    environment.getProperty(CACHE_WARM_SLAB_BYTES_PROPERTY, Integer.class, 4 * 1024 * 1024)),
+                    environment.getProperty(CACHE_PROMOTE_AFTER_HITS_PROPERTY, Integer.class, 2),
+                    environment.getProperty(CACHE_DEMOTE_ON_EVICTION_PROPERTY, Boolean.class, true),
+                    environment.getProperty(CACHE_ADMIT_TO_HOT_PROPERTY, Boolean.class, false));
+        }
+        cache.setMetrics(metricsRegistry());
+        return cache;
+    }
+
+    /**
+     * @return пул потоков параллельной обработки топиков
+     */
+    @Bean
+    public ExecutorService topicsExecutor() {
+        final int threads = environment.getProperty(PARALLELISM_PROPERTY, Integer.class,
+                2 * Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "topics-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
+    /**
+     * @return кэш готовых тел ответов
+     */
+    @Bean
+    public SerializedResponseCache responseCache() {
+        SerializedResponseCache cache = new SerializedResponseCache(
+                environment.getProperty(RESPONSE_CACHE_MAX_ENTRIES_PROPERTY, Integer.class, 10000),
+                environment.getProperty(RESPONSE_CACHE_MAX_BYTES_PROPERTY, Long.class, 32L * 1024 * 1024));
+        cache.setMetrics(metricsRegistry());
+        return cache;
+    }
+
+    /**
+     * @return сжатие тел ответов
+     */
+    @Bean
+    public ResponseCompression responseCompression() {
+        ResponseCompression compression = new ResponseCompression(
+                environment.getProperty(COMPRESSION_ENABLED_PROPERTY, Boolean.class, true),
+                environment.getProperty(COMPRESSION_MIN_BYTES_PROPERTY, Integer.class, 2048),
+                environment.getProperty(COMPRESSION_LEVEL_PROPERTY, Integer.class, Deflater.BEST_SPEED));
+        compression.setMetrics(metricsRegistry());
+        return compression;
+    }
+
+    /**
+     * @return ограниченный пул потоков чтения данных для обработки запросов
+     */
+    @Bean
+    public TopicIoExecutor topicIoExecutor() {
+        TopicIoExecutor executor = new TopicIoExecutor(
+                environment.getProperty(IO_THREADS_PROPERTY, Integer.class, 32),
+                environment.getProperty(IO_QUEUE_PROPERTY, Integer.class, 256),
+                environment.getProperty(IO_TIMEOUT_PROPERTY, Long.class, 30000L),
+                environment.getProperty(IO_RETRY_AFTER_PROPERTY, Integer.class, 1));
+        executor.setMetrics(metricsRegistry());
+        return executor;
+    }
+
+    /**
+     * @return параллельный сбор статистики по множеству топиков
+     * @throws TopicDataException
+     */
+    @Bean
+    public TopicStatsCollector topicStatsCollector() throws TopicDataException {
+        return new TopicStatsCollector(provider(), topicsExecutor(),
+                environment.getProperty(BULK_WINDOW_PROPERTY, Integer.class, 64));
+    }
+
+    /**
+     * @return сбор истории запусков топика
+     * @throws TopicDataException
+     */
+    @Bean
+    public TopicHistoryCollector topicHistoryCollector() throws TopicDataException {
+        return new TopicHistoryCollector(provider(), topicsExecutor(),
+                environment.getProperty(HISTORY_WINDOW_PROPERTY, Integer.class, 16));
+    }
+
+    /**
+     * @return пул потоков сбора статистики по всем топикам
+     */
+    @Bean
+    public ForkJoinPool globalStatsPool() {
+        return new ForkJoinPool(environment.getProperty(GLOBAL_PARALLELISM_PROPERTY, Integer.class,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return сбор статистики по всем топикам
+     * @throws TopicDataException
+     */
+    @Bean
+    public GlobalStatsCollector globalStatsCollector() throws TopicDataException {
+        return new GlobalStatsCollector(provider(), globalStatsPool());
+    }
+
+    /**
+     * @return прогрев поставщика данных, запущенный в фоне, если он включён
+     * @throws TopicDataException
+     */
+    @Bean
+    public TopicsWarmUp topicsWarmUp() throws TopicDataException {
+        TopicsWarmUp warmUp = new TopicsWarmUp(provider(),
+                environment.getProperty(WARMUP_THREADS_PROPERTY, Integer.class,
+                        Runtime.getRuntime().availableProcessors()),
+                environment.getProperty(WARMUP_BUDGET_PROPERTY, Long.class, 60000L));
+        if (environment.getProperty(WARMUP_ENABLED_PROPERTY, Boolean.class, false)) {
+            warmUp.start();
+        }
+        return warmUp;
+    }
 }
@@ -0,0 +1,47 @@
+package ru.unlocker.topic.stats.controllers;
+
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import ru.unlocker.topic.stats.services.TopicsWarmUp;
+import ru.unlocker.topic.stats.views.HealthView;
+
+/**
+ * Контроллер состояния готовности приложения
+ *
+ * @author unlocker
+ */
+@Controller
+public class HealthController {
+
+    /**
+     * Прогрев поставщика данных.
+     */
+    private TopicsWarmUp warmUp;
+
+    /**
+     * @param warmUp прогрев поставщика данных
+     */
+    @Autowired
+    public void setWarmUp(TopicsWarmUp warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Состояние готовности: 200, когда прогрев окончен или отключён, и 503, пока он идёт.
+     *
+     * @param response ответ
+     * @return состояние готовности
+     */
+    @RequestMapping("/health")
+    @ResponseBody
+    public HealthView getHealth(HttpServletResponse response) {
+        HealthView health = warmUp.getHealth();
+        if (!warmUp.isReady()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        return health;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.unlocker.topic.stats.controllers;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+
+/**
+ * Контроллер метрик приложения
+ *
+ * @author unlocker
+ */
+@Controller
+public class MetricsController {
+
+    /**
+     * Тип содержимого текстового формата Prometheus.
+     */
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Реестр метрик.
+     */
+    private MetricsRegistry metrics;
+
+    /**
+     * @param metrics реестр метрик
+     */
+    @Autowired
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Выгрузка метрик в текстовом формате Prometheus.
+     *
+     * @param response ответ
+     * @throws IOException ошибка записи ответа
+     */
+    @RequestMapping("/metrics")
+    public void getMetrics(HttpServletResponse response) throws IOException {
+        response.setContentType(PROMETHEUS_CONTENT_TYPE);
+        metrics.write(response.getWriter());
+    }
+}
@@ -1,19 +1,53 @@
 package ru.unlocker.topic.stats.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 import ru.unlocker.topic.stats.TopicDataException;
 import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.metrics.TimedJsonHttpMessageConverter;
+import ru.unlocker.topic.stats.metrics.Timer;
+import ru.unlocker.topic.stats.services.GlobalStatsCollector;
+import ru.unlocker.topic.stats.services.ResponseCompression;
+import ru.unlocker.topic.stats.services.SerializedResponseCache;
+import ru.unlocker.topic.stats.services.ServiceBusyException;
+import ru.unlocker.topic.stats.services.TopicHistoryCollector;
+import ru.unlocker.topic.stats.services.TopicIoExecutor;
+import ru.unlocker.topic.stats.services.TopicStatsCollector;
 import ru.unlocker.topic.stats.views.ExceptionView;
-import ru.unlocker.topic.stats.views.TopicParts;
+import ru.unlocker.topic.stats.views.GlobalStats;
+import ru.unlocker.topic.stats.views.PackedHttpMessageConverter;
+import ru.unlocker.topic.stats.views.RunHistoryEntry;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
 import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
 
 /**
  * Контроллер топиков
@@ -23,11 +57,106 @@ import ru.unlocker.topic.stats.views.TopicStats;
 @Controller
 public class TopicsController {
 
+    /**
+     * Тип содержимого ответов, записываемых напрямую.
+     */
+    private static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    /**
+     * Представление JSON в кэше готовых ответов.
+     */
+    private static final String JSON_REPRESENTATION = "json";
+
+    /**
+     * Представление в двоичном формате в кэше готовых ответов.
+     */
+    private static final String PACKED_REPRESENTATION = "packed";
+
+    /**
+     * Заголовок Accept.
+     */
+    private static final String ACCEPT_HEADER = "Accept";
+
+    /**
+     * Заголовок Vary.
+     */
+    private static final String VARY_HEADER = "Vary";
+
+    /**
+     * Заголовок ETag.
+     */
+    private static final String ETAG_HEADER = "ETag";
+
+    /**
+     * Заголовок Last-Modified.
+     */
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    /**
+     * Заголовок If-None-Match.
+     */
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * Заголовок If-Modified-Since.
+     */
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
+    /**
+     * Заголовок Retry-After.
+     */
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+
     /**
      * Поставщик данных о топиках.
      */
     private TopicDataProvider provider;
 
+    /**
+     * Параллельный сбор статистики по множеству топиков.
+     */
+    private TopicStatsCollector statsCollector;
+
+    /**
+     * Сбор истории запусков топика.
+     */
+    private TopicHistoryCollector historyCollector;
+
+    /**
+     * Сбор статистики по всем топикам.
+     */
+    private GlobalStatsCollector globalStatsCollector;
+
+    /**
+     * Преобразователь объектов в JSON.
+     */
+    private ObjectMapper objectMapper;
+
+    /**
+     * Пул потоков чтения данных.
+     */
+    private TopicIoExecutor ioExecutor;
+
+    /**
+     * Кэш готовых тел ответов.
+     */
+    private SerializedResponseCache responseCache;
+
+    /**
+     * Сжатие тел ответов.
+     */
+    private ResponseCompression compression;
+
+    /**
+     * Длительность сериализации тел ответов целиком.
+     */
+    private Timer bufferedTimer = new Timer();
+
+    /**
+     * Длительность потоковой записи тел ответов.
+     */
+    private Timer streamingTimer = new Timer();
+
     /**
      * @param provider поставщик данных о топиках
      */
@@ -37,67 +166,653 @@ public class TopicsController {
     }
 
     /**
-     * @return перечень топиков
-     * @throws ru.unlocker.topic.stats.TopicDataException ошибка получения списка топиков
+     * @param statsCollector параллельный сбор статистики по множеству топиков
+     */
+    @Autowired
+    public void setStatsCollector(TopicStatsCollector statsCollector) {
+        this.statsCollector = statsCollector;
+    }
+
+    /**
+     * @param historyCollector сбор истории запусков топика
+     */
+    @Autowired
+    public void setHistoryCollector(TopicHistoryCollector historyCollector) {
+        this.historyCollector = historyCollector;
+    }
+
+    /**
+     * @param globalStatsCollector сбор статистики по всем топикам
+     */
+    @Autowired
+    public void setGlobalStatsCollector(GlobalStatsCollector globalStatsCollector) {
+        this.globalStatsCollector = globalStatsCollector;
+    }
+
+    /**
+     * @param objectMapper преобразователь объектов в JSON
+     */
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param ioExecutor пул потоков чтения данных
+     */
+    @Autowired
+    public void setIoExecutor(TopicIoExecutor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * @param responseCache кэш готовых тел ответов
+     */
+    @Autowired
+    public void setResponseCache(SerializedResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * @param compression сжатие тел ответов
+     */
+    @Autowired
+    public void setCompression(ResponseCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @param metrics реестр метрик
+     */
+    @Autowired
+    public void setMetrics(MetricsRegistry metrics) {
+        bufferedTimer = metrics.timer(TimedJsonHttpMessageConverter.SERIALIZATION_METRIC,
+                TimedJsonHttpMessageConverter.SERIALIZATION_HELP, "mode", "buffered");
+        streamingTimer = metrics.timer(TimedJsonHttpMessageConverter.SERIALIZATION_METRIC,
+                TimedJsonHttpMessageConverter.SERIALIZATION_HELP, "mode", "streaming");
+    }
+
+    /**
+     * Запрос перечня топиков. Идентификаторы записываются в ответ по мере обхода, без построения полного
+     * перечня в памяти; длинный перечень сжимается, если клиент это допускает.
+     *
+     * @param request запрос
+     * @param response ответ
+     * @return окончание записи ответа
      */
     @RequestMapping("/topics")
     @ResponseBody
-    public List<String> getTopics() throws TopicDataException {
-        return provider.getTopics();
+    public DeferredResult<Void> getTopics(final HttpServletRequest request, final HttpServletResponse response) {
+        return ioExecutor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TopicDataException, IOException, InterruptedException {
+                final ResponseCompression.Coding coding = compression.select(request, response);
+                response.addHeader(VARY_HEADER, ACCEPT_HEADER);
+                if (acceptsPacked(request)) {
+                    response.setContentType(PackedHttpMessageConverter.PACKED_MEDIA_TYPE.toString());
+                    writeStreaming(response, coding, new StreamingBody() {
+
+                        @Override
+                        public void writeTo(OutputStream out) throws TopicDataException, IOException {
+                            final PackedHttpMessageConverter.PackedOutput packed
+                                    = new PackedHttpMessageConverter.PackedOutput(out);
+                            packed.writeTag(PackedHttpMessageConverter.LIST_TAG);
+                            provider.visitTopics(new TopicVisitor() {
+
+                                @Override
+                                public void visit(String topicId) throws IOException {
+                                    packed.writeString(topicId);
+                                }
+                            });
+                            packed.writeListEnd();
+                        }
+                    });
+                    return null;
+                }
+                response.setContentType(JSON_CONTENT_TYPE);
+                writeStreaming(response, coding, new StreamingBody() {
+
+                    @Override
+                    public void writeTo(OutputStream out) throws TopicDataException, IOException {
+                        final JsonGenerator generator = createGenerator(out);
+                        generator.writeStartArray();
+                        provider.visitTopics(new TopicVisitor() {
+
+                            @Override
+                            public void visit(String topicId) throws IOException {
+                                generator.writeString(topicId);
+                            }
+                        });
+                        generator.writeEndArray();
+                        generator.close();
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Запрос статистики по множеству топиков. Статистика рассчитывается параллельно, результаты
+     * записываются в ответ JSON-массивом по мере готовности; для топиков без данных в массив попадает
+     * описание ошибки.
+     *
+     * @param ids идентификаторы топиков; если не заданы - все топики
+     * @param response ответ
+     * @return окончание записи ответа
+     */
+    @RequestMapping("/topics/stats")
+    @ResponseBody
+    public DeferredResult<Void> getTopicsStats(@RequestParam(value = "ids", required = false) final String[] ids,
+            final HttpServletResponse response) {
+        return ioExecutor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TopicDataException, IOException, InterruptedException {
+                final List<String> topicIds = ids == null ? provider.getTopics() : Arrays.asList(ids);
+                response.setContentType(JSON_CONTENT_TYPE);
+                writeStreaming(response, null, new StreamingBody() {
+
+                    @Override
+                    public void writeTo(OutputStream out)
+                            throws TopicDataException, IOException, InterruptedException {
+                        final JsonGenerator generator = createGenerator(out);
+                        generator.writeStartArray();
+                        statsCollector.collect(topicIds, new TopicStatsCollector.Handler() {
+
+                            @Override
+                            public void onStats(TopicStats stats) throws IOException {
+                                generator.writeObject(stats);
+                            }
+
+                            @Override
+                            public void onError(String topicId, TopicDataException error) throws IOException {
+                                generator.writeObject(new ExceptionView(topicId, error.getMessage()));
+                            }
+                        });
+                        generator.writeEndArray();
+                        generator.close();
+                    }
+                });
+                return null;
+            }
+        });
     }
 
     /**
      * Запрос даты последнего запуска для топика
      *
      * @param id идентификатор топика
-     * @return дата последнего запуска
-     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топика не существует
-     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException топика ни разу не запускался
+     * @param request запрос
+     * @return дата последнего запуска или пустой ответ 304, если данные не изменились
      */
     @RequestMapping("/topics/{id}/last")
     @ResponseBody()
-    public DateTime getTopicTimestamp(@PathVariable(value = "id") String id) throws TopicDataException {
-        return provider.getLastTopicTimestamp(id);
+    public DeferredResult<ResponseEntity<DateTime>> getTopicTimestamp(@PathVariable(value = "id") final String id,
+            final HttpServletRequest request) {
+        return ioExecutor.submit(new Callable<ResponseEntity<DateTime>>() {
+
+            @Override
+            public ResponseEntity<DateTime> call() throws TopicDataException {
+                final RunVersion version = provider.getLastRunVersion(id);
+                final String etag = version.getETag();
+                if (isNotModified(version, etag, request)) {
+                    return new ResponseEntity<>(versionHeaders(version, etag), HttpStatus.NOT_MODIFIED);
+                }
+                return new ResponseEntity<>(version.getTimestamp(), versionHeaders(version, etag), HttpStatus.OK);
+            }
+        });
     }
 
     /**
-     * Запрос статистики по топику
+     * Запрос статистики по топику. Тело ответа берётся из кэша готовых ответов, пока не появился новый
+     * запуск.
      *
      * @param id идентификатор
-     * @return статистика
-     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топика не существует
-     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException топика ни разу не запускался
+     * @param metrics расширенные показатели: sum, count, mean, median, p90, p99, stddev, skew, top
+     * @param top число самых нагруженных партиций для показателя top
+     * @param request запрос
+     * @param response ответ
+     * @return окончание записи статистики или пустого ответа 304, если данные не изменились
      */
     @RequestMapping("/topics/{id}/stats")
     @ResponseBody
-    public TopicStats getTopicStats(@PathVariable(value = "id") String id) throws TopicDataException {
-        return provider.getTopicStats(id);
+    public DeferredResult<Void> getTopicStats(@PathVariable(value = "id") final String id,
+            @RequestParam(value = "metrics", required = false) final String[] metrics,
+            @RequestParam(value = "top", defaultValue = "10") final int top,
+            final HttpServletRequest request, final HttpServletResponse response) {
+        return ioExecutor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TopicDataException, IOException {
+                final Set<TopicStats.Metric> parsed = metrics == null ? null : TopicStats.Metric.parse(metrics);
+                // число партиций влияет на тело только вместе с показателем top
+                final String resource = parsed == null ? "stats"
+                        : parsed.contains(TopicStats.Metric.TOP) ? "stats" + parsed + top : "stats" + parsed;
+                writeCached(resource, id, request, response, new ResponseSource() {
+
+                    @Override
+                    public Object get(DateTime ts) throws TopicDataException {
+                        return provider.getTopicStats(id, ts,
+                                parsed == null ? EnumSet.noneOf(TopicStats.Metric.class) : parsed, top);
+                    }
+                });
+                return null;
+            }
+        });
     }
 
     /**
-     * Запрос списка партиций по топику
+     * Запрос списка партиций по топику. Тело ответа берётся из кэша готовых ответов, пока не появился новый
+     * запуск.
      *
      * @param id идентификатор
-     * @return список партиций топика
-     * @throws ru.unlocker.topic.stats.TopicDataException.NoSuchTopicException топика не существует
-     * @throws ru.unlocker.topic.stats.TopicDataException.MissingTopicDataException топика ни разу не запускался
+     * @param request запрос
+     * @param response ответ
+     * @return окончание записи списка партиций или пустого ответа 304, если данные не изменились
      */
     @RequestMapping("/topics/{id}/parts")
     @ResponseBody
-    public TopicParts getTopicParts(@PathVariable(value = "id") String id) throws TopicDataException {
-        return provider.getTopicParts(id);
+    public DeferredResult<Void> getTopicParts(@PathVariable(value = "id") final String id,
+            final HttpServletRequest request, final HttpServletResponse response) {
+        return ioExecutor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TopicDataException, IOException {
+                writeCached("parts", id, request, response, new ResponseSource() {
+
+                    @Override
+                    public Object get(DateTime ts) throws TopicDataException {
+                        return provider.getTopicParts(id, ts);
+                    }
+                });
+                return null;
+            }
+        });
     }
 
     /**
-     * Обработчик исключений.
+     * Запрос сводки по топику за один разбор последнего запуска
+     *
+     * @param id идентификатор
+     * @param include разделы сводки: last, stats, parts
+     * @return сводка по топику
+     */
+    @RequestMapping("/topics/{id}/summary")
+    @ResponseBody
+    public DeferredResult<TopicSummary> getTopicSummary(@PathVariable(value = "id") final String id,
+            @RequestParam(value = "include", defaultValue = "last,stats,parts") final String[] include) {
+        return ioExecutor.submit(new Callable<TopicSummary>() {
+
+            @Override
+            public TopicSummary call() throws TopicDataException {
+                return provider.getTopicSummary(id, TopicSummary.Section.parse(include));
+            }
+        });
+    }
+
+    /**
+     * Запрос скользящих показателей топика по последним запускам: среднее число сообщений на партицию,
+     * средняя сумма и прирост суммы за запуск и за час.
+     *
+     * @param id идентификатор
+     * @param window число последних запусков
+     * @return скользящие показатели
+     */
+    @RequestMapping("/topics/{id}/trend")
+    @ResponseBody
+    public DeferredResult<TopicTrend> getTopicTrend(@PathVariable(value = "id") final String id,
+            @RequestParam(value = "window", defaultValue = "10") final int window) {
+        return ioExecutor.submit(new Callable<TopicTrend>() {
+
+            @Override
+            public TopicTrend call() throws TopicDataException {
+                return provider.getTopicTrend(id, window);
+            }
+        });
+    }
+
+    /**
+     * Запрос статистики последних запусков топика.
+     *
+     * @param id идентификатор
+     * @param window число последних запусков
+     * @return статистика запусков по возрастанию времени
+     */
+    @RequestMapping("/topics/{id}/trend/runs")
+    @ResponseBody
+    public DeferredResult<List<RunStats>> getTopicTrendRuns(@PathVariable(value = "id") final String id,
+            @RequestParam(value = "window", defaultValue = "10") final int window) {
+        return ioExecutor.submit(new Callable<List<RunStats>>() {
+
+            @Override
+            public List<RunStats> call() throws TopicDataException {
+                return provider.getRecentRunStats(id, window);
+            }
+        });
+    }
+
+    /**
+     * Запрос статистики по последним запускам всех топиков: общее число сообщений и партиций,
+     * крупнейшие топики, разброс объёмов топиков и распределение топиков по перекосу партиций.
+     *
+     * @param top число крупнейших топиков
+     * @return статистика по всем топикам
+     */
+    @RequestMapping("/stats/global")
+    @ResponseBody
+    public DeferredResult<GlobalStats> getGlobalStats(
+            @RequestParam(value = "top", defaultValue = "10") final int top) {
+        return ioExecutor.submit(new Callable<GlobalStats>() {
+
+            @Override
+            public GlobalStats call() throws TopicDataException, InterruptedException {
+                return globalStatsCollector.collect(top);
+            }
+        });
+    }
+
+    /**
+     * Запрос истории запусков топика: статистика каждого запуска из диапазона и изменение числа сообщений
+     * по партициям относительно предыдущего запуска. Запуски разбираются параллельно, записи
+     * записываются в ответ JSON-массивом по мере готовности.
+     *
+     * @param id идентификатор
+     * @param from начало диапазона (ISO 8601) включительно
+     * @param to конец диапазона (ISO 8601) включительно
+     * @param response ответ
+     * @return окончание записи ответа
+     */
+    @RequestMapping("/topics/{id}/history")
+    @ResponseBody
+    public DeferredResult<Void> getTopicHistory(@PathVariable(value = "id") final String id,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final DateTime from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) final DateTime to,
+            final HttpServletResponse response) {
+        return ioExecutor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TopicDataException, IOException, InterruptedException {
+                final List<DateTime> timestamps = provider.getTopicTimestamps(id, from, to);
+                response.setContentType(JSON_CONTENT_TYPE);
+                writeStreaming(response, null, new StreamingBody() {
+
+                    @Override
+                    public void writeTo(OutputStream out)
+                            throws TopicDataException, IOException, InterruptedException {
+                        final JsonGenerator generator = createGenerator(out);
+                        generator.writeStartArray();
+                        historyCollector.collect(id, timestamps, new TopicHistoryCollector.Handler() {
+
+                            @Override
+                            public void onEntry(RunHistoryEntry entry) throws IOException {
+                                generator.writeObject(entry);
+                            }
+                        });
+                        generator.writeEndArray();
+                        generator.close();
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Записывает тело ответа по мере получения данных. Поток ответа закрывается (с концом сжатого
+     * потока) только после успешной записи всего тела. При ошибке ещё не отправленный ответ сбрасывается,
+     * чтобы вместо него записалось описание ошибки; уже отправленное начало тела остаётся оборванным, и
+     * клиент не примет его за полный ответ.
+     *
+     * @param response ответ
+     * @param coding выбранное сжатие или {@code null}
+     * @param body запись тела
+     * @throws TopicDataException ошибка получения данных
+     * @throws IOException ошибка записи
+     * @throws InterruptedException запрос прерван
+     */
+    private void writeStreaming(HttpServletResponse response, ResponseCompression.Coding coding,
+            StreamingBody body) throws TopicDataException, IOException, InterruptedException {
+        final long start = Timer.start();
+        try {
+            final OutputStream out = compression.open(response, coding);
+            body.writeTo(out);
+            out.close();
+        } catch (TopicDataException | IOException | InterruptedException | RuntimeException ex) {
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+            throw ex;
+        } finally {
+            streamingTimer.stop(start);
+        }
+    }
+
+    /**
+     * Создаёт генератор JSON поверх потока ответа. Генератор не дописывает незакрытые массивы и не
+     * закрывает поток: при ошибке посреди записи тело должно остаться незавершённым.
+     *
+     * @param out поток ответа
+     * @return генератор
+     * @throws IOException ошибка создания генератора
+     */
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Записывает ответ по последнему запуску топика: пустой ответ 304, если данные не изменились, иначе
+     * готовое тело JSON или двоичного формата (по заголовку Accept) из кэша. При промахе тело строится, сериализуется один раз и сохраняется в кэш
+     * под ETag текущей версии запуска; тело строится по тому же запуску, что и ETag, даже если за это время
+     * появился новый. Если клиент допускает сжатие и тело не короче порога, отправляется
+     * сжатое тело; оно тоже сжимается один раз на запуск и хранится в кэше рядом с JSON.
+     *
+     * @param resource ресурс: запрос вместе с параметрами, влияющими на тело ответа
+     * @param id идентификатор топика
+     * @param request запрос
+     * @param response ответ
+     * @param source построение тела ответа
+     * @throws TopicDataException ошибка получения данных
+     * @throws IOException ошибка записи ответа
+     */
+    private void writeCached(String resource, String id, HttpServletRequest request, HttpServletResponse response,
+            ResponseSource source) throws TopicDataException, IOException {
+        final RunVersion version = provider.getLastRunVersion(id);
+        final boolean packed = acceptsPacked(request);
+        final String representation = packed ? PACKED_REPRESENTATION : JSON_REPRESENTATION;
+        final ResponseCompression.Coding coding = compression.select(request, response);
+        response.addHeader(VARY_HEADER, ACCEPT_HEADER);
+        final String variantETag = variantETag(version, packed, coding);
+        for (Map.Entry<String, List<String>> header : versionHeaders(version, variantETag).entrySet()) {
+            response.setHeader(header.getKey(), header.getValue().get(0));
+        }
+        if (isNotModified(version, variantETag, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        final String etag = version.getETag();
+        response.setContentType(packed
+                ? PackedHttpMessageConverter.PACKED_MEDIA_TYPE.toString()
+                : JSON_CONTENT_TYPE);
+        final String compressedRepresentation = coding == null ? null : representation + "+" + coding.getToken();
+        if (coding != null) {
+            final byte[] compressed = responseCache.get(resource, id, compressedRepresentation, etag);
+            if (compressed != null) {
+                compression.writeCompressed(response, coding, compressed);
+                return;
+            }
+        }
+        byte[] body = responseCache.get(resource, id, representation, etag);
+        if (body == null) {
+            final Object value = source.get(version.getTimestamp());
+            final long start = Timer.start();
+            try {
+                body = packed ? PackedHttpMessageConverter.encode(value) : objectMapper.writeValueAsBytes(value);
+            } finally {
+                bufferedTimer.stop(start);
+            }
+            responseCache.put(resource, id, representation, etag, body);
+        }
+        if (coding != null && body.length >= compression.getMinBytes()) {
+            final byte[] compressed = compression.compress(body, coding);
+            responseCache.put(resource, id, compressedRepresentation, etag, compressed);
+            compression.writeCompressed(response, coding, compressed);
+            return;
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Проверяет, предпочитает ли клиент двоичный формат JSON: выбирается первый по весу и точности тип из
+     * заголовка Accept, под который подходит один из форматов. Типы с q=0 пропускаются как неприемлемые.
      *
-     * @param ex исключение
      * @param request запрос
+     * @return признак ответа в двоичном формате
+     */
+    private static boolean acceptsPacked(HttpServletRequest request) {
+        final String accept = request.getHeader(ACCEPT_HEADER);
+        if (accept == null) {
+            return false;
+        }
+        final List<MediaType> types = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(types);
+        for (MediaType type : types) {
+            if (type.getQualityValue() == 0.0) {
+                // q=0 означает, что тип неприемлем
+                continue;
+            }
+            if (type.includes(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+            if (type.includes(PackedHttpMessageConverter.PACKED_MEDIA_TYPE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ETag варианта тела по версии последнего запуска: разные представления и способы сжатия одного запуска
+     * отличаются байтами, поэтому не должны делить один строгий ETag.
+     *
+     * @param version версия последнего запуска
+     * @param packed признак двоичного формата
+     * @param coding способ сжатия или {@code null}
+     * @return ETag варианта; для несжатого JSON - ETag версии запуска
+     */
+    private static String variantETag(RunVersion version, boolean packed, ResponseCompression.Coding coding) {
+        final String etag = version.getETag();
+        final StringBuilder variant = new StringBuilder(etag.length() + 16);
+        variant.append(etag, 0, etag.length() - 1);
+        if (packed) {
+            variant.append('-').append(PACKED_REPRESENTATION);
+        }
+        if (coding != null) {
+            variant.append('-').append(coding.getToken());
+        }
+        return variant.append('"').toString();
+    }
+
+    /**
+     * Заголовки ETag и Last-Modified по версии последнего запуска.
+     *
+     * @param version версия последнего запуска
+     * @param etag ETag отправляемого варианта тела
+     * @return заголовки ответа
+     */
+    private static HttpHeaders versionHeaders(RunVersion version, String etag) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(ETAG_HEADER, etag);
+        headers.setDate(LAST_MODIFIED_HEADER, version.getLastModified());
+        return headers;
+    }
+
+    /**
+     * Проверяет условия If-None-Match/If-Modified-Since по версии последнего запуска.
+     *
+     * @param version версия последнего запуска
+     * @param etag ETag отправляемого варианта тела
+     * @param request запрос
+     * @return признак того, что данные не изменились (304)
+     */
+    private static boolean isNotModified(RunVersion version, String etag, HttpServletRequest request) {
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            boolean notModified = false;
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                notModified |= candidate.equals("*") || candidate.equals(etag);
+            }
+            return notModified;
+        }
+        final long ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE_HEADER);
+        return ifModifiedSince >= 0 && ifModifiedSince >= version.getLastModified() / 1000 * 1000;
+    }
+
+    /**
+     * Обработчик перегрузки: 503 с рекомендуемой паузой перед повтором.
+     *
+     * @param ex исключение
+     * @param response ответ
      * @return представление исключения
      */
+    @ExceptionHandler(ServiceBusyException.class)
+    @ResponseBody
+    public ExceptionView handleServiceBusy(ServiceBusyException ex, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(RETRY_AFTER_HEADER, Integer.toString(ex.getRetryAfterSeconds()));
+        return new ExceptionView(ex.getMessage());
+    }
+
+    /**
+     * Обработчик исключений. Если начало тела уже отправлено, описание ошибки не дописывается к нему:
+     * ответ остаётся оборванным.
+     *
+     * @param ex исключение
+     * @param request запрос
+     * @param response ответ
+     * @return представление исключения или {@code null}, если ответ уже отправлен
+     */
     @ExceptionHandler(Exception.class)
     @ResponseBody
-    public ExceptionView handleException(Exception ex, HttpServletRequest request) {
+    public ExceptionView handleException(Exception ex, HttpServletRequest request, HttpServletResponse response) {
+        if (response.isCommitted()) {
+            return null;
+        }
         return new ExceptionView(ex.getMessage());
     }
+
+    /**
+     * Запись тела ответа по мере получения данных.
+     */
+    private interface StreamingBody {
+
+        /**
+         * @param out поток ответа
+         * @throws TopicDataException ошибка получения данных
+         * @throws IOException ошибка записи
+         * @throws InterruptedException запрос прерван
+         */
+        void writeTo(OutputStream out) throws TopicDataException, IOException, InterruptedException;
+    }
+
+    /**
+     * Построение тела ответа при промахе кэша готовых ответов.
+     */
+    private interface ResponseSource {
+
+        /**
+         * @param ts временная метка запуска, по версии которого выставлен ETag
+         * @return тело ответа
+         * @throws TopicDataException ошибка получения данных
+         */
+        Object get(DateTime ts) throws TopicDataException;
+    }
 }
@@ -2,30 +2,46 @@ package ru.unlocker.topic.stats.filesystem;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
+import java.util.Set;
+import java.util.NavigableSet;
 import java.util.TreeSet;
-import java.util.function.Consumer;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeComparator;
-import org.joda.time.format.DateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.unlocker.topic.stats.TopicDataException;
 import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.metrics.Timer;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.PartitionStats;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
 import ru.unlocker.topic.stats.views.TopicParts;
 import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
 
 /**
  * Поставщик данных о топиках в файловой системе
@@ -50,9 +66,16 @@ public class FileSystemTopicDataProvider implements TopicDataProvider {
     public static final String CSV_DATAFILE_NAME = "offsets.csv";
 
     /**
-     * Шаблон временной метки.
+     * Наименование файла-указателя на последний запуск в папке истории.
      */
-    private static final Pattern TIMESTAMP_REGEX_TEMPLATE = Pattern.compile("^\\d{4}(-\\d{2}){5}$");
+    public static final String LATEST_MARKER_NAME = "LATEST";
+
+    /**
+     * Время без изменений папки истории, после которого пишется файл-указатель, в мс: наибольшая
+     * распространённая точность времени изменения (2 с у FAT), в пределах которой создание папки запуска
+     * может не изменить время изменения папки истории.
+     */
+    static final long LATEST_MARKER_SETTLE_MILLIS = 2000;
 
     /**
      * Лог.
@@ -64,6 +87,82 @@ public class FileSystemTopicDataProvider implements TopicDataProvider {
      */
     private final File root;
 
+    /**
+     * Кэш разобранных файлов CSV.
+     */
+    private RunPartsCache partsCache;
+
+    /**
+     * Признак использования двоичных снимков разобранных файлов CSV.
+     */
+    private boolean snapshotsEnabled;
+
+    /**
+     * Признак отключения записи снимков после ошибки записи.
+     */
+    private final AtomicBoolean snapshotWritesFailed = new AtomicBoolean();
+
+    /**
+     * Признак использования файлов-указателей на последний запуск.
+     */
+    private boolean latestMarkerEnabled;
+
+    /**
+     * Признак ведения журналов статистики запусков.
+     */
+    private boolean summaryLogEnabled;
+
+    /**
+     * Число блокировок дозаписи журналов статистики запусков.
+     */
+    private static final int SUMMARY_LOCK_STRIPES = 64;
+
+    /**
+     * Блокировки дозаписи журналов статистики запусков: топик выбирает блокировку по хэшу идентификатора,
+     * поэтому запросы к несуществующим топикам не накапливают блокировки.
+     */
+    private final Object[] summaryLocks = newLocks(SUMMARY_LOCK_STRIPES);
+
+    /**
+     * Длительность обхода корневой папки.
+     */
+    private Timer listTopicsTimer = new Timer();
+
+    /**
+     * Длительность обхода папки истории без разбора имён.
+     */
+    private Timer listTimestampsTimer = new Timer();
+
+    /**
+     * Длительность разбора имён папок запусков.
+     */
+    private Timer parseTimestampsTimer = new Timer();
+
+    /**
+     * Длительность разбора файлов CSV.
+     */
+    private Timer readCsvTimer = new Timer();
+
+    /**
+     * Длительность чтения двоичных снимков.
+     */
+    private Timer readSnapshotTimer = new Timer();
+
+    /**
+     * Длительность записи двоичных снимков.
+     */
+    private Timer writeSnapshotTimer = new Timer();
+
+    /**
+     * Длительность чтения и дозаписи журналов статистики запусков.
+     */
+    private Timer summaryLogTimer = new Timer();
+
+    /**
+     * Число пропущенных некорректных строк CSV.
+     */
+    private Counter malformedRows = new Counter();
+
     /**
      * Поставщик данных о топиках в файловой системе
      *
@@ -78,88 +177,537 @@ public class FileSystemTopicDataProvider implements TopicDataProvider {
         this.root = rootFile;
     }
 
+    /**
+     * @param partsCache кэш разобранных файлов CSV
+     */
+    public void setPartsCache(RunPartsCache partsCache) {
+        this.partsCache = partsCache;
+    }
+
+    /**
+     * @param snapshotsEnabled признак использования двоичных снимков разобранных файлов CSV
+     */
+    public void setSnapshotsEnabled(boolean snapshotsEnabled) {
+        this.snapshotsEnabled = snapshotsEnabled;
+    }
+
+    /**
+     * @param latestMarkerEnabled признак использования файлов-указателей на последний запуск
+     */
+    public void setLatestMarkerEnabled(boolean latestMarkerEnabled) {
+        this.latestMarkerEnabled = latestMarkerEnabled;
+    }
+
+    /**
+     * @param summaryLogEnabled признак ведения журналов статистики запусков
+     */
+    public void setSummaryLogEnabled(boolean summaryLogEnabled) {
+        this.summaryLogEnabled = summaryLogEnabled;
+    }
+
+    /**
+     * Регистрирует метрики этапов чтения данных.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        final String phases = "topics_provider_phase_seconds";
+        final String phasesHelp = "Длительность этапов чтения данных о топиках.";
+        listTopicsTimer = metrics.timer(phases, phasesHelp, "phase", "list_topics");
+        listTimestampsTimer = metrics.timer(phases, phasesHelp, "phase", "list_timestamps");
+        parseTimestampsTimer = metrics.timer(phases, phasesHelp, "phase", "parse_timestamps");
+        readCsvTimer = metrics.timer(phases, phasesHelp, "phase", "read_csv");
+        readSnapshotTimer = metrics.timer(phases, phasesHelp, "phase", "read_snapshot");
+        writeSnapshotTimer = metrics.timer(phases, phasesHelp, "phase", "write_snapshot");
+        summaryLogTimer = metrics.timer(phases, phasesHelp, "phase", "summary_log");
+        malformedRows = metrics.counter("topics_csv_malformed_rows_total",
+                "Строки offsets.csv, пропущенные как некорректные.");
+    }
+
     @Override
     public List<String> getTopics() throws TopicDataException {
-        List<String> topics = new ArrayList<>();
+        final List<String> topics = new ArrayList<>();
+        visitTopics(new TopicVisitor() {
+
+            @Override
+            public void visit(String topicId) {
+                topics.add(topicId);
+            }
+        });
+        return topics;
+    }
+
+    @Override
+    public void visitTopics(TopicVisitor visitor) throws TopicDataException {
+        final long start = Timer.start();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.toPath())) {
             for (Path entry : stream) {
                 if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
-                    topics.add(entry.getFileName().toString());
+                    try {
+                        visitor.visit(entry.getFileName().toString());
+                    } catch (IOException ex) {
+                        LOGGER.debug("Обход топиков прерван обработчиком: {}", ex.toString());
+                        throw TopicDataException.visitAbortedException(ex);
+                    }
                 }
             }
-            return topics;
-        } catch (IOException ex) {
+        } catch (IOException | DirectoryIteratorException ex) {
             final String message = "Ошибка получения списка топиков.";
-            LOGGER.error(message, ex);
+            logReadError(message, ex);
             throw new TopicDataException(message, ex);
+        } finally {
+            listTopicsTimer.stop(start);
         }
     }
 
     @Override
     public DateTime getLastTopicTimestamp(final String topicId) throws TopicDataException {
-        Path topicDirPath = Paths.get(root.getPath(), topicId);
-        if (Files.notExists(topicDirPath) || !Files.isDirectory(topicDirPath)) {
-            throw TopicDataException.noSuchTopicException(topicId);
+        Path historyDir = getHistoryDir(topicId);
+        if (!latestMarkerEnabled) {
+            return parseTimestampFolderName(scanLatest(topicId, historyDir));
         }
-        File historyDir = new File(topicDirPath.toFile(), HISTORY_FOLDER_NAME);
-        if (!historyDir.exists() || historyDir.listFiles().length == 0) {
-            throw TopicDataException.missingTopicDataException(topicId);
+        final long historyModified;
+        try {
+            historyModified = Files.getLastModifiedTime(historyDir).to(TimeUnit.NANOSECONDS);
+        } catch (IOException ex) {
+            return parseTimestampFolderName(scanLatest(topicId, historyDir));
         }
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(historyDir.toPath(),
-                new TimestampFolderFilter())) {
-            SortedSet<DateTime> allTimestamps = new TreeSet<>(DateTimeComparator.getInstance());
-            for (Path entry : stream) {
-                final String filename = entry.getFileName().toString();
-                final DateTime ts = DateTime.parse(filename, DateTimeFormat.forPattern(TIMESTAMP_FOLDER_TEMPLATE));
-                allTimestamps.add(ts);
-            }
-            if (allTimestamps.isEmpty()) {
-                throw TopicDataException.missingTopicDataException(topicId);
+        Path markerPath = historyDir.resolve(LATEST_MARKER_NAME);
+        String latest = readLatestMarker(markerPath, historyModified);
+        if (latest == null) {
+            final long scanStarted = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+            latest = scanLatest(topicId, historyDir);
+            // при грубом времени изменения папки новый запуск в том же интервале его не меняет,
+            // поэтому указатель записывается, только если папка не менялась дольше этого интервала
+            if (scanStarted - historyModified >= TimeUnit.MILLISECONDS.toNanos(LATEST_MARKER_SETTLE_MILLIS)) {
+                writeLatestMarker(markerPath, latest, historyModified);
             }
-            return allTimestamps.last();
+        }
+        return parseTimestampFolderName(latest);
+    }
+
+    @Override
+    public List<DateTime> getTopicTimestamps(String topicId, DateTime from, DateTime to)
+            throws TopicDataException {
+        return new ArrayList<>(selectRange(listTimestamps(topicId), from, to));
+    }
+
+    @Override
+    public PartitionCounts getRunParts(String topicId, DateTime ts) throws TopicDataException {
+        try {
+            return readParts(topicId, ts);
         } catch (IOException ex) {
-            final String message = String.format("Ошибка получения времени запуска топика '%s'.", topicId);
-            LOGGER.error(message, ex);
+            final String message = String.format("Ошибка получения данных запуска %s топика '%s'.",
+                    ts.toString(TIMESTAMP_FOLDER_TEMPLATE), topicId);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+    }
+
+    @Override
+    public RunVersion getLastRunVersion(String topicId) throws TopicDataException {
+        final DateTime last = getLastTopicTimestamp(topicId);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(getCsvPath(topicId, last), BasicFileAttributes.class);
+            return new RunVersion(last, attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException ex) {
+            return new RunVersion(last, -1, last.getMillis());
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения версии запуска топика '%s'.", topicId);
+            logReadError(message, ex);
             throw new TopicDataException(message, ex);
         }
     }
 
     @Override
     public TopicStats getTopicStats(String topicId) throws TopicDataException {
+        return getTopicStats(topicId, getLastTopicTimestamp(topicId), EnumSet.noneOf(TopicStats.Metric.class), 0);
+    }
+
+    @Override
+    public RunStats getLastRunStats(String topicId) throws TopicDataException {
         final DateTime last = getLastTopicTimestamp(topicId);
-        Path csvPath = getCsvPath(topicId, last);
-        try (Stream<String> stream = Files.lines(csvPath)) {
-            CsvRowConsumer consumer = new CsvRowConsumer();
-            stream.forEach(consumer);
-            Map<Integer, Long> parts = consumer.getParts();
+        try {
+            return readStats(topicId, last);
+        } catch (NoSuchFileException ex) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения статистики топика '%s'.", topicId);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+    }
+
+    @Override
+    public TopicStats getTopicStats(String topicId, Set<TopicStats.Metric> metrics, int top)
+            throws TopicDataException {
+        return getTopicStats(topicId, getLastTopicTimestamp(topicId), metrics, top);
+    }
+
+    @Override
+    public TopicStats getTopicStats(String topicId, DateTime ts, Set<TopicStats.Metric> metrics, int top)
+            throws TopicDataException {
+        if (metrics.contains(TopicStats.Metric.TOP) && top < 1) {
+            throw new IllegalArgumentException("Число нагруженных партиций должно быть положительным.");
+        }
+        try {
+            if (metrics.isEmpty()) {
+                RunStats stats = readStats(topicId, ts);
+                if (stats.getCount() == 0) {
+                    throw TopicDataException.missingTopicDataException(topicId);
+                }
+                return toTopicStats(topicId, stats);
+            }
+            PartitionCounts parts = readParts(topicId, ts);
             if (parts.isEmpty()) {
                 throw TopicDataException.missingTopicDataException(topicId);
             }
-            return calculateStatsForTopic(topicId, last, parts);
+            PartitionStats details = PartitionStats.of(parts, metrics, top);
+            return new TopicStats(topicId, ts, details.getMin(), details.getMax(), details.getAvg(), details);
 
         } catch (IOException ex) {
             final String message = String.format("Ошибка получения статистики топика '%s'.", topicId);
-            LOGGER.error(message, ex);
+            logReadError(message, ex);
             throw new TopicDataException(message, ex);
         }
     }
 
     @Override
     public TopicParts getTopicParts(String topicId) throws TopicDataException {
-        final DateTime last = getLastTopicTimestamp(topicId);
-        Path csvPath = getCsvPath(topicId, last);
-        try (Stream<String> stream = Files.lines(csvPath)) {
-            CsvRowConsumer consumer = new CsvRowConsumer();
-            stream.forEach(consumer);
-            return new TopicParts(topicId, last, consumer.getParts());
+        return getTopicParts(topicId, getLastTopicTimestamp(topicId));
+    }
+
+    @Override
+    public TopicParts getTopicParts(String topicId, DateTime ts) throws TopicDataException {
+        try {
+            return new TopicParts(topicId, ts, readParts(topicId, ts));
 
         } catch (IOException ex) {
             final String message = String.format("Ошибка получения списка партиций топика '%s'.", topicId);
-            LOGGER.error(message, ex);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+    }
+
+    @Override
+    public TopicSummary getTopicSummary(String topicId, Set<TopicSummary.Section> sections)
+            throws TopicDataException {
+        final DateTime last = getLastTopicTimestamp(topicId);
+        TopicStats stats = null;
+        PartitionCounts parts = null;
+        try {
+            RunStats runStats = null;
+            if (sections.contains(TopicSummary.Section.PARTS)) {
+                parts = readParts(topicId, last);
+                runStats = RunStats.of(last, parts);
+            } else if (sections.contains(TopicSummary.Section.STATS)) {
+                runStats = readStats(topicId, last);
+            }
+            if (sections.contains(TopicSummary.Section.STATS)) {
+                if (runStats.getCount() == 0) {
+                    throw TopicDataException.missingTopicDataException(topicId);
+                }
+                stats = toTopicStats(topicId, runStats);
+            }
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения сводки топика '%s'.", topicId);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+        return new TopicSummary(topicId,
+                sections.contains(TopicSummary.Section.LAST) ? last : null,
+                stats,
+                parts);
+    }
+
+    @Override
+    public List<RunStats> getRecentRunStats(String topicId, int window) throws TopicDataException {
+        if (window < 1) {
+            throw new IllegalArgumentException("Число запусков должно быть положительным.");
+        }
+        try {
+            if (summaryLogEnabled) {
+                List<RunStats> logged = readSummaryLog(topicId, window);
+                if (logged != null) {
+                    return logged;
+                }
+            }
+            final List<DateTime> timestamps = getTopicTimestamps(topicId, null, null);
+            final List<RunStats> result = new ArrayList<>();
+            for (DateTime ts : timestamps.subList(Math.max(0, timestamps.size() - window), timestamps.size())) {
+                try {
+                    result.add(readStats(topicId, ts));
+                } catch (NoSuchFileException ex) {
+                    LOGGER.debug("Запуск {} топика '{}' пропущен: нет файла CSV.",
+                            ts.toString(TIMESTAMP_FOLDER_TEMPLATE), topicId);
+                }
+            }
+            return result;
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения статистики запусков топика '%s'.", topicId);
+            logReadError(message, ex);
             throw new TopicDataException(message, ex);
         }
     }
 
+    @Override
+    public TopicTrend getTopicTrend(String topicId, int window) throws TopicDataException {
+        final List<RunStats> runs = getRecentRunStats(topicId, window);
+        if (runs.isEmpty()) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return TopicTrend.of(topicId, runs);
+    }
+
+    /**
+     * Создаёт двоичные снимки для всех запусков всех топиков, у которых снимка нет или он устарел.
+     *
+     * @return число записанных снимков
+     * @throws TopicDataException ошибка получения списка топиков
+     */
+    public int compactSnapshots() throws TopicDataException {
+        int written = 0;
+        for (String topicId : getTopics()) {
+            NavigableSet<DateTime> timestamps;
+            try {
+                timestamps = listTimestamps(topicId);
+            } catch (TopicDataException ex) {
+                LOGGER.debug("Топик '{}' пропущен при создании снимков: {}", topicId, ex.getMessage());
+                continue;
+            }
+            for (DateTime ts : timestamps) {
+                Path csvPath = getCsvPath(topicId, ts);
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(csvPath, BasicFileAttributes.class);
+                    final long size = attrs.size();
+                    final long lastModified = attrs.lastModifiedTime().toMillis();
+                    Path snapshotPath = getSnapshotPath(csvPath);
+                    if (RunSnapshot.readStats(snapshotPath, ts, size, lastModified) == null) {
+                        if (!saveSnapshot(snapshotPath, size, lastModified, parseCsv(csvPath))) {
+                            return written;
+                        }
+                        written++;
+                    }
+                } catch (NoSuchFileException ex) {
+                    LOGGER.debug("Запуск {} топика '{}' пропущен: нет файла CSV.",
+                            ts.toString(TIMESTAMP_FOLDER_TEMPLATE), topicId);
+                } catch (IOException ex) {
+                    LOGGER.warn(String.format("Ошибка чтения запуска %s топика '%s' при создании снимка.",
+                            ts.toString(TIMESTAMP_FOLDER_TEMPLATE), topicId), ex);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Читает статистику последних запусков из журнала топика, предварительно дописав в него запуски,
+     * появившиеся после последней записи. Если последний запуск уже записан, папка истории не обходится и
+     * файлы CSV не читаются.
+     *
+     * @param topicId идентификатор топика
+     * @param window число последних запусков
+     * @return статистика запусков или {@code null}, если журнал не удалось дописать
+     * @throws TopicDataException топик не найден или нет данных по запускам
+     * @throws IOException ошибка чтения журнала или файлов CSV
+     */
+    private List<RunStats> readSummaryLog(String topicId, int window) throws TopicDataException, IOException {
+        final Path logPath = getSummaryLogPath(topicId);
+        synchronized (summaryLocks[(topicId.hashCode() & Integer.MAX_VALUE) % summaryLocks.length]) {
+            final long start = Timer.start();
+            try {
+                final long logged = RunSummaryLog.lastTimestamp(logPath);
+                if (TimestampFolderCodec.encode(getLastTopicTimestamp(topicId)) > logged) {
+                    final List<RunStats> pending = new ArrayList<>();
+                    for (DateTime ts : getTopicTimestamps(topicId, logged == TimestampFolderCodec.INVALID
+                            ? null : TimestampFolderCodec.toDateTime(logged), null)) {
+                        if (TimestampFolderCodec.encode(ts) <= logged) {
+                            continue;
+                        }
+                        try {
+                            pending.add(readStats(topicId, ts));
+                        } catch (NoSuchFileException ex) {
+                            // журнал только дописывается, и запуск, пропущенный перед более поздними, в
+                            // него уже не попал бы; поэтому запуск без файла CSV и все последующие
+                            // откладываются до следующего запроса
+                            LOGGER.debug("Запуск {} топика '{}' отложен в журнале запусков: нет файла CSV.",
+                                    ts.toString(TIMESTAMP_FOLDER_TEMPLATE), topicId);
+                            break;
+                        }
+                    }
+                    if (!pending.isEmpty()) {
+                        try {
+                            RunSummaryLog.append(logPath, pending);
+                        } catch (IOException ex) {
+                            LOGGER.warn(String.format("Ошибка записи журнала запусков '%s'.", logPath), ex);
+                            return null;
+                        }
+                    }
+                }
+                return RunSummaryLog.readTail(logPath, window);
+            } finally {
+                summaryLogTimer.stop(start);
+            }
+        }
+    }
+
+    /**
+     * @param count число блокировок
+     * @return блокировки
+     */
+    private static Object[] newLocks(int count) {
+        final Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * Читает статистику запуска топика: из кэша, из заголовка двоичного снимка или разбором файла CSV.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @return статистика запуска
+     * @throws IOException ошибка чтения файла
+     */
+    private RunStats readStats(String topicId, DateTime ts) throws IOException {
+        if (snapshotsEnabled) {
+            Path csvPath = getCsvPath(topicId, ts);
+            BasicFileAttributes attrs = Files.readAttributes(csvPath, BasicFileAttributes.class);
+            final long size = attrs.size();
+            final long lastModified = attrs.lastModifiedTime().toMillis();
+            PartitionCounts cached = partsCache == null ? null : partsCache.get(topicId, ts, size, lastModified);
+            if (cached != null) {
+                return RunStats.of(ts, cached);
+            }
+            final long start = Timer.start();
+            RunStats stats = RunSnapshot.readStats(getSnapshotPath(csvPath), ts, size, lastModified);
+            readSnapshotTimer.stop(start);
+            if (stats != null) {
+                return stats;
+            }
+            PartitionCounts parts = loadSnapshot(csvPath, size, lastModified);
+            if (partsCache != null) {
+                partsCache.put(topicId, ts, size, lastModified, parts);
+            }
+            return RunStats.of(ts, parts);
+        }
+        return RunStats.of(ts, readParts(topicId, ts));
+    }
+
+    /**
+     * Читает партиции запуска топика, используя кэш разобранных файлов и двоичные снимки, если они заданы.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @return партиции и число сообщений
+     * @throws IOException ошибка чтения файла
+     */
+    private PartitionCounts readParts(String topicId, DateTime ts) throws IOException {
+        Path csvPath = getCsvPath(topicId, ts);
+        if (partsCache == null && !snapshotsEnabled) {
+            return parseCsv(csvPath);
+        }
+        BasicFileAttributes attrs = Files.readAttributes(csvPath, BasicFileAttributes.class);
+        final long size = attrs.size();
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        PartitionCounts parts = partsCache == null ? null : partsCache.get(topicId, ts, size, lastModified);
+        if (parts == null) {
+            parts = snapshotsEnabled ? loadSnapshot(csvPath, size, lastModified) : parseCsv(csvPath);
+            if (partsCache != null) {
+                partsCache.put(topicId, ts, size, lastModified, parts);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Читает партиции из двоичного снимка, а если его нет или он устарел - разбирает файл CSV и
+     * записывает снимок.
+     *
+     * @param csvPath путь к файлу CSV
+     * @param size размер файла CSV
+     * @param lastModified время изменения файла CSV
+     * @return партиции и число сообщений
+     * @throws IOException ошибка чтения файла
+     */
+    private PartitionCounts loadSnapshot(Path csvPath, long size, long lastModified) throws IOException {
+        Path snapshotPath = getSnapshotPath(csvPath);
+        final long start = Timer.start();
+        PartitionCounts parts = RunSnapshot.readParts(snapshotPath, size, lastModified);
+        readSnapshotTimer.stop(start);
+        if (parts == null) {
+            parts = parseCsv(csvPath);
+            saveSnapshot(snapshotPath, size, lastModified, parts);
+        }
+        return parts;
+    }
+
+    /**
+     * Записывает двоичный снимок, если запись снимков не отключена. Первая ошибка записи (например,
+     * файловая система только для чтения или заполнена) отключает запись снимков до перезапуска: чтение
+     * продолжается по файлам CSV и уже записанным снимкам.
+     *
+     * @param snapshotPath путь к снимку
+     * @param size размер файла CSV
+     * @param lastModified время изменения файла CSV
+     * @param parts партиции и число сообщений
+     * @return признак записи снимка
+     */
+    private boolean saveSnapshot(Path snapshotPath, long size, long lastModified, PartitionCounts parts) {
+        if (snapshotWritesFailed.get()) {
+            return false;
+        }
+        try {
+            writeSnapshot(snapshotPath, size, lastModified, parts);
+            return true;
+        } catch (IOException ex) {
+            if (snapshotWritesFailed.compareAndSet(false, true)) {
+                LOGGER.warn(String.format("Ошибка записи снимка '%s', запись снимков отключена до перезапуска.",
+                        snapshotPath), ex);
+            } else {
+                LOGGER.debug("Ошибка записи снимка '{}': {}", snapshotPath, ex.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Разбирает файл CSV.
+     *
+     * @param csvPath путь к файлу
+     * @return партиции и число сообщений
+     * @throws IOException ошибка чтения файла
+     */
+    private PartitionCounts parseCsv(Path csvPath) throws IOException {
+        final long start = Timer.start();
+        try {
+            return OffsetsCsvParser.parse(csvPath, malformedRows).toPartitionCounts();
+        } finally {
+            readCsvTimer.stop(start);
+        }
+    }
+
+    /**
+     * Записывает двоичный снимок.
+     *
+     * @param snapshotPath путь к снимку
+     * @param size размер файла CSV
+     * @param lastModified время изменения файла CSV
+     * @param parts партиции и число сообщений
+     * @throws IOException ошибка записи
+     */
+    private void writeSnapshot(Path snapshotPath, long size, long lastModified, PartitionCounts parts)
+            throws IOException {
+        final long start = Timer.start();
+        try {
+            RunSnapshot.write(snapshotPath, size, lastModified, parts);
+        } finally {
+            writeSnapshotTimer.stop(start);
+        }
+    }
+
     /**
      * Метод получения пути к csv-файлу.
      *
@@ -176,82 +724,245 @@ public class FileSystemTopicDataProvider implements TopicDataProvider {
     }
 
     /**
-     * Рассчитать статистику для топика.
+     * Читает файл-указатель на последний запуск.
+     * <p>
+     * Файл содержит строку {@code <имя папки запуска> <время изменения папки истории, нс>}. Указатель
+     * действителен, пока время изменения папки истории совпадает с записанным: создание или удаление
+     * папок запусков меняет его. Сам файл переписывается на месте, поэтому его обновление время изменения
+     * папки не меняет. Указатель пишется только для папки, не менявшейся дольше
+     * {@link #LATEST_MARKER_SETTLE_MILLIS}, иначе запуск, созданный в тот же интервал точности времени
+     * изменения, остался бы незамеченным.
      *
-     * @param topicId идентификатор топика
-     * @param last временная отметка
-     * @param parts список партиций
-     * @return статистика
+     * @param markerPath путь к файлу-указателю
+     * @param historyModified текущее время изменения папки истории
+     * @return имя папки последнего запуска или {@code null}, если указателя нет, он устарел или повреждён
+     */
+    private static String readLatestMarker(Path markerPath, long historyModified) {
+        final String content;
+        try {
+            content = new String(Files.readAllBytes(markerPath), StandardCharsets.US_ASCII);
+        } catch (IOException ex) {
+            return null;
+        }
+        final int separator = content.indexOf(' ');
+        if (separator < 0 || content.indexOf('\n') != content.length() - 1) {
+            return null;
+        }
+        final String latest = content.substring(0, separator);
+        try {
+            if (Long.parseLong(content.substring(separator + 1, content.length() - 1)) != historyModified) {
+                return null;
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return isTimestampFolderName(latest) ? latest : null;
+    }
+
+    /**
+     * Записывает файл-указатель на последний запуск на месте, без замены файла в папке.
+     *
+     * @param markerPath путь к файлу-указателю
+     * @param latest имя папки последнего запуска
+     * @param historyModified время изменения папки истории до её обхода
      */
-    private TopicStats calculateStatsForTopic(String topicId, DateTime last, Map<Integer, Long> parts) {
-        long min, max, sum;
-        Iterator<Long> iterator = parts.values().iterator();
-        Long firstVal = iterator.next();
-        min = firstVal;
-        max = firstVal;
-        sum = firstVal;
-        while (iterator.hasNext()) {
-            Long value = iterator.next();
-            if (value < min) {
-                min = value;
+    private static void writeLatestMarker(Path markerPath, String latest, long historyModified) {
+        ByteBuffer content = ByteBuffer.wrap((latest + " " + historyModified + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel channel = FileChannel.open(markerPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (content.hasRemaining()) {
+                channel.write(content, content.position());
             }
-            if (value > max) {
-                max = value;
+            channel.truncate(content.limit());
+        } catch (IOException ex) {
+            LOGGER.debug(String.format("Ошибка записи указателя '%s'.", markerPath), ex);
+        }
+    }
+
+    /**
+     * Находит последний запуск обходом папки истории за одно сравнение на запись, без построения набора
+     * временных меток; {@link DateTime} создаётся только для найденного имени.
+     *
+     * @param topicId идентификатор топика
+     * @param historyDir папка истории
+     * @return имя папки последнего запуска
+     * @throws TopicDataException топик не найден, нет данных по запускам или ошибка чтения папки
+     */
+    private String scanLatest(String topicId, Path historyDir) throws TopicDataException {
+        final long start = Timer.start();
+        String latest = null;
+        long latestPacked = TimestampFolderCodec.INVALID;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(historyDir)) {
+            for (Path entry : stream) {
+                final String filename = entry.getFileName().toString();
+                final long packed = TimestampFolderCodec.decode(filename);
+                if (packed > latestPacked && Files.isDirectory(entry)) {
+                    latestPacked = packed;
+                    latest = filename;
+                }
             }
-            sum += value;
+        } catch (NoSuchFileException | NotDirectoryException ex) {
+            throw Files.isDirectory(historyDir.getParent())
+                    ? TopicDataException.missingTopicDataException(topicId)
+                    : TopicDataException.noSuchTopicException(topicId);
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения времени запуска топика '%s'.", topicId);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        } finally {
+            listTimestampsTimer.stop(start);
         }
-        return new TopicStats(topicId, last, min, max, sum / parts.size());
+        if (latest == null) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return latest;
+    }
+
+    /**
+     * @param topicId идентификатор топика
+     * @return путь к папке истории топика
+     */
+    private Path getHistoryDir(String topicId) {
+        return Paths.get(root.getPath(), topicId, HISTORY_FOLDER_NAME);
     }
 
     /**
-     * Обработчик строк в файле CSV.
+     * @param topicId идентификатор топика
+     * @return путь к журналу статистики запусков топика
      */
-    private static class CsvRowConsumer implements Consumer<String> {
+    private Path getSummaryLogPath(String topicId) {
+        return Paths.get(root.getPath(), topicId, RunSummaryLog.SUMMARY_LOG_FILE_NAME);
+    }
 
-        /**
-         * Набор партиций.
-         */
-        final Map<Integer, Long> parts = new HashMap<>();
+    /**
+     * Метод получения пути к двоичному снимку файла CSV.
+     *
+     * @param csvPath путь к файлу CSV
+     * @return путь к снимку
+     */
+    private static Path getSnapshotPath(Path csvPath) {
+        return csvPath.resolveSibling(RunSnapshot.SNAPSHOT_FILE_NAME);
+    }
 
-        /**
-         * @return набор партиций
-         */
-        public Map<Integer, Long> getParts() {
-            return parts;
+    /**
+     * Получает все временные метки запусков топика из папки истории.
+     *
+     * @param topicId идентификатор топика
+     * @return непустой упорядоченный набор временных меток
+     * @throws TopicDataException топик не найден, нет данных по запускам или ошибка чтения папки
+     */
+    private NavigableSet<DateTime> listTimestamps(final String topicId) throws TopicDataException {
+        Path topicDirPath = Paths.get(root.getPath(), topicId);
+        if (Files.notExists(topicDirPath) || !Files.isDirectory(topicDirPath)) {
+            throw TopicDataException.noSuchTopicException(topicId);
         }
-
-        @Override
-        public void accept(String t) {
-            String[] split = t.split(",");
-            if (split.length != 2) {
-                return;
+        File historyDir = new File(topicDirPath.toFile(), HISTORY_FOLDER_NAME);
+        if (!historyDir.exists() || historyDir.listFiles().length == 0) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        final long start = Timer.start();
+        long parseNanos = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(historyDir.toPath(),
+                new TimestampFolderFilter())) {
+            NavigableSet<DateTime> allTimestamps = new TreeSet<>(DateTimeComparator.getInstance());
+            for (Path entry : stream) {
+                final String filename = entry.getFileName().toString();
+                final long parseStart = Timer.start();
+                allTimestamps.add(parseTimestampFolderName(filename));
+                parseNanos += System.nanoTime() - parseStart;
             }
-            try {
-                Integer part = Integer.parseInt(split[0]);
-                Long messageCount = Long.parseLong(split[1]);
-                Long oldMessageCount = parts.get(part);
-
-                if (oldMessageCount == null) {
-                    parts.put(part, messageCount);
-                } else {
-                    parts.put(part, messageCount + oldMessageCount);
-                }
-            } catch (NumberFormatException e) {
-                // Найдена некорректная строка
+            if (allTimestamps.isEmpty()) {
+                throw TopicDataException.missingTopicDataException(topicId);
             }
+            return allTimestamps;
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения времени запуска топика '%s'.", topicId);
+            logReadError(message, ex);
+            throw new TopicDataException(message, ex);
+        } finally {
+            listTimestampsTimer.record(System.nanoTime() - start - parseNanos);
+            parseTimestampsTimer.record(parseNanos);
+        }
+    }
+
+    /**
+     * Записывает в лог ошибку чтения данных. Чтение, прерванное отменой запроса (например, после отключения
+     * клиента или по таймауту), ошибкой данных не считается и записывается на уровне DEBUG.
+     *
+     * @param message сообщение
+     * @param ex ошибка чтения
+     */
+    private static void logReadError(String message, Exception ex) {
+        if (ex instanceof ClosedByInterruptException) {
+            LOGGER.debug("{} Чтение прервано отменой запроса.", message);
+        } else {
+            LOGGER.error(message, ex);
+        }
+    }
+
+    /**
+     * Выбирает временные метки из диапазона.
+     *
+     * @param timestamps упорядоченные временные метки
+     * @param from начало диапазона включительно или {@code null}
+     * @param to конец диапазона включительно или {@code null}
+     * @return временные метки из диапазона; пустой набор, если начало диапазона позже конца
+     */
+    static NavigableSet<DateTime> selectRange(NavigableSet<DateTime> timestamps, DateTime from, DateTime to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            return new TreeSet<>();
+        }
+        NavigableSet<DateTime> range = timestamps;
+        if (from != null) {
+            range = range.tailSet(from, true);
         }
+        if (to != null) {
+            range = range.headSet(to, true);
+        }
+        return range;
+    }
+
+    /**
+     * Проверяет, соответствует ли имя папки шаблону временной метки.
+     *
+     * @param filename имя папки
+     * @return признак соответствия
+     */
+    static boolean isTimestampFolderName(String filename) {
+        return TimestampFolderCodec.decode(filename) != TimestampFolderCodec.INVALID;
+    }
 
+    /**
+     * Разбирает временную метку из имени папки запуска.
+     *
+     * @param filename имя папки
+     * @return временная метка
+     */
+    static DateTime parseTimestampFolderName(String filename) {
+        return TimestampFolderCodec.toDateTime(TimestampFolderCodec.decode(filename));
+    }
+
+    /**
+     * Представить статистику запуска как статистику топика.
+     *
+     * @param topicId идентификатор топика
+     * @param stats статистика последнего запуска
+     * @return статистика
+     */
+    private TopicStats toTopicStats(String topicId, RunStats stats) {
+        return new TopicStats(topicId, stats.getTimestamp(), stats.getMin(), stats.getMax(), stats.getAvg());
     }
 
     /**
      * Фильтр папок в соответствии с шаблоном времени.
      */
-    private static class TimestampFolderFilter implements DirectoryStream.Filter<Path> {
+    static class TimestampFolderFilter implements DirectoryStream.Filter<Path> {
 
         @Override
         public boolean accept(Path entry) throws IOException {
             String filename = entry.getFileName().toString();
-            return TIMESTAMP_REGEX_TEMPLATE.matcher(filename).matches()
+            return isTimestampFolderName(filename)
                     && Files.isDirectory(entry);
         }
     }
@@ -0,0 +1,100 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicVisitor;
+
+/**
+ * Поставщик данных о топиках в файловой системе с индексом запусков в памяти.
+ * <p>
+ * Перечень топиков и временные метки запусков берутся из {@link TopicIndex}, без обращения к файловой
+ * системе на каждый запрос.
+ *
+ * @author unlocker
+ */
+public class IndexedFileSystemTopicDataProvider extends FileSystemTopicDataProvider implements Closeable {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexedFileSystemTopicDataProvider.class);
+
+    /**
+     * Индекс топиков.
+     */
+    private final TopicIndex index;
+
+    /**
+     * Поставщик данных о топиках в файловой системе с индексом запусков в памяти.
+     *
+     * @param rootPath путь к корневой папке
+     * @throws TopicDataException неправильный путь к корневой папке или ошибка построения индекса
+     */
+    public IndexedFileSystemTopicDataProvider(String rootPath) throws TopicDataException {
+        super(rootPath);
+        try {
+            this.index = new TopicIndex(Paths.get(rootPath));
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка построения индекса топиков в папке '%s'.", rootPath);
+            LOGGER.error(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+    }
+
+    @Override
+    public List<String> getTopics() throws TopicDataException {
+        return index.getTopics();
+    }
+
+    @Override
+    public void visitTopics(TopicVisitor visitor) throws TopicDataException {
+        try {
+            for (String topicId : index.getTopicIds()) {
+                visitor.visit(topicId);
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Обход топиков прерван обработчиком: {}", ex.toString());
+            throw TopicDataException.visitAbortedException(ex);
+        }
+    }
+
+    @Override
+    public DateTime getLastTopicTimestamp(String topicId) throws TopicDataException {
+        NavigableSet<DateTime> timestamps = index.getTimestamps(topicId);
+        if (timestamps == null) {
+            throw TopicDataException.noSuchTopicException(topicId);
+        }
+        Iterator<DateTime> iterator = timestamps.descendingIterator();
+        if (!iterator.hasNext()) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return iterator.next();
+    }
+
+    @Override
+    public List<DateTime> getTopicTimestamps(String topicId, DateTime from, DateTime to)
+            throws TopicDataException {
+        NavigableSet<DateTime> timestamps = index.getTimestamps(topicId);
+        if (timestamps == null) {
+            throw TopicDataException.noSuchTopicException(topicId);
+        }
+        if (timestamps.isEmpty()) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return new ArrayList<>(selectRange(timestamps, from, to));
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
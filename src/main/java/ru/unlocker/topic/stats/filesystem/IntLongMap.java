@@ -0,0 +1,160 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.util.Arrays;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Отображение int -> long с открытой адресацией, без упаковки ключей и значений.
+ *
+ * @author unlocker
+ */
+public class IntLongMap {
+
+    /**
+     * Начальная ёмкость по умолчанию.
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Ключи.
+     */
+    private int[] keys;
+
+    /**
+     * Значения.
+     */
+    private long[] values;
+
+    /**
+     * Признаки занятых ячеек.
+     */
+    private boolean[] used;
+
+    /**
+     * Число записей.
+     */
+    private int size;
+
+    /**
+     * Отображение int -> long с ёмкостью по умолчанию.
+     */
+    public IntLongMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Отображение int -> long.
+     *
+     * @param capacity начальная ёмкость; округляется вверх до степени двойки
+     */
+    public IntLongMap(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(String.format("Недопустимая ёмкость %d.", capacity));
+        }
+        final int rounded = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.keys = new int[rounded];
+        this.values = new long[rounded];
+        this.used = new boolean[rounded];
+    }
+
+    /**
+     * Прибавляет значение к записи по ключу, создавая её при отсутствии.
+     *
+     * @param key ключ
+     * @param value прибавляемое значение
+     */
+    public void add(int key, long value) {
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) {
+                values[i] += value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * @return число записей
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Возвращает значение по ключу.
+     *
+     * @param key ключ
+     * @return значение или 0, если ключа нет
+     */
+    public long get(int key) {
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return копия в виде упорядоченного набора партиций
+     */
+    public PartitionCounts toPartitionCounts() {
+        int[] partitions = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                partitions[n++] = keys[i];
+            }
+        }
+        Arrays.sort(partitions);
+        long[] counts = new long[size];
+        for (int i = 0; i < size; i++) {
+            counts[i] = get(partitions[i]);
+        }
+        return new PartitionCounts(partitions, counts);
+    }
+
+    /**
+     * Увеличивает ёмкость вдвое.
+     */
+    private void grow() {
+        final int[] oldKeys = keys;
+        final long[] oldValues = values;
+        final boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        final int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = hash(oldKeys[j]) & mask;
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * @param key ключ
+     * @return перемешанный хэш ключа
+     */
+    private static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,307 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Тёплый уровень кэша разобранных файлов CSV: колонки партиций хранятся вне кучи.
+ * <p>
+ * Память разбита на слябы - прямые {@link ByteBuffer} одинакового размера, выделяемые по мере
+ * заполнения. Записи (колонка номеров партиций, затем колонка числа сообщений) дописываются в текущий
+ * сляб; когда он заполнен, запись начинается в следующем по кругу, а все записи, лежавшие в нём,
+ * вытесняются целиком. В куче остаётся только индекс: ключ - сляб, смещение, число партиций и
+ * версия файла.
+ *
+ * @author unlocker
+ */
+public class OffHeapRunPartsCache {
+
+    /**
+     * Размер сляба в байтах.
+     */
+    private final int slabBytes;
+
+    /**
+     * Слябы; не выделенные ещё слябы - {@code null}.
+     */
+    private final ByteBuffer[] slabs;
+
+    /**
+     * Ключи записей по слябам.
+     */
+    private final List<List<RunPartsCache.RunKey>> slabKeys;
+
+    /**
+     * Индекс записей.
+     */
+    private final Map<RunPartsCache.RunKey, Location> index = new HashMap<>();
+
+    /**
+     * Номер текущего сляба.
+     */
+    private int current;
+
+    /**
+     * Занятый объём в байтах по всем слябам.
+     */
+    private long bytes;
+
+    /**
+     * Число вытесненных записей.
+     */
+    private long evicted;
+
+    /**
+     * Тёплый уровень кэша разобранных файлов CSV.
+     *
+     * @param maxBytes максимальный объём вне кучи в байтах
+     * @param slabBytes размер сляба в байтах
+     */
+    public OffHeapRunPartsCache(long maxBytes, int slabBytes) {
+        if (slabBytes <= 0) {
+            throw new IllegalArgumentException("Размер сляба должен быть положительным.");
+        }
+        final int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, maxBytes / slabBytes));
+        this.slabBytes = slabBytes;
+        this.slabs = new ByteBuffer[count];
+        this.slabKeys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            slabKeys.add(new ArrayList<RunPartsCache.RunKey>());
+        }
+    }
+
+    /**
+     * Возвращает партиции запуска, если они есть на тёплом уровне и файл не изменился, и учитывает
+     * обращение к записи.
+     *
+     * @param key ключ записи
+     * @param size размер файла
+     * @param lastModified время изменения файла
+     * @return партиции и число обращений к записи или {@code null}
+     */
+    synchronized Hit get(RunPartsCache.RunKey key, long size, long lastModified) {
+        final Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        if (location.size != size || location.lastModified != lastModified) {
+            index.remove(key);
+            return null;
+        }
+        final int count = location.count;
+        final ByteBuffer slab = slabs[location.slab].duplicate();
+        int[] partitions = new int[count];
+        long[] counts = new long[count];
+        slab.position(location.offset);
+        slab.asIntBuffer().get(partitions);
+        slab.position(location.offset + count * 4);
+        slab.asLongBuffer().get(counts);
+        return new Hit(new PartitionCounts(partitions, counts), ++location.hits);
+    }
+
+    /**
+     * Сохраняет партиции запуска на тёплом уровне.
+     *
+     * @param key ключ записи
+     * @param size размер файла
+     * @param lastModified время изменения файла
+     * @param parts партиции и число сообщений
+     * @return признак сохранения; запись больше сляба не сохраняется
+     */
+    synchronized boolean put(RunPartsCache.RunKey key, long size, long lastModified, PartitionCounts parts) {
+        index.remove(key);
+        final int count = parts.size();
+        final int length = count * (4 + 8);
+        if (slabs.length == 0 || length > slabBytes) {
+            return false;
+        }
+        ByteBuffer slab = slabs[current];
+        if (slab == null) {
+            slab = allocate(current);
+        } else if (slab.remaining() < length) {
+            current = (current + 1) % slabs.length;
+            slab = slabs[current];
+            if (slab == null) {
+                slab = allocate(current);
+            } else {
+                release(current);
+            }
+        }
+        final int offset = slab.position();
+        for (int i = 0; i < count; i++) {
+            slab.putInt(parts.partitionAt(i));
+        }
+        for (int i = 0; i < count; i++) {
+            slab.putLong(parts.countAt(i));
+        }
+        bytes += length;
+        index.put(key, new Location(current, offset, count, size, lastModified));
+        slabKeys.get(current).add(key);
+        return true;
+    }
+
+    /**
+     * Удаляет запись из индекса; место в слябе освобождается при его повторном использовании.
+     *
+     * @param key ключ записи
+     */
+    synchronized void remove(RunPartsCache.RunKey key) {
+        index.remove(key);
+    }
+
+    /**
+     * @return число записей
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return занятый объём слябов в байтах, включая место удалённых записей
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return выделенный объём вне кучи в байтах
+     */
+    public synchronized long allocatedBytes() {
+        long allocated = 0;
+        for (ByteBuffer slab : slabs) {
+            if (slab != null) {
+                allocated += slab.capacity();
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * @return число записей, вытесненных при повторном использовании слябов
+     */
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /**
+     * @param slab номер сляба
+     * @return выделенный сляб
+     */
+    private ByteBuffer allocate(int slab) {
+        slabs[slab] = ByteBuffer.allocateDirect(slabBytes);
+        return slabs[slab];
+    }
+
+    /**
+     * Вытесняет все записи сляба и готовит его к повторной записи.
+     *
+     * @param slab номер сляба
+     */
+    private void release(int slab) {
+        final List<RunPartsCache.RunKey> keys = slabKeys.get(slab);
+        for (RunPartsCache.RunKey key : keys) {
+            final Location location = index.get(key);
+            if (location != null && location.slab == slab) {
+                index.remove(key);
+                evicted++;
+            }
+        }
+        keys.clear();
+        bytes -= slabs[slab].position();
+        slabs[slab].clear();
+    }
+
+    /**
+     * Результат обращения к тёплому уровню.
+     */
+    static class Hit {
+
+        /**
+         * партиции и число сообщений
+         */
+        private final PartitionCounts parts;
+
+        /**
+         * число обращений к записи, включая текущее
+         */
+        private final int hits;
+
+        /**
+         * @param parts партиции и число сообщений
+         * @param hits число обращений к записи, включая текущее
+         */
+        Hit(PartitionCounts parts, int hits) {
+            this.parts = parts;
+            this.hits = hits;
+        }
+
+        /**
+         * @return партиции и число сообщений
+         */
+        PartitionCounts getParts() {
+            return parts;
+        }
+
+        /**
+         * @return число обращений к записи, включая текущее
+         */
+        int getHits() {
+            return hits;
+        }
+    }
+
+    /**
+     * Положение записи в слябе.
+     */
+    private static class Location {
+
+        /**
+         * номер сляба
+         */
+        private final int slab;
+
+        /**
+         * смещение записи в слябе
+         */
+        private final int offset;
+
+        /**
+         * число партиций
+         */
+        private final int count;
+
+        /**
+         * размер файла
+         */
+        private final long size;
+
+        /**
+         * время изменения файла
+         */
+        private final long lastModified;
+
+        /**
+         * число обращений к записи
+         */
+        private int hits;
+
+        /**
+         * @param slab номер сляба
+         * @param offset смещение записи в слябе
+         * @param count число партиций
+         * @param size размер файла
+         * @param lastModified время изменения файла
+         */
+        Location(int slab, int offset, int count, long size, long lastModified) {
+            this.slab = slab;
+            this.offset = offset;
+            this.count = count;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
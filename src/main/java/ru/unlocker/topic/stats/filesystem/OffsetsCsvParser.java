@@ -0,0 +1,250 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import ru.unlocker.topic.stats.metrics.Counter;
+
+/**
+ * Разборщик файла offsets.csv на уровне байтов.
+ * <p>
+ * Файл читается через {@link FileChannel} в переиспользуемый буфер потока, числа разбираются на месте
+ * без создания строк. Повторяющиеся партиции суммируются, некорректные строки пропускаются - по тем же
+ * правилам, что и {@code String.split(",")} с {@code Integer.parseInt}/{@code Long.parseLong}.
+ *
+ * @author unlocker
+ */
+public class OffsetsCsvParser {
+
+    /**
+     * Размер буфера чтения.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Начало строки: ожидается номер партиции.
+     */
+    private static final int PART_START = 0;
+
+    /**
+     * Прочитан знак номера партиции.
+     */
+    private static final int PART_SIGN = 1;
+
+    /**
+     * Читаются цифры номера партиции.
+     */
+    private static final int PART_DIGITS = 2;
+
+    /**
+     * Ожидается число сообщений.
+     */
+    private static final int COUNT_START = 3;
+
+    /**
+     * Прочитан знак числа сообщений.
+     */
+    private static final int COUNT_SIGN = 4;
+
+    /**
+     * Читаются цифры числа сообщений.
+     */
+    private static final int COUNT_DIGITS = 5;
+
+    /**
+     * Хвостовые пустые колонки, которые отбрасывает {@code String.split}.
+     */
+    private static final int TRAILING = 6;
+
+    /**
+     * Некорректная строка, пропуск до конца строки.
+     */
+    private static final int SKIP = 7;
+
+    /**
+     * Буфер чтения потока.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Накопитель партиций.
+     */
+    private final IntLongMap parts = new IntLongMap();
+
+    /**
+     * Состояние разбора.
+     */
+    private int state = PART_START;
+
+    /**
+     * Признак отрицательного числа.
+     */
+    private boolean negative;
+
+    /**
+     * Номер партиции, накапливается с обратным знаком.
+     */
+    private long part;
+
+    /**
+     * Число сообщений, накапливается с обратным знаком.
+     */
+    private long count;
+
+    /**
+     * Число пропущенных некорректных строк.
+     */
+    private long malformed;
+
+    /**
+     * Разбирает файл offsets.csv.
+     *
+     * @param csvPath путь к файлу
+     * @return партиции и суммарное число сообщений
+     * @throws IOException ошибка чтения файла
+     */
+    public static IntLongMap parse(Path csvPath) throws IOException {
+        return parse(csvPath, null);
+    }
+
+    /**
+     * Разбирает файл offsets.csv, учитывая пропущенные некорректные строки.
+     *
+     * @param csvPath путь к файлу
+     * @param malformedRows счётчик некорректных строк или {@code null}
+     * @return партиции и суммарное число сообщений
+     * @throws IOException ошибка чтения файла
+     */
+    public static IntLongMap parse(Path csvPath, Counter malformedRows) throws IOException {
+        OffsetsCsvParser parser = new OffsetsCsvParser();
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                parser.consume(buffer);
+                buffer.clear();
+            }
+        }
+        parser.endOfLine();
+        if (malformedRows != null && parser.malformed > 0) {
+            malformedRows.add(parser.malformed);
+        }
+        return parser.parts;
+    }
+
+    /**
+     * Обрабатывает содержимое буфера.
+     *
+     * @param buffer буфер
+     */
+    private void consume(ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        for (int i = buffer.position(); i < limit; i++) {
+            accept(buffer.get(i));
+        }
+        buffer.position(limit);
+    }
+
+    /**
+     * Обрабатывает очередной байт.
+     *
+     * @param b байт
+     */
+    private void accept(byte b) {
+        if (b == '\n' || b == '\r') {
+            endOfLine();
+            return;
+        }
+        final int digit = b - '0';
+        final boolean isDigit = digit >= 0 && digit <= 9;
+        switch (state) {
+            case PART_START:
+            case COUNT_START:
+                negative = b == '-';
+                if (isDigit || b == '-' || b == '+') {
+                    state = state == PART_START ? PART_SIGN : COUNT_SIGN;
+                    if (isDigit) {
+                        accept(b);
+                    }
+                } else {
+                    state = SKIP;
+                }
+                break;
+            case PART_SIGN:
+            case PART_DIGITS:
+                if (isDigit) {
+                    state = PART_DIGITS;
+                    part = appendDigit(part, digit, negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE);
+                } else if (b == ',' && state == PART_DIGITS) {
+                    part = negative ? part : -part;
+                    state = COUNT_START;
+                } else {
+                    state = SKIP;
+                }
+                break;
+            case COUNT_SIGN:
+            case COUNT_DIGITS:
+                if (isDigit) {
+                    state = COUNT_DIGITS;
+                    count = appendDigit(count, digit, negative ? Long.MIN_VALUE : -Long.MAX_VALUE);
+                } else if (b == ',' && state == COUNT_DIGITS) {
+                    state = TRAILING;
+                } else {
+                    state = SKIP;
+                }
+                break;
+            case TRAILING:
+                if (b != ',') {
+                    state = SKIP;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Добавляет цифру к числу, накапливаемому с обратным знаком.
+     *
+     * @param value текущее значение
+     * @param digit цифра
+     * @param limit нижняя граница значения
+     * @return новое значение
+     */
+    private long appendDigit(long value, int digit, long limit) {
+        if (value < limit / 10) {
+            state = SKIP;
+            return value;
+        }
+        value *= 10;
+        if (value < limit + digit) {
+            state = SKIP;
+            return value;
+        }
+        return value - digit;
+    }
+
+    /**
+     * Завершает строку: корректная строка добавляется в накопитель, непустая некорректная - учитывается.
+     */
+    private void endOfLine() {
+        if (state == COUNT_DIGITS || state == TRAILING) {
+            parts.add((int) part, negative ? count : -count);
+        } else if (state != PART_START) {
+            malformed++;
+        }
+        state = PART_START;
+        negative = false;
+        part = 0;
+        count = 0;
+    }
+}
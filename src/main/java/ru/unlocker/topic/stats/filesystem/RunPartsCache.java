@@ -0,0 +1,416 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.Gauge;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Кэш разобранных файлов CSV отдельных запусков топиков.
+ * <p>
+ * Ключом служит пара (топик, временная метка запуска). Запись считается действительной, пока размер и
+ * время изменения файла совпадают с сохранёнными. Вытеснение - LRU с ограничением по числу записей и
+ * по оценке занимаемой памяти.
+ * <p>
+ * Кэш в куче служит горячим уровнем. Если задан тёплый уровень вне кучи ({@link OffHeapRunPartsCache}),
+ * разобранные файлы по умолчанию попадают сначала в него, в горячий уровень переносятся записи, к
+ * которым обратились заданное число раз, а вытесненные из горячего уровня записи возвращаются в тёплый.
+ *
+ * @author unlocker
+ */
+public class RunPartsCache {
+
+    /**
+     * Оценка памяти на одну партицию: номер (int) и число сообщений (long).
+     */
+    static final long BYTES_PER_PART = 12;
+
+    /**
+     * Максимальное число записей.
+     */
+    private final int maxEntries;
+
+    /**
+     * Максимальный объём записей в байтах.
+     */
+    private final long maxBytes;
+
+    /**
+     * Записи в порядке обращения.
+     */
+    private final LinkedHashMap<RunKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Текущий объём записей в байтах.
+     */
+    private long bytes;
+
+    /**
+     * Число попаданий.
+     */
+    private Counter hits = new Counter();
+
+    /**
+     * Число промахов, включая устаревшие записи.
+     */
+    private Counter misses = new Counter();
+
+    /**
+     * Число вытесненных записей.
+     */
+    private Counter evictions = new Counter();
+
+    /**
+     * Число попаданий в горячий уровень.
+     */
+    private Counter hotHits = new Counter();
+
+    /**
+     * Число попаданий в тёплый уровень.
+     */
+    private Counter warmHits = new Counter();
+
+    /**
+     * Число переносов из тёплого уровня в горячий.
+     */
+    private Counter promotions = new Counter();
+
+    /**
+     * Число переносов из горячего уровня в тёплый.
+     */
+    private Counter demotions = new Counter();
+
+    /**
+     * Тёплый уровень вне кучи или {@code null}.
+     */
+    private OffHeapRunPartsCache warm;
+
+    /**
+     * Число обращений к записи тёплого уровня, после которого она переносится в горячий.
+     */
+    private int promoteAfterHits = 2;
+
+    /**
+     * Признак переноса вытесненных из горячего уровня записей в тёплый.
+     */
+    private boolean demoteOnEviction = true;
+
+    /**
+     * Признак сохранения новых записей сразу в горячий уровень, минуя тёплый.
+     */
+    private boolean admitToHot;
+
+    /**
+     * Кэш разобранных файлов CSV отдельных запусков топиков.
+     *
+     * @param maxEntries максимальное число записей
+     * @param maxBytes максимальный объём записей в байтах
+     */
+    public RunPartsCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Задаёт тёплый уровень вне кучи и правила переноса записей между уровнями.
+     *
+     * @param warm тёплый уровень вне кучи
+     * @param promoteAfterHits число обращений к записи тёплого уровня, после которого она переносится в
+     * горячий (0 - не переносить)
+     * @param demoteOnEviction признак переноса вытесненных из горячего уровня записей в тёплый
+     * @param admitToHot признак сохранения новых записей сразу в горячий уровень
+     */
+    public synchronized void setWarmTier(OffHeapRunPartsCache warm, int promoteAfterHits, boolean demoteOnEviction,
+            boolean admitToHot) {
+        this.warm = warm;
+        this.promoteAfterHits = promoteAfterHits;
+        this.demoteOnEviction = demoteOnEviction;
+        this.admitToHot = admitToHot;
+    }
+
+    /**
+     * Регистрирует метрики кэша: попадания, промахи, вытеснения, число записей и объём.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        final String requests = "topics_cache_requests_total";
+        final String requestsHelp = "Обращения к кэшу разобранных файлов CSV.";
+        hits = metrics.counter(requests, requestsHelp, "result", "hit");
+        misses = metrics.counter(requests, requestsHelp, "result", "miss");
+        evictions = metrics.counter("topics_cache_evictions_total",
+                "Записи, вытесненные из кэша разобранных файлов CSV.");
+        metrics.gauge("topics_cache_entries", "Число записей кэша разобранных файлов CSV.", new Gauge() {
+
+            @Override
+            public double value() {
+                return size();
+            }
+        });
+        metrics.gauge("topics_cache_bytes", "Оценка объёма кэша разобранных файлов CSV в байтах.", new Gauge() {
+
+            @Override
+            public double value() {
+                return bytes();
+            }
+        });
+        final String tierHits = "topics_cache_tier_hits_total";
+        final String tierHitsHelp = "Попадания в уровни кэша разобранных файлов CSV.";
+        hotHits = metrics.counter(tierHits, tierHitsHelp, "tier", "hot");
+        warmHits = metrics.counter(tierHits, tierHitsHelp, "tier", "warm");
+        final String ratio = "topics_cache_tier_hit_ratio";
+        final String ratioHelp = "Доля обращений к кэшу разобранных файлов CSV, обслуженных уровнем.";
+        metrics.gauge(ratio, ratioHelp, new TierHitRatio(hotHits), "tier", "hot");
+        metrics.gauge(ratio, ratioHelp, new TierHitRatio(warmHits), "tier", "warm");
+        final String moves = "topics_cache_tier_moves_total";
+        final String movesHelp = "Переносы записей между уровнями кэша разобранных файлов CSV.";
+        promotions = metrics.counter(moves, movesHelp, "direction", "promote");
+        demotions = metrics.counter(moves, movesHelp, "direction", "demote");
+        metrics.gauge("topics_cache_warm_entries", "Число записей тёплого уровня кэша вне кучи.", new Gauge() {
+
+            @Override
+            public double value() {
+                final OffHeapRunPartsCache tier = warmTier();
+                return tier == null ? 0 : tier.size();
+            }
+        });
+        metrics.gauge("topics_cache_warm_allocated_bytes", "Объём слябов тёплого уровня кэша вне кучи в байтах.",
+                new Gauge() {
+
+                    @Override
+                    public double value() {
+                        final OffHeapRunPartsCache tier = warmTier();
+                        return tier == null ? 0 : tier.allocatedBytes();
+                    }
+                });
+    }
+
+    /**
+     * Возвращает партиции запуска, если они есть в кэше и файл не изменился.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @param size размер файла
+     * @param lastModified время изменения файла
+     * @return партиции и число сообщений или {@code null}
+     */
+    public synchronized PartitionCounts get(String topicId, DateTime ts, long size, long lastModified) {
+        final RunKey key = new RunKey(topicId, ts);
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.size != size || entry.lastModified != lastModified)) {
+            remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.increment();
+            hotHits.increment();
+            return entry.parts;
+        }
+        final OffHeapRunPartsCache.Hit hit = warm == null ? null : warm.get(key, size, lastModified);
+        if (hit == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        warmHits.increment();
+        if (promoteAfterHits > 0 && hit.getHits() >= promoteAfterHits) {
+            warm.remove(key);
+            putHot(key, new Entry(size, lastModified, hit.getParts()));
+            promotions.increment();
+        }
+        return hit.getParts();
+    }
+
+    /**
+     * Сохраняет партиции запуска в кэш.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @param size размер файла
+     * @param lastModified время изменения файла
+     * @param parts партиции и число сообщений
+     */
+    public synchronized void put(String topicId, DateTime ts, long size, long lastModified,
+            PartitionCounts parts) {
+        final RunKey key = new RunKey(topicId, ts);
+        remove(key);
+        if (warm != null && !admitToHot) {
+            warm.put(key, size, lastModified, parts);
+            return;
+        }
+        putHot(key, new Entry(size, lastModified, parts));
+    }
+
+    /**
+     * Сохраняет запись в горячий уровень, вытесняя давно не использованные записи.
+     *
+     * @param key ключ
+     * @param entry запись
+     */
+    private void putHot(RunKey key, Entry entry) {
+        if (entry.bytes > maxBytes || maxEntries <= 0) {
+            demote(key, entry);
+            return;
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        Iterator<Map.Entry<RunKey, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<RunKey, Entry> evicted = eldest.next();
+            bytes -= evicted.getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+            demote(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    /**
+     * Переносит запись, вытесненную из горячего уровня, в тёплый.
+     *
+     * @param key ключ
+     * @param entry запись
+     */
+    private void demote(RunKey key, Entry entry) {
+        if (warm != null && demoteOnEviction && warm.put(key, entry.size, entry.lastModified, entry.parts)) {
+            demotions.increment();
+        }
+    }
+
+    /**
+     * @return тёплый уровень или {@code null}
+     */
+    private synchronized OffHeapRunPartsCache warmTier() {
+        return warm;
+    }
+
+    /**
+     * @return число записей
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return оценка объёма записей в байтах
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Удаляет запись.
+     *
+     * @param key ключ
+     */
+    private void remove(RunKey key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Доля обращений к кэшу, обслуженных уровнем.
+     */
+    private class TierHitRatio implements Gauge {
+
+        /**
+         * число попаданий в уровень
+         */
+        private final Counter tierHits;
+
+        /**
+         * @param tierHits число попаданий в уровень
+         */
+        TierHitRatio(Counter tierHits) {
+            this.tierHits = tierHits;
+        }
+
+        @Override
+        public double value() {
+            final long requests = hits.get() + misses.get();
+            return requests == 0 ? 0 : (double) tierHits.get() / requests;
+        }
+    }
+
+    /**
+     * Ключ записи кэша.
+     */
+    static class RunKey {
+
+        /**
+         * идентификатор топика
+         */
+        private final String topicId;
+
+        /**
+         * временная метка запуска
+         */
+        private final long ts;
+
+        /**
+         * @param topicId идентификатор топика
+         * @param ts временная метка запуска
+         */
+        RunKey(String topicId, DateTime ts) {
+            this.topicId = topicId;
+            this.ts = ts.getMillis();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RunKey)) {
+                return false;
+            }
+            RunKey other = (RunKey) obj;
+            return ts == other.ts && topicId.equals(other.topicId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * topicId.hashCode() + (int) (ts ^ (ts >>> 32));
+        }
+    }
+
+    /**
+     * Запись кэша.
+     */
+    private static class Entry {
+
+        /**
+         * размер файла
+         */
+        private final long size;
+
+        /**
+         * время изменения файла
+         */
+        private final long lastModified;
+
+        /**
+         * партиции и число сообщений
+         */
+        private final PartitionCounts parts;
+
+        /**
+         * оценка объёма записи в байтах
+         */
+        private final long bytes;
+
+        /**
+         * @param size размер файла
+         * @param lastModified время изменения файла
+         * @param parts партиции и число сообщений
+         */
+        Entry(long size, long lastModified, PartitionCounts parts) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.parts = parts;
+            this.bytes = BYTES_PER_PART * parts.size();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Двоичный снимок разобранного файла offsets.csv, хранящийся рядом с ним.
+ * <p>
+ * Формат: заголовок фиксированной длины (признак формата, версия, размер и время изменения исходного
+ * CSV, число партиций, сумма, минимум и максимум), затем упорядоченные колонки номеров партиций (int) и
+ * числа сообщений (long). Снимок действителен, пока размер и время изменения CSV совпадают с записанными
+ * в заголовке. Чтение - через {@link FileChannel#map}, поэтому для статистики затрагивается только
+ * заголовок.
+ *
+ * @author unlocker
+ */
+public final class RunSnapshot {
+
+    /**
+     * Наименование файла снимка.
+     */
+    public static final String SNAPSHOT_FILE_NAME = "offsets.bin";
+
+    /**
+     * Признак формата.
+     */
+    private static final int MAGIC = 0x54534E50;
+
+    /**
+     * Версия формата.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Длина заголовка в байтах.
+     */
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 8 + 8 + 8;
+
+    /**
+     * Смещение числа партиций в заголовке.
+     */
+    private static final int COUNT_OFFSET = 24;
+
+    /**
+     * Утилитный класс.
+     */
+    private RunSnapshot() {
+    }
+
+    /**
+     * Записывает снимок атомарно: через временный файл в той же папке.
+     *
+     * @param snapshotPath путь к снимку
+     * @param csvSize размер исходного CSV
+     * @param csvLastModified время изменения исходного CSV
+     * @param parts партиции и число сообщений
+     * @throws IOException ошибка записи
+     */
+    public static void write(Path snapshotPath, long csvSize, long csvLastModified, PartitionCounts parts)
+            throws IOException {
+        final int count = parts.size();
+        final RunStats stats = RunStats.of(null, parts);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * (4 + 8));
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(csvSize)
+                .putLong(csvLastModified)
+                .putInt(count)
+                .putLong(stats.getSum())
+                .putLong(count == 0 ? 0 : stats.getMin())
+                .putLong(count == 0 ? 0 : stats.getMax());
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(parts.partitionAt(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(parts.countAt(i));
+        }
+        buffer.flip();
+        Path tmp = Files.createTempFile(snapshotPath.getParent(), SNAPSHOT_FILE_NAME, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Читает статистику запуска из заголовка снимка.
+     *
+     * @param snapshotPath путь к снимку
+     * @param ts временная метка запуска
+     * @param csvSize текущий размер исходного CSV
+     * @param csvLastModified текущее время изменения исходного CSV
+     * @return статистика или {@code null}, если снимка нет или он устарел
+     * @throws IOException ошибка чтения
+     */
+    public static RunStats readStats(Path snapshotPath, DateTime ts, long csvSize, long csvLastModified)
+            throws IOException {
+        ByteBuffer header = map(snapshotPath, csvSize, csvLastModified);
+        if (header == null) {
+            return null;
+        }
+        header.position(COUNT_OFFSET);
+        final int count = header.getInt();
+        final long sum = header.getLong();
+        final long min = header.getLong();
+        final long max = header.getLong();
+        if (count == 0) {
+            return new RunStats(ts, 0, 0, null, null, null);
+        }
+        return new RunStats(ts, count, sum, min, max, sum / count);
+    }
+
+    /**
+     * Читает партиции запуска из снимка.
+     *
+     * @param snapshotPath путь к снимку
+     * @param csvSize текущий размер исходного CSV
+     * @param csvLastModified текущее время изменения исходного CSV
+     * @return партиции или {@code null}, если снимка нет или он устарел
+     * @throws IOException ошибка чтения
+     */
+    public static PartitionCounts readParts(Path snapshotPath, long csvSize, long csvLastModified)
+            throws IOException {
+        ByteBuffer buffer = map(snapshotPath, csvSize, csvLastModified);
+        if (buffer == null) {
+            return null;
+        }
+        final int count = buffer.getInt(COUNT_OFFSET);
+        int[] partitions = new int[count];
+        long[] counts = new long[count];
+        buffer.position(HEADER_SIZE);
+        buffer.asIntBuffer().get(partitions);
+        buffer.position(HEADER_SIZE + count * 4);
+        buffer.asLongBuffer().get(counts);
+        return new PartitionCounts(partitions, counts);
+    }
+
+    /**
+     * Отображает снимок в память и проверяет заголовок.
+     *
+     * @param snapshotPath путь к снимку
+     * @param csvSize текущий размер исходного CSV
+     * @param csvLastModified текущее время изменения исходного CSV
+     * @return отображение или {@code null}, если снимка нет, он устарел или повреждён
+     * @throws IOException ошибка чтения
+     */
+    private static ByteBuffer map(Path snapshotPath, long csvSize, long csvLastModified) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        if (buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != csvSize
+                || buffer.getLong(16) != csvLastModified) {
+            return null;
+        }
+        final long count = buffer.getInt(COUNT_OFFSET);
+        if (count < 0 || buffer.capacity() != HEADER_SIZE + count * (4 + 8)) {
+            return null;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Журнал статистики запусков топика, хранящийся в папке топика.
+ * <p>
+ * Формат: заголовок (признак формата, версия), затем записи фиксированной длины по одной на запуск в
+ * порядке возрастания времени: время запуска в виде {@code yyyyMMddHHmmss}, число партиций, сумма,
+ * минимум и максимум. Записи только дописываются, поэтому последние N запусков читаются одним
+ * чтением с конца файла. Недописанная последняя запись при следующей дозаписи отбрасывается.
+ *
+ * @author unlocker
+ */
+public final class RunSummaryLog {
+
+    /**
+     * Наименование файла журнала.
+     */
+    public static final String SUMMARY_LOG_FILE_NAME = "runs.summary";
+
+    /**
+     * Признак формата.
+     */
+    private static final int MAGIC = 0x5453554D;
+
+    /**
+     * Версия формата.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Длина заголовка в байтах.
+     */
+    static final int HEADER_SIZE = 4 + 4;
+
+    /**
+     * Длина записи в байтах.
+     */
+    static final int RECORD_SIZE = 8 + 4 + 8 + 8 + 8;
+
+    /**
+     * Утилитный класс.
+     */
+    private RunSummaryLog() {
+    }
+
+    /**
+     * Возвращает время последнего записанного запуска.
+     *
+     * @param logPath путь к журналу
+     * @return число {@code yyyyMMddHHmmss} или {@link TimestampFolderCodec#INVALID}, если журнал пуст, его
+     * нет или он повреждён
+     * @throws IOException ошибка чтения
+     */
+    public static long lastTimestamp(Path logPath) throws IOException {
+        List<RunStats> last = readTail(logPath, 1);
+        return last.isEmpty()
+                ? TimestampFolderCodec.INVALID
+                : TimestampFolderCodec.encode(last.get(0).getTimestamp());
+    }
+
+    /**
+     * Читает последние записи журнала.
+     *
+     * @param logPath путь к журналу
+     * @param window число записей
+     * @return не более {@code window} последних записей по возрастанию времени; пустой список, если
+     * журнала нет или он повреждён
+     * @throws IOException ошибка чтения
+     */
+    public static List<RunStats> readTail(Path logPath, int window) throws IOException {
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            final long records = records(channel);
+            final int count = (int) Math.min(window, Math.max(records, 0));
+            final List<RunStats> result = new ArrayList<>(count);
+            if (count == 0) {
+                return result;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+            readFully(channel, buffer, HEADER_SIZE + (records - count) * RECORD_SIZE);
+            buffer.flip();
+            for (int i = 0; i < count; i++) {
+                final long packed = buffer.getLong();
+                final int partitions = buffer.getInt();
+                final long sum = buffer.getLong();
+                final long min = buffer.getLong();
+                final long max = buffer.getLong();
+                result.add(partitions == 0
+                        ? new RunStats(TimestampFolderCodec.toDateTime(packed), 0, 0, null, null, null)
+                        : new RunStats(TimestampFolderCodec.toDateTime(packed), partitions, sum, min, max,
+                                sum / partitions));
+            }
+            return result;
+        } catch (NoSuchFileException ex) {
+            return new ArrayList<>(0);
+        }
+    }
+
+    /**
+     * Дописывает записи в конец журнала, создавая его при отсутствии. Повреждённый журнал пересоздаётся.
+     *
+     * @param logPath путь к журналу
+     * @param runs статистика запусков по возрастанию времени, более поздних, чем уже записанные
+     * @throws IOException ошибка записи
+     */
+    public static void append(Path logPath, List<RunStats> runs) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(runs.size() * RECORD_SIZE);
+        for (RunStats run : runs) {
+            final boolean empty = run.getCount() == 0;
+            buffer.putLong(TimestampFolderCodec.encode(run.getTimestamp()))
+                    .putInt(run.getCount())
+                    .putLong(run.getSum())
+                    .putLong(empty ? 0 : run.getMin())
+                    .putLong(empty ? 0 : run.getMax());
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long records = records(channel);
+            if (records < 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                records = 0;
+            }
+            final long end = HEADER_SIZE + records * RECORD_SIZE;
+            channel.truncate(end);
+            writeFully(channel, buffer, end);
+        }
+    }
+
+    /**
+     * Проверяет заголовок журнала и считает полные записи.
+     *
+     * @param channel открытый журнал
+     * @return число полных записей или -1, если журнал пуст или повреждён
+     * @throws IOException ошибка чтения
+     */
+    private static long records(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return -1;
+        }
+        return (size - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /**
+     * Читает буфер целиком с заданной позиции.
+     *
+     * @param channel канал
+     * @param buffer буфер
+     * @param position позиция в файле
+     * @throws IOException ошибка чтения или неожиданный конец файла
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Неожиданный конец журнала запусков.");
+            }
+        }
+    }
+
+    /**
+     * Записывает буфер целиком с заданной позиции.
+     *
+     * @param channel канал
+     * @param buffer буфер
+     * @param position позиция в файле
+     * @throws IOException ошибка записи
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import org.joda.time.DateTime;
+
+/**
+ * Разбор имён папок запусков вида {@code YYYY-MM-dd-HH-mm-ss} без регулярных выражений и форматтеров.
+ * <p>
+ * Имя переводится в число {@code yyyyMMddHHmmss}: порядок чисел совпадает с порядком времени запусков,
+ * поэтому выбор последнего запуска - сравнение чисел, а {@link DateTime} создаётся только для выбранного.
+ *
+ * @author unlocker
+ */
+final class TimestampFolderCodec {
+
+    /**
+     * Признак некорректного имени.
+     */
+    static final long INVALID = -1L;
+
+    /**
+     * Длина имени папки.
+     */
+    private static final int LENGTH = 19;
+
+    /**
+     * Утилитный класс.
+     */
+    private TimestampFolderCodec() {
+    }
+
+    /**
+     * Разбирает имя папки запуска с проверкой формата и допустимости даты.
+     *
+     * @param name имя папки
+     * @return число {@code yyyyMMddHHmmss} или {@link #INVALID}
+     */
+    static long decode(CharSequence name) {
+        if (name.length() != LENGTH) {
+            return INVALID;
+        }
+        final int year = digits(name, 0, 4);
+        final int month = digits(name, 5, 2);
+        final int day = digits(name, 8, 2);
+        final int hour = digits(name, 11, 2);
+        final int minute = digits(name, 14, 2);
+        final int second = digits(name, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0
+                || name.charAt(4) != '-' || name.charAt(7) != '-' || name.charAt(10) != '-'
+                || name.charAt(13) != '-' || name.charAt(16) != '-') {
+            return INVALID;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            return INVALID;
+        }
+        return ((((year * 100L + month) * 100L + day) * 100L + hour) * 100L + minute) * 100L + second;
+    }
+
+    /**
+     * Переводит временную метку в число {@code yyyyMMddHHmmss} с точностью до секунды.
+     *
+     * @param ts временная метка
+     * @return число {@code yyyyMMddHHmmss}
+     */
+    static long encode(DateTime ts) {
+        return ((((ts.getYear() * 100L + ts.getMonthOfYear()) * 100L + ts.getDayOfMonth()) * 100L
+                + ts.getHourOfDay()) * 100L + ts.getMinuteOfHour()) * 100L + ts.getSecondOfMinute();
+    }
+
+    /**
+     * Создаёт временную метку из разобранного имени.
+     *
+     * @param packed число {@code yyyyMMddHHmmss}
+     * @return временная метка в часовом поясе по умолчанию
+     */
+    static DateTime toDateTime(long packed) {
+        if (packed < 0) {
+            throw new IllegalArgumentException("Некорректное имя папки запуска.");
+        }
+        return new DateTime((int) (packed / 10000000000L),
+                (int) (packed / 100000000L % 100),
+                (int) (packed / 1000000L % 100),
+                (int) (packed / 10000L % 100),
+                (int) (packed / 100L % 100),
+                (int) (packed % 100));
+    }
+
+    /**
+     * Разбирает десятичные цифры.
+     *
+     * @param name строка
+     * @param offset начало
+     * @param count число цифр
+     * @return значение или отрицательное число, если встретилась не цифра
+     */
+    private static int digits(CharSequence name, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final int digit = name.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @param year год
+     * @param month месяц
+     * @return число дней в месяце
+     */
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Индекс топиков и временных меток их запусков в памяти.
+ * <p>
+ * Индекс строится один раз при создании и далее поддерживается в актуальном состоянии по событиям
+ * {@link WatchService}: отслеживаются корневая папка, папки топиков и папки истории запусков.
+ *
+ * @author unlocker
+ */
+public class TopicIndex implements Closeable {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopicIndex.class);
+
+    /**
+     * Корневая папка.
+     */
+    private final Path root;
+
+    /**
+     * Служба отслеживания изменений.
+     */
+    private final WatchService watchService;
+
+    /**
+     * Отслеживаемые папки.
+     */
+    private final ConcurrentMap<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+
+    /**
+     * Топики и упорядоченные временные метки их запусков.
+     */
+    private final ConcurrentMap<String, NavigableSet<DateTime>> topics = new ConcurrentHashMap<>();
+
+    /**
+     * Поток обработки событий.
+     */
+    private final Thread watcher;
+
+    /**
+     * Индекс топиков и временных меток их запусков в памяти.
+     *
+     * @param root корневая папка
+     * @throws IOException ошибка построения индекса
+     */
+    public TopicIndex(Path root) throws IOException {
+        this.root = root;
+        this.watchService = root.getFileSystem().newWatchService();
+        register(root);
+        scanRoot();
+        this.watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "topic-index-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * @return перечень топиков
+     */
+    public List<String> getTopics() {
+        return new ArrayList<>(topics.keySet());
+    }
+
+    /**
+     * @return живое представление идентификаторов топиков без копирования
+     */
+    public Iterable<String> getTopicIds() {
+        return topics.keySet();
+    }
+
+    /**
+     * Возвращает упорядоченные временные метки запусков топика.
+     *
+     * @param topicId идентификатор топика
+     * @return временные метки запусков или {@code null}, если топик не найден
+     */
+    public NavigableSet<DateTime> getTimestamps(String topicId) {
+        return topics.get(topicId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.interrupt();
+        watchService.close();
+    }
+
+    /**
+     * Обрабатывает события файловой системы до закрытия индекса.
+     */
+    private void processEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handleEvent(dir, event);
+                    } catch (IOException ex) {
+                        LOGGER.error(String.format("Ошибка обновления индекса для папки '%s'.", dir), ex);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Обрабатывает событие в отслеживаемой папке.
+     *
+     * @param dir отслеживаемая папка
+     * @param event событие
+     * @throws IOException ошибка чтения папки
+     */
+    private void handleEvent(Path dir, WatchEvent<?> event) throws IOException {
+        final boolean isRoot = dir.equals(root);
+        final boolean isTopic = !isRoot && root.equals(dir.getParent());
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            if (isRoot) {
+                scanRoot();
+            } else if (isTopic) {
+                scanTopic(dir);
+            } else {
+                scanHistory(dir.getParent().getFileName().toString(), dir);
+            }
+            return;
+        }
+        final Path child = dir.resolve((Path) event.context());
+        final String name = child.getFileName().toString();
+        final boolean created = event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+        final boolean deleted = event.kind() == StandardWatchEventKinds.ENTRY_DELETE;
+        if (isRoot) {
+            if (created && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                scanTopic(child);
+            } else if (deleted) {
+                topics.remove(name);
+            }
+        } else if (isTopic) {
+            if (FileSystemTopicDataProvider.HISTORY_FOLDER_NAME.equals(name) && (created || deleted)) {
+                scanTopic(dir);
+            }
+        } else if (FileSystemTopicDataProvider.isTimestampFolderName(name)) {
+            NavigableSet<DateTime> timestamps = topics.get(dir.getParent().getFileName().toString());
+            if (timestamps == null) {
+                return;
+            }
+            final DateTime ts = FileSystemTopicDataProvider.parseTimestampFolderName(name);
+            if (created && Files.isDirectory(child)) {
+                timestamps.add(ts);
+            } else if (deleted) {
+                timestamps.remove(ts);
+            }
+        }
+    }
+
+    /**
+     * Сканирует корневую папку целиком.
+     *
+     * @throws IOException ошибка чтения папки
+     */
+    private void scanRoot() throws IOException {
+        List<String> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path entry : stream) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    scanTopic(entry);
+                    found.add(entry.getFileName().toString());
+                }
+            }
+        }
+        topics.keySet().retainAll(found);
+    }
+
+    /**
+     * Сканирует папку топика и регистрирует её для отслеживания.
+     *
+     * @param topicDir папка топика
+     * @throws IOException ошибка чтения папки
+     */
+    private void scanTopic(Path topicDir) throws IOException {
+        final String topicId = topicDir.getFileName().toString();
+        register(topicDir);
+        Path historyDir = topicDir.resolve(FileSystemTopicDataProvider.HISTORY_FOLDER_NAME);
+        if (Files.isDirectory(historyDir)) {
+            register(historyDir);
+            scanHistory(topicId, historyDir);
+        } else {
+            topics.put(topicId, newTimestampSet());
+        }
+    }
+
+    /**
+     * Сканирует папку истории запусков топика.
+     *
+     * @param topicId идентификатор топика
+     * @param historyDir папка истории
+     * @throws IOException ошибка чтения папки
+     */
+    private void scanHistory(String topicId, Path historyDir) throws IOException {
+        NavigableSet<DateTime> timestamps = newTimestampSet();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(historyDir,
+                new FileSystemTopicDataProvider.TimestampFolderFilter())) {
+            for (Path entry : stream) {
+                timestamps.add(FileSystemTopicDataProvider.parseTimestampFolderName(entry.getFileName().toString()));
+            }
+        }
+        topics.put(topicId, timestamps);
+    }
+
+    /**
+     * Регистрирует папку для отслеживания.
+     *
+     * @param dir папка
+     * @throws IOException ошибка регистрации
+     */
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.put(key, dir);
+    }
+
+    /**
+     * @return пустой упорядоченный набор временных меток
+     */
+    private static NavigableSet<DateTime> newTimestampSet() {
+        return new ConcurrentSkipListSet<>(DateTimeComparator.getInstance());
+    }
+}
@@ -0,0 +1,39 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Монотонно возрастающий счётчик.
+ *
+ * @author unlocker
+ */
+public class Counter {
+
+    /**
+     * Значение.
+     */
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * Увеличивает счётчик на единицу.
+     */
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    /**
+     * Увеличивает счётчик.
+     *
+     * @param delta приращение
+     */
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    /**
+     * @return значение
+     */
+    public long get() {
+        return value.get();
+    }
+}
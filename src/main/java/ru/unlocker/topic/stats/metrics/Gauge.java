@@ -0,0 +1,14 @@
+package ru.unlocker.topic.stats.metrics;
+
+/**
+ * Текущее значение, читаемое в момент выгрузки метрик.
+ *
+ * @author unlocker
+ */
+public interface Gauge {
+
+    /**
+     * @return текущее значение
+     */
+    double value();
+}
@@ -0,0 +1,250 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Реестр метрик приложения с выгрузкой в текстовом формате Prometheus.
+ * <p>
+ * Метрика задаётся именем и метками (пары имя-значение). Повторный запрос метрики с теми же именем и
+ * метками возвращает тот же экземпляр, поэтому на горячем пути метрики получают один раз и хранят в полях.
+ *
+ * @author unlocker
+ */
+public class MetricsRegistry {
+
+    /**
+     * Тип метрики: счётчик.
+     */
+    private static final String COUNTER = "counter";
+
+    /**
+     * Тип метрики: текущее значение.
+     */
+    private static final String GAUGE = "gauge";
+
+    /**
+     * Тип метрики: гистограмма.
+     */
+    private static final String HISTOGRAM = "histogram";
+
+    /**
+     * Семейства метрик по именам.
+     */
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Возвращает счётчик, регистрируя его при отсутствии.
+     *
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param labels метки: имя, значение, имя, значение...
+     * @return счётчик
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, COUNTER).get(labels, Counter.class);
+    }
+
+    /**
+     * Возвращает гистограмму длительностей, регистрируя её при отсутствии.
+     *
+     * @param name имя метрики (длительности выгружаются в секундах)
+     * @param help описание метрики
+     * @param labels метки: имя, значение, имя, значение...
+     * @return гистограмма
+     */
+    public Timer timer(String name, String help, String... labels) {
+        return (Timer) family(name, help, HISTOGRAM).get(labels, Timer.class);
+    }
+
+    /**
+     * Регистрирует текущее значение, заменяя ранее зарегистрированное с теми же именем и метками.
+     *
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param gauge источник значения
+     * @param labels метки: имя, значение, имя, значение...
+     */
+    public void gauge(String name, String help, Gauge gauge, String... labels) {
+        family(name, help, GAUGE).metrics.put(formatLabels(labels), gauge);
+    }
+
+    /**
+     * Выгружает все метрики в текстовом формате Prometheus 0.0.4.
+     *
+     * @param writer приёмник
+     * @throws IOException ошибка записи
+     */
+    public void write(Writer writer) throws IOException {
+        for (Family family : new TreeMap<>(families).values()) {
+            writer.write("# HELP " + family.name + " " + family.help + "\n");
+            writer.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> entry : new TreeMap<>(family.metrics).entrySet()) {
+                final String labels = entry.getKey();
+                final Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(writer, family.name, labels, null, ((Counter) metric).get());
+                } else if (metric instanceof Gauge) {
+                    writeSample(writer, family.name, labels, null, ((Gauge) metric).value());
+                } else {
+                    writeTimer(writer, family.name, labels, (Timer) metric);
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает семейство метрик, создавая его при отсутствии.
+     *
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param type тип метрики
+     * @return семейство
+     */
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family created = new Family(name, help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(String.format("Метрика '%s' уже зарегистрирована с типом %s.",
+                    name, family.type));
+        }
+        return family;
+    }
+
+    /**
+     * Выгружает гистограмму: накопительные корзины, сумму и число записей.
+     *
+     * @param writer приёмник
+     * @param name имя метрики
+     * @param labels метки
+     * @param timer гистограмма
+     * @throws IOException ошибка записи
+     */
+    private static void writeTimer(Writer writer, String name, String labels, Timer timer) throws IOException {
+        long cumulative = 0;
+        for (int i = 0; i < Timer.BUCKET_BOUNDS.length; i++) {
+            cumulative += timer.bucket(i);
+            writeSample(writer, name + "_bucket", labels,
+                    "le=\"" + Timer.BUCKET_BOUNDS[i] / 1e9 + "\"", cumulative);
+        }
+        cumulative += timer.bucket(Timer.BUCKET_BOUNDS.length);
+        writeSample(writer, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+        writeSample(writer, name + "_sum", labels, null, timer.sum() / 1e9);
+        writeSample(writer, name + "_count", labels, null, cumulative);
+    }
+
+    /**
+     * Выгружает отдельное значение.
+     *
+     * @param writer приёмник
+     * @param name имя
+     * @param labels метки
+     * @param extraLabel дополнительная метка или {@code null}
+     * @param value значение
+     * @throws IOException ошибка записи
+     */
+    private static void writeSample(Writer writer, String name, String labels, String extraLabel, Object value)
+            throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                writer.write(labels.isEmpty() ? extraLabel : "," + extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(String.valueOf(value));
+        writer.write('\n');
+    }
+
+    /**
+     * Форматирует метки для выгрузки.
+     *
+     * @param labels метки: имя, значение, имя, значение...
+     * @return метки в виде {@code name="value",...}
+     */
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Метки задаются парами имя-значение.");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Семейство метрик с общими именем и типом.
+     */
+    private static class Family {
+
+        /**
+         * имя метрики
+         */
+        private final String name;
+
+        /**
+         * описание метрики
+         */
+        private final String help;
+
+        /**
+         * тип метрики
+         */
+        private final String type;
+
+        /**
+         * метрики по меткам
+         */
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        /**
+         * @param name имя метрики
+         * @param help описание метрики
+         * @param type тип метрики
+         */
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        /**
+         * Возвращает метрику по меткам, создавая её при отсутствии.
+         *
+         * @param labels метки
+         * @param metricClass класс метрики
+         * @return метрика
+         */
+        Object get(String[] labels, Class<?> metricClass) {
+            final String key = formatLabels(labels);
+            Object metric = metrics.get(key);
+            if (metric == null) {
+                Object created = metricClass == Counter.class ? new Counter() : new Timer();
+                metric = metrics.putIfAbsent(key, created);
+                if (metric == null) {
+                    metric = created;
+                }
+            }
+            return metric;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Замер длительности обработки запросов по шаблонам адресов и кодам ответа. Для асинхронных запросов
+ * отметка начала сохраняется при первой обработке и замер охватывает весь запрос.
+ *
+ * @author unlocker
+ */
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+    /**
+     * Имя атрибута запроса с отметкой начала замера.
+     */
+    private static final String START_ATTRIBUTE = RequestMetricsInterceptor.class.getName() + ".start";
+
+    /**
+     * Наименьший код ответа HTTP.
+     */
+    private static final int MIN_STATUS = 100;
+
+    /**
+     * Число кодов ответа HTTP, для которых замеры хранятся по шаблону адреса.
+     */
+    private static final int STATUS_SLOTS = 500;
+
+    /**
+     * Реестр метрик.
+     */
+    private final MetricsRegistry metrics;
+
+    /**
+     * Замеры по шаблонам адресов, проиндексированные кодом ответа: метки формируются один раз на пару
+     * (шаблон, код), а не на каждый запрос.
+     */
+    private final ConcurrentMap<String, AtomicReferenceArray<Timer>> timers = new ConcurrentHashMap<>();
+
+    /**
+     * Замер длительности обработки запросов.
+     *
+     * @param metrics реестр метрик
+     */
+    public RequestMetricsInterceptor(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, Timer.start());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        timer(pattern == null ? "unmatched" : pattern.toString(), response.getStatus()).stop((Long) start);
+    }
+
+    /**
+     * Возвращает замер для шаблона адреса и кода ответа.
+     *
+     * @param handler шаблон адреса
+     * @param status код ответа
+     * @return замер
+     */
+    private Timer timer(String handler, int status) {
+        final int slot = status - MIN_STATUS;
+        if (slot < 0 || slot >= STATUS_SLOTS) {
+            return register(handler, status);
+        }
+        AtomicReferenceArray<Timer> byStatus = timers.get(handler);
+        if (byStatus == null) {
+            AtomicReferenceArray<Timer> created = new AtomicReferenceArray<>(STATUS_SLOTS);
+            byStatus = timers.putIfAbsent(handler, created);
+            if (byStatus == null) {
+                byStatus = created;
+            }
+        }
+        Timer timer = byStatus.get(slot);
+        if (timer == null) {
+            timer = register(handler, status);
+            byStatus.set(slot, timer);
+        }
+        return timer;
+    }
+
+    /**
+     * Получает замер из реестра метрик.
+     *
+     * @param handler шаблон адреса
+     * @param status код ответа
+     * @return замер
+     */
+    private Timer register(String handler, int status) {
+        return metrics.timer("topics_http_request_seconds", "Длительность обработки запросов.",
+                "handler", handler, "status", Integer.toString(status));
+    }
+}
@@ -0,0 +1,50 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.io.IOException;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+/**
+ * Конвертер объектов в JSON с замером длительности сериализации ответов.
+ *
+ * @author unlocker
+ */
+public class TimedJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    /**
+     * Имя метрики длительности сериализации ответов.
+     */
+    public static final String SERIALIZATION_METRIC = "topics_http_serialization_seconds";
+
+    /**
+     * Описание метрики длительности сериализации ответов.
+     */
+    public static final String SERIALIZATION_HELP = "Длительность сериализации ответов: mode=buffered - тело "
+            + "целиком, mode=streaming - потоковая запись вместе с чтением данных, с которым она чередуется.";
+
+    /**
+     * Длительность сериализации.
+     */
+    private final Timer timer;
+
+    /**
+     * Конвертер объектов в JSON с замером длительности сериализации ответов.
+     *
+     * @param metrics реестр метрик
+     */
+    public TimedJsonHttpMessageConverter(MetricsRegistry metrics) {
+        this.timer = metrics.timer(SERIALIZATION_METRIC, SERIALIZATION_HELP, "mode", "buffered");
+    }
+
+    @Override
+    protected void writeInternal(Object object, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        final long start = Timer.start();
+        try {
+            super.writeInternal(object, outputMessage);
+        } finally {
+            timer.stop(start);
+        }
+    }
+}
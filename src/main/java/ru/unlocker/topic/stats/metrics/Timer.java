@@ -0,0 +1,92 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма длительностей с фиксированными границами корзин.
+ * <p>
+ * Запись - поиск корзины по короткому массиву и два атомарных приращения, без блокировок и выделения
+ * памяти.
+ *
+ * @author unlocker
+ */
+public class Timer {
+
+    /**
+     * Верхние границы корзин в наносекундах.
+     */
+    static final long[] BUCKET_BOUNDS = {
+        100000L, 250000L, 500000L,
+        1000000L, 2500000L, 5000000L,
+        10000000L, 25000000L, 50000000L,
+        100000000L, 250000000L, 500000000L,
+        1000000000L, 2500000000L, 5000000000L, 10000000000L
+    };
+
+    /**
+     * Число записей по корзинам; последняя - сверх всех границ.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * Сумма длительностей в наносекундах.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * @return отметка начала замера
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Записывает длительность от отметки начала замера.
+     *
+     * @param start отметка начала замера
+     */
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Записывает длительность.
+     *
+     * @param nanos длительность в наносекундах
+     */
+    public void record(long nanos) {
+        int index = 0;
+        while (index < BUCKET_BOUNDS.length && nanos > BUCKET_BOUNDS[index]) {
+            index++;
+        }
+        buckets.incrementAndGet(index);
+        sum.addAndGet(nanos);
+    }
+
+    /**
+     * @param index номер корзины
+     * @return число записей в корзине (не накопительно)
+     */
+    long bucket(int index) {
+        return buckets.get(index);
+    }
+
+    /**
+     * @return сумма длительностей в наносекундах
+     */
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * @return число записей
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+}
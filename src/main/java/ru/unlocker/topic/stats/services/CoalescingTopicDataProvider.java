@@ -0,0 +1,346 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
+import ru.unlocker.topic.stats.views.TopicParts;
+import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
+
+/**
+ * Поставщик данных, объединяющий одновременные одинаковые запросы.
+ * <p>
+ * Запрос определяется операцией и её аргументами. Первый запрос выполняется в вызывающем потоке, а
+ * запросы, пришедшие до его окончания, ждут и получают тот же результат или ту же ошибку; ошибку из-за
+ * прерывания потока первого запроса они не получают, а повторяют вычисление. Результаты не
+ * сохраняются: после окончания вычисления следующий запрос снова обращается к поставщику.
+ *
+ * @author unlocker
+ */
+public class CoalescingTopicDataProvider implements TopicDataProvider, Closeable {
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private final TopicDataProvider delegate;
+
+    /**
+     * Выполняемые вычисления по ключам запросов.
+     */
+    private final ConcurrentMap<List<Object>, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Число запросов, получивших результат чужого вычисления.
+     */
+    private Counter coalesced = new Counter();
+
+    /**
+     * Поставщик данных, объединяющий одновременные одинаковые запросы.
+     *
+     * @param delegate поставщик данных о топиках
+     */
+    public CoalescingTopicDataProvider(TopicDataProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        coalesced = metrics.counter("topics_coalesced_requests_total",
+                "Запросы, получившие результат одновременного одинакового запроса.");
+    }
+
+    @Override
+    public List<String> getTopics() throws TopicDataException {
+        return coalesce(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() throws TopicDataException {
+                return delegate.getTopics();
+            }
+        }, "topics");
+    }
+
+    @Override
+    public void visitTopics(TopicVisitor visitor) throws TopicDataException {
+        delegate.visitTopics(visitor);
+    }
+
+    @Override
+    public DateTime getLastTopicTimestamp(final String topicId) throws TopicDataException {
+        return coalesce(new Callable<DateTime>() {
+
+            @Override
+            public DateTime call() throws TopicDataException {
+                return delegate.getLastTopicTimestamp(topicId);
+            }
+        }, "last", topicId);
+    }
+
+    @Override
+    public List<DateTime> getTopicTimestamps(final String topicId, final DateTime from, final DateTime to)
+            throws TopicDataException {
+        return coalesce(new Callable<List<DateTime>>() {
+
+            @Override
+            public List<DateTime> call() throws TopicDataException {
+                return delegate.getTopicTimestamps(topicId, from, to);
+            }
+        }, "timestamps", topicId, from == null ? null : from.getMillis(), to == null ? null : to.getMillis());
+    }
+
+    @Override
+    public PartitionCounts getRunParts(final String topicId, final DateTime ts) throws TopicDataException {
+        return coalesce(new Callable<PartitionCounts>() {
+
+            @Override
+            public PartitionCounts call() throws TopicDataException {
+                return delegate.getRunParts(topicId, ts);
+            }
+        }, "run", topicId, ts.getMillis());
+    }
+
+    @Override
+    public RunVersion getLastRunVersion(final String topicId) throws TopicDataException {
+        return coalesce(new Callable<RunVersion>() {
+
+            @Override
+            public RunVersion call() throws TopicDataException {
+                return delegate.getLastRunVersion(topicId);
+            }
+        }, "version", topicId);
+    }
+
+    @Override
+    public TopicStats getTopicStats(final String topicId) throws TopicDataException {
+        return coalesce(new Callable<TopicStats>() {
+
+            @Override
+            public TopicStats call() throws TopicDataException {
+                return delegate.getTopicStats(topicId);
+            }
+        }, "stats", topicId);
+    }
+
+    @Override
+    public RunStats getLastRunStats(final String topicId) throws TopicDataException {
+        return coalesce(new Callable<RunStats>() {
+
+            @Override
+            public RunStats call() throws TopicDataException {
+                return delegate.getLastRunStats(topicId);
+            }
+        }, "laststats", topicId);
+    }
+
+    @Override
+    public TopicStats getTopicStats(final String topicId, final Set<TopicStats.Metric> metrics, final int top)
+            throws TopicDataException {
+        return coalesce(new Callable<TopicStats>() {
+
+            @Override
+            public TopicStats call() throws TopicDataException {
+                return delegate.getTopicStats(topicId, metrics, top);
+            }
+        }, "stats", topicId, metrics, top);
+    }
+
+    @Override
+    public TopicStats getTopicStats(final String topicId, final DateTime ts, final Set<TopicStats.Metric> metrics,
+            final int top) throws TopicDataException {
+        return coalesce(new Callable<TopicStats>() {
+
+            @Override
+            public TopicStats call() throws TopicDataException {
+                return delegate.getTopicStats(topicId, ts, metrics, top);
+            }
+        }, "runstats", topicId, ts.getMillis(), metrics, top);
+    }
+
+    @Override
+    public TopicParts getTopicParts(final String topicId) throws TopicDataException {
+        return coalesce(new Callable<TopicParts>() {
+
+            @Override
+            public TopicParts call() throws TopicDataException {
+                return delegate.getTopicParts(topicId);
+            }
+        }, "parts", topicId);
+    }
+
+    @Override
+    public TopicParts getTopicParts(final String topicId, final DateTime ts) throws TopicDataException {
+        return coalesce(new Callable<TopicParts>() {
+
+            @Override
+            public TopicParts call() throws TopicDataException {
+                return delegate.getTopicParts(topicId, ts);
+            }
+        }, "runparts", topicId, ts.getMillis());
+    }
+
+    @Override
+    public TopicSummary getTopicSummary(final String topicId, final Set<TopicSummary.Section> sections)
+            throws TopicDataException {
+        return coalesce(new Callable<TopicSummary>() {
+
+            @Override
+            public TopicSummary call() throws TopicDataException {
+                return delegate.getTopicSummary(topicId, sections);
+            }
+        }, "summary", topicId, sections);
+    }
+
+    @Override
+    public List<RunStats> getRecentRunStats(final String topicId, final int window) throws TopicDataException {
+        return coalesce(new Callable<List<RunStats>>() {
+
+            @Override
+            public List<RunStats> call() throws TopicDataException {
+                return delegate.getRecentRunStats(topicId, window);
+            }
+        }, "recent", topicId, window);
+    }
+
+    @Override
+    public TopicTrend getTopicTrend(final String topicId, final int window) throws TopicDataException {
+        return coalesce(new Callable<TopicTrend>() {
+
+            @Override
+            public TopicTrend call() throws TopicDataException {
+                return delegate.getTopicTrend(topicId, window);
+            }
+        }, "trend", topicId, window);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * Выполняет вычисление или присоединяется к уже выполняемому с тем же ключом. Если вычисление
+     * завершилось ошибкой из-за прерывания его потока (например, по таймауту запроса), ожидавшие запросы
+     * не получают эту ошибку, а повторяют вычисление.
+     *
+     * @param <T> тип результата
+     * @param call вычисление
+     * @param key операция и её аргументы
+     * @return результат вычисления
+     * @throws TopicDataException ошибка вычисления или ожидание прервано
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T coalesce(Callable<T> call, Object... key) throws TopicDataException {
+        final List<Object> flightKey = Arrays.asList(key);
+        while (true) {
+            final Flight<T> task = new Flight<>(call);
+            final Flight<?> flight = inFlight.putIfAbsent(flightKey, task);
+            if (flight == null) {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(flightKey, task);
+                }
+                return await(task);
+            }
+            coalesced.increment();
+            try {
+                return (T) await(flight);
+            } catch (TopicDataException | RuntimeException | Error ex) {
+                if (!flight.interrupted || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ожидает результата вычисления.
+     *
+     * @param <T> тип результата
+     * @param flight вычисление
+     * @return результат вычисления
+     * @throws TopicDataException ошибка вычисления или ожидание прервано
+     */
+    private static <T> T await(Flight<T> flight) throws TopicDataException {
+        try {
+            return flight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TopicDataException("Ожидание данных прервано.", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof TopicDataException) {
+                throw (TopicDataException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TopicDataException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Вычисление, запоминающее, что его ошибка вызвана прерыванием выполнявшего потока.
+     *
+     * @param <T> тип результата
+     */
+    private static class Flight<T> extends FutureTask<T> {
+
+        /**
+         * признак ошибки из-за прерывания потока вычисления
+         */
+        private volatile boolean interrupted;
+
+        /**
+         * @param call вычисление
+         */
+        Flight(Callable<T> call) {
+            super(call);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            interrupted = Thread.currentThread().isInterrupted() || isInterruption(t);
+            super.setException(t);
+        }
+
+        /**
+         * @param t ошибка
+         * @return признак того, что ошибка или одна из её причин вызвана прерыванием потока
+         */
+        private static boolean isInterruption(Throwable t) {
+            for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+                if (cause instanceof InterruptedException
+                        || cause instanceof InterruptedIOException
+                        || cause instanceof ClosedByInterruptException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.GlobalStats;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Сбор статистики по всем топикам.
+ * <p>
+ * Список топиков делится пополам до отрезков из нескольких топиков, которые обрабатываются задачами
+ * {@link ForkJoinPool}. Для каждого топика берётся только статистика последнего запуска (сумма, число
+ * партиций, минимум и максимум), без чтения партиций. Частичные результаты сливаются попарно: суммы
+ * складываются, центральные моменты объёмов топиков объединяются по формулам Чана, крупнейшие топики
+ * хранятся в ограниченной куче.
+ * <p>
+ * Чтение статистики топика блокирует поток на вводе-выводе, поэтому выполняется через
+ * {@link ForkJoinPool.ManagedBlocker}: на время чтения пул может запустить замещающий поток, и число
+ * одновременных чтений не ограничено числом ядер. Прерывание потока, ожидающего результат, отменяет сбор:
+ * задачи не начинают чтение следующих топиков.
+ *
+ * @author unlocker
+ */
+public class GlobalStatsCollector {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobalStatsCollector.class);
+
+    /**
+     * Максимальное число топиков в неделимой задаче.
+     */
+    private static final int THRESHOLD = 4;
+
+    /**
+     * Верхние границы интервалов перекоса партиций: отношение максимума к среднему.
+     */
+    private static final double[] SKEW_BOUNDS = {1.5, 2, 5, 10};
+
+    /**
+     * Наименования интервалов перекоса партиций, на один больше числа границ.
+     */
+    private static final String[] SKEW_LABELS = {"<=1.5", "<=2", "<=5", "<=10", ">10"};
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private final TopicDataProvider provider;
+
+    /**
+     * Пул потоков.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Сбор статистики по всем топикам.
+     *
+     * @param provider поставщик данных о топиках
+     * @param pool пул потоков
+     */
+    public GlobalStatsCollector(TopicDataProvider provider, ForkJoinPool pool) {
+        this.provider = provider;
+        this.pool = pool;
+    }
+
+    /**
+     * Рассчитывает статистику по последним запускам всех топиков.
+     *
+     * @param top число крупнейших топиков
+     * @return статистика по всем топикам
+     * @throws TopicDataException ошибка получения списка топиков
+     * @throws InterruptedException ожидание прервано; сбор отменён
+     */
+    public GlobalStats collect(int top) throws TopicDataException, InterruptedException {
+        final List<String> topicIds = provider.getTopics();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final ForkJoinTask<Accumulator> task = pool.submit(
+                new RangeTask(topicIds, 0, topicIds.size(), Math.max(top, 0), cancelled));
+        try {
+            return task.get().toStats();
+        } catch (InterruptedException ex) {
+            cancelled.set(true);
+            task.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Задача обработки отрезка списка топиков.
+     */
+    private class RangeTask extends RecursiveTask<Accumulator> {
+
+        /**
+         * идентификаторы топиков
+         */
+        private final List<String> topicIds;
+
+        /**
+         * начало отрезка включительно
+         */
+        private final int from;
+
+        /**
+         * конец отрезка исключительно
+         */
+        private final int to;
+
+        /**
+         * число крупнейших топиков
+         */
+        private final int top;
+
+        /**
+         * признак отмены сбора
+         */
+        private final AtomicBoolean cancelled;
+
+        /**
+         * @param topicIds идентификаторы топиков
+         * @param from начало отрезка включительно
+         * @param to конец отрезка исключительно
+         * @param top число крупнейших топиков
+         * @param cancelled признак отмены сбора
+         */
+        RangeTask(List<String> topicIds, int from, int to, int top, AtomicBoolean cancelled) {
+            this.topicIds = topicIds;
+            this.from = from;
+            this.to = to;
+            this.top = top;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected Accumulator compute() {
+            if (to - from <= THRESHOLD) {
+                final Accumulator acc = new Accumulator(top);
+                for (int i = from; i < to && !cancelled.get(); i++) {
+                    final String topicId = topicIds.get(i);
+                    final StatsReader reader = new StatsReader(topicId);
+                    try {
+                        ForkJoinPool.managedBlock(reader);
+                    } catch (InterruptedException ex) {
+                        cancelled.set(true);
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    if (reader.error == null) {
+                        acc.add(topicId, reader.stats);
+                    } else {
+                        acc.failedTopics++;
+                        LOGGER.debug("Топик '{}' не учтён: {}", topicId, reader.error.getMessage());
+                    }
+                }
+                // результат отменённого сбора неполон, но не используется
+                return acc;
+            }
+            final int middle = (from + to) >>> 1;
+            final RangeTask left = new RangeTask(topicIds, from, middle, top, cancelled);
+            left.fork();
+            final Accumulator right = new RangeTask(topicIds, middle, to, top, cancelled).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Чтение статистики последнего запуска топика как блокирующая операция пула.
+     */
+    private class StatsReader implements ForkJoinPool.ManagedBlocker {
+
+        /**
+         * идентификатор топика
+         */
+        private final String topicId;
+
+        /**
+         * статистика последнего запуска
+         */
+        private RunStats stats;
+
+        /**
+         * ошибка получения данных
+         */
+        private TopicDataException error;
+
+        /**
+         * признак завершения чтения
+         */
+        private boolean done;
+
+        /**
+         * @param topicId идентификатор топика
+         */
+        StatsReader(String topicId) {
+            this.topicId = topicId;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                stats = provider.getLastRunStats(topicId);
+            } catch (TopicDataException ex) {
+                error = ex;
+            }
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    /**
+     * Частичная статистика по отрезку топиков.
+     */
+    private static class Accumulator {
+
+        /**
+         * число крупнейших топиков
+         */
+        private final int top;
+
+        /**
+         * крупнейшие топики, в вершине - наименьший
+         */
+        private final PriorityQueue<GlobalStats.TopicVolume> largest;
+
+        /**
+         * число топиков по интервалам перекоса партиций
+         */
+        private final long[] skewCounts = new long[SKEW_BOUNDS.length + 1];
+
+        /**
+         * число учтённых топиков
+         */
+        private int topics;
+
+        /**
+         * число топиков, данные которых прочитать не удалось
+         */
+        private int failedTopics;
+
+        /**
+         * суммарное число партиций
+         */
+        private long partitions;
+
+        /**
+         * суммарное число сообщений
+         */
+        private long messages;
+
+        /**
+         * минимальное количество сообщений в партиции
+         */
+        private long min = Long.MAX_VALUE;
+
+        /**
+         * максимальное количество сообщений в партиции
+         */
+        private long max = Long.MIN_VALUE;
+
+        /**
+         * среднее число сообщений на топик
+         */
+        private double mean;
+
+        /**
+         * сумма квадратов отклонений числа сообщений топиков от среднего
+         */
+        private double m2;
+
+        /**
+         * сумма кубов отклонений числа сообщений топиков от среднего
+         */
+        private double m3;
+
+        /**
+         * @param top число крупнейших топиков
+         */
+        Accumulator(int top) {
+            this.top = top;
+            this.largest = new PriorityQueue<>(Math.max(top, 1), VolumeOrder.INSTANCE);
+        }
+
+        /**
+         * Учитывает последний запуск топика.
+         *
+         * @param topicId идентификатор топика
+         * @param run статистика последнего запуска
+         */
+        void add(String topicId, RunStats run) {
+            final long sum = run.getSum();
+            topics++;
+            partitions += run.getCount();
+            messages += sum;
+            if (run.getCount() > 0) {
+                min = Math.min(min, run.getMin());
+                max = Math.max(max, run.getMax());
+                final double ratio = sum == 0 ? 1 : run.getMax() * (double) run.getCount() / sum;
+                int bucket = 0;
+                while (bucket < SKEW_BOUNDS.length && ratio > SKEW_BOUNDS[bucket]) {
+                    bucket++;
+                }
+                skewCounts[bucket]++;
+            }
+            final double delta = sum - mean;
+            final double deltaN = delta / topics;
+            final double term = delta * deltaN * (topics - 1);
+            mean += deltaN;
+            m3 += term * deltaN * (topics - 2) - 3 * deltaN * m2;
+            m2 += term;
+            offer(new GlobalStats.TopicVolume(topicId, sum, run.getCount()));
+        }
+
+        /**
+         * Сливает с частичной статистикой другого отрезка.
+         *
+         * @param other частичная статистика другого отрезка
+         * @return объединённая статистика
+         */
+        Accumulator merge(Accumulator other) {
+            final double n1 = topics;
+            final double n2 = other.topics;
+            final double n = n1 + n2;
+            if (n2 > 0) {
+                final double delta = other.mean - mean;
+                final double m2Merged = m2 + other.m2 + delta * delta * n1 * n2 / n;
+                m3 = m3 + other.m3 + delta * delta * delta * n1 * n2 * (n1 - n2) / (n * n)
+                        + 3 * delta * (n1 * other.m2 - n2 * m2) / n;
+                m2 = m2Merged;
+                mean += delta * n2 / n;
+            }
+            topics += other.topics;
+            failedTopics += other.failedTopics;
+            partitions += other.partitions;
+            messages += other.messages;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            for (int i = 0; i < skewCounts.length; i++) {
+                skewCounts[i] += other.skewCounts[i];
+            }
+            for (GlobalStats.TopicVolume volume : other.largest) {
+                offer(volume);
+            }
+            return this;
+        }
+
+        /**
+         * Добавляет топик в кучу крупнейших, вытесняя наименьший при переполнении.
+         *
+         * @param volume объём последнего запуска топика
+         */
+        private void offer(GlobalStats.TopicVolume volume) {
+            if (top == 0) {
+                return;
+            }
+            if (largest.size() < top) {
+                largest.add(volume);
+            } else if (VolumeOrder.INSTANCE.compare(volume, largest.peek()) > 0) {
+                largest.poll();
+                largest.add(volume);
+            }
+        }
+
+        /**
+         * @return статистика по всем топикам
+         */
+        GlobalStats toStats() {
+            final GlobalStats.TopicVolume[] sorted = new GlobalStats.TopicVolume[largest.size()];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                sorted[i] = largest.poll();
+            }
+            final Map<String, Long> skew = new LinkedHashMap<>();
+            for (int i = 0; i < skewCounts.length; i++) {
+                skew.put(SKEW_LABELS[i], skewCounts[i]);
+            }
+            final boolean hasParts = partitions > 0;
+            return new GlobalStats(topics, failedTopics, partitions, messages,
+                    hasParts ? min : null,
+                    hasParts ? max : null,
+                    topics == 0 ? null : mean,
+                    topics == 0 ? null : Math.sqrt(m2 / topics),
+                    topics == 0 ? null : (m2 == 0 ? 0d : Math.sqrt(topics) * m3 / Math.pow(m2, 1.5)),
+                    Arrays.asList(sorted),
+                    skew);
+        }
+    }
+
+    /**
+     * Порядок объёмов топиков: по числу сообщений, при равенстве больше тот, чей идентификатор меньше.
+     */
+    private enum VolumeOrder implements Comparator<GlobalStats.TopicVolume> {
+
+        /**
+         * Единственный экземпляр.
+         */
+        INSTANCE;
+
+        @Override
+        public int compare(GlobalStats.TopicVolume a, GlobalStats.TopicVolume b) {
+            if (a.getMessages() != b.getMessages()) {
+                return a.getMessages() < b.getMessages() ? -1 : 1;
+            }
+            return b.getId().compareTo(a.getId());
+        }
+    }
+}
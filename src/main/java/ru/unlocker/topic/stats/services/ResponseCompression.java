@@ -0,0 +1,353 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+
+/**
+ * Сжатие тел ответов по заголовку Accept-Encoding.
+ * <p>
+ * Поддерживаются gzip и deflate; при равном весе в Accept-Encoding выбирается gzip. Тела короче порога
+ * отправляются без сжатия: выигрыш на них меньше затрат на сжатие и заголовки. Уровень сжатия
+ * настраивается; по умолчанию используется самый быстрый, так как ответы сжимаются в потоках чтения данных.
+ *
+ * @author unlocker
+ */
+public class ResponseCompression {
+
+    /**
+     * Заголовок Accept-Encoding.
+     */
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /**
+     * Заголовок Content-Encoding.
+     */
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /**
+     * Заголовок Vary.
+     */
+    private static final String VARY_HEADER = "Vary";
+
+    /**
+     * Признак включения сжатия.
+     */
+    private final boolean enabled;
+
+    /**
+     * Минимальный размер тела для сжатия в байтах.
+     */
+    private final int minBytes;
+
+    /**
+     * Уровень сжатия.
+     */
+    private final int level;
+
+    /**
+     * Число сжатых ответов по способам сжатия.
+     */
+    private final Map<Coding, Counter> compressed = new EnumMap<>(Coding.class);
+
+    /**
+     * Сжатие тел ответов по заголовку Accept-Encoding.
+     *
+     * @param enabled признак включения сжатия
+     * @param minBytes минимальный размер тела для сжатия в байтах
+     * @param level уровень сжатия от {@link Deflater#BEST_SPEED} до {@link Deflater#BEST_COMPRESSION}
+     */
+    public ResponseCompression(boolean enabled, int minBytes, int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(String.format("Недопустимый уровень сжатия %d.", level));
+        }
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.level = level;
+        for (Coding coding : Coding.values()) {
+            compressed.put(coding, new Counter());
+        }
+    }
+
+    /**
+     * Регистрирует метрики: число сжатых ответов по способам сжатия.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        for (Coding coding : Coding.values()) {
+            compressed.put(coding, metrics.counter("topics_http_compressed_responses_total",
+                    "Ответы, отправленные со сжатием.", "coding", coding.getToken()));
+        }
+    }
+
+    /**
+     * @return минимальный размер тела для сжатия в байтах
+     */
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * Выбирает способ сжатия по заголовку Accept-Encoding и отмечает в ответе, что его тело зависит от
+     * этого заголовка.
+     *
+     * @param request запрос
+     * @param response ответ
+     * @return способ сжатия или {@code null}, если ответ отправляется без сжатия
+     */
+    public Coding select(HttpServletRequest request, HttpServletResponse response) {
+        if (!enabled) {
+            return null;
+        }
+        response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+        return negotiate(request.getHeader(ACCEPT_ENCODING_HEADER));
+    }
+
+    /**
+     * Сжимает тело ответа целиком.
+     *
+     * @param body тело ответа
+     * @param coding способ сжатия
+     * @return сжатое тело
+     * @throws IOException ошибка сжатия
+     */
+    public byte[] compress(byte[] body, Coding coding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (OutputStream out = encoder(buffer, coding)) {
+            out.write(body);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Записывает сжатое тело в ответ.
+     *
+     * @param response ответ
+     * @param coding способ сжатия
+     * @param body сжатое тело
+     * @throws IOException ошибка записи ответа
+     */
+    public void writeCompressed(HttpServletResponse response, Coding coding, byte[] body) throws IOException {
+        response.setHeader(CONTENT_ENCODING_HEADER, coding.getToken());
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        compressed.get(coding).increment();
+    }
+
+    /**
+     * Открывает поток записи тела ответа заранее неизвестной длины. Пока записано меньше порога, тело
+     * накапливается в памяти; после порога в ответ уходит заголовок Content-Encoding, и дальше тело
+     * сжимается по мере записи. Короткое тело при закрытии потока отправляется без сжатия.
+     *
+     * @param response ответ
+     * @param coding способ сжатия или {@code null}
+     * @return поток записи тела; закрывается вызывающим
+     * @throws IOException ошибка получения потока ответа
+     */
+    public OutputStream open(HttpServletResponse response, Coding coding) throws IOException {
+        if (coding == null) {
+            return response.getOutputStream();
+        }
+        return new ThresholdOutputStream(response, coding);
+    }
+
+    /**
+     * Выбирает способ сжатия с наибольшим весом в заголовке Accept-Encoding.
+     *
+     * @param acceptEncoding значение заголовка или {@code null}
+     * @return способ сжатия или {@code null}
+     */
+    static Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        final Map<Coding, Double> weights = new EnumMap<>(Coding.class);
+        Double wildcard = null;
+        for (String item : acceptEncoding.split(",")) {
+            final String[] parts = item.split(";");
+            final String token = parts[0].trim().toLowerCase(Locale.ROOT);
+            double weight = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        weight = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        weight = 0.0;
+                    }
+                }
+            }
+            if (token.equals("*")) {
+                wildcard = weight;
+            }
+            for (Coding coding : Coding.values()) {
+                if (coding.getToken().equals(token)) {
+                    weights.put(coding, weight);
+                }
+            }
+        }
+        Coding best = null;
+        double bestWeight = 0.0;
+        for (Coding coding : Coding.values()) {
+            Double weight = weights.get(coding);
+            if (weight == null) {
+                weight = wildcard;
+            }
+            if (weight != null && weight > bestWeight) {
+                best = coding;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param out поток сжатых данных
+     * @param coding способ сжатия
+     * @return поток сжатия с настроенным уровнем
+     * @throws IOException ошибка записи заголовка
+     */
+    private DeflaterOutputStream encoder(OutputStream out, Coding coding) throws IOException {
+        if (coding == Coding.GZIP) {
+            return new GZIPOutputStream(out, 8192) {
+
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8192) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Способ сжатия.
+     */
+    public enum Coding {
+
+        /**
+         * gzip
+         */
+        GZIP("gzip"),
+        /**
+         * deflate (zlib)
+         */
+        DEFLATE("deflate");
+
+        /**
+         * значение в заголовках Accept-Encoding и Content-Encoding
+         */
+        private final String token;
+
+        /**
+         * @param token значение в заголовках Accept-Encoding и Content-Encoding
+         */
+        private Coding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * @return значение в заголовках Accept-Encoding и Content-Encoding
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * Поток записи тела ответа, включающий сжатие после порога.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+
+        /**
+         * ответ
+         */
+        private final HttpServletResponse response;
+
+        /**
+         * способ сжатия
+         */
+        private final Coding coding;
+
+        /**
+         * начало тела до достижения порога
+         */
+        private ByteArrayOutputStream head = new ByteArrayOutputStream();
+
+        /**
+         * поток сжатия после достижения порога
+         */
+        private OutputStream target;
+
+        /**
+         * @param response ответ
+         * @param coding способ сжатия
+         */
+        ThresholdOutputStream(HttpServletResponse response, Coding coding) {
+            this.response = response;
+            this.coding = coding;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (target != null) {
+                target.write(b, off, len);
+                return;
+            }
+            head.write(b, off, len);
+            if (head.size() >= minBytes) {
+                response.setHeader(CONTENT_ENCODING_HEADER, coding.getToken());
+                target = encoder(response.getOutputStream(), coding);
+                head.writeTo(target);
+                head = null;
+                compressed.get(coding).increment();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (target != null) {
+                target.close();
+                return;
+            }
+            if (head != null) {
+                response.setContentLength(head.size());
+                head.writeTo(response.getOutputStream());
+                head = null;
+            }
+            response.getOutputStream().close();
+        }
+    }
+}
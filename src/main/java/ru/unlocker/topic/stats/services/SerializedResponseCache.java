@@ -0,0 +1,268 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.Gauge;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+
+/**
+ * Кэш готовых к отправке тел ответов.
+ * <p>
+ * Ключом служит тройка (ресурс, топик, представление), где ресурс - запрос вместе с параметрами, влияющими на
+ * тело ответа, а представление - формат тела (например, JSON в UTF-8). Запись хранит тело и ETag версии
+ * последнего запуска, по которой оно построено: при появлении нового запуска ETag меняется, и запись
+ * считается устаревшей. Поэтому кэшируются только ответы по последнему запуску топика: ответ по
+ * произвольному запуску вытеснял бы запись последнего под тем же ключом. Вытеснение - LRU с ограничением по
+ * числу записей и по объёму тел.
+ *
+ * @author unlocker
+ */
+public class SerializedResponseCache {
+
+    /**
+     * Оценка памяти на запись без тела: ключ, ETag и служебные поля.
+     */
+    static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * Максимальное число записей.
+     */
+    private final int maxEntries;
+
+    /**
+     * Максимальный объём записей в байтах.
+     */
+    private final long maxBytes;
+
+    /**
+     * Записи в порядке обращения.
+     */
+    private final LinkedHashMap<ResponseKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Текущий объём записей в байтах.
+     */
+    private long bytes;
+
+    /**
+     * Число попаданий.
+     */
+    private Counter hits = new Counter();
+
+    /**
+     * Число промахов, включая устаревшие записи.
+     */
+    private Counter misses = new Counter();
+
+    /**
+     * Число вытесненных записей.
+     */
+    private Counter evictions = new Counter();
+
+    /**
+     * Кэш готовых к отправке тел ответов.
+     *
+     * @param maxEntries максимальное число записей
+     * @param maxBytes максимальный объём записей в байтах
+     */
+    public SerializedResponseCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Регистрирует метрики кэша: попадания, промахи, вытеснения, число записей и объём.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        final String requests = "topics_response_cache_requests_total";
+        final String requestsHelp = "Обращения к кэшу готовых тел ответов.";
+        hits = metrics.counter(requests, requestsHelp, "result", "hit");
+        misses = metrics.counter(requests, requestsHelp, "result", "miss");
+        evictions = metrics.counter("topics_response_cache_evictions_total",
+                "Записи, вытесненные из кэша готовых тел ответов.");
+        metrics.gauge("topics_response_cache_entries", "Число записей кэша готовых тел ответов.", new Gauge() {
+
+            @Override
+            public double value() {
+                return size();
+            }
+        });
+        metrics.gauge("topics_response_cache_bytes", "Оценка объёма кэша готовых тел ответов в байтах.",
+                new Gauge() {
+
+                    @Override
+                    public double value() {
+                        return bytes();
+                    }
+                });
+    }
+
+    /**
+     * Возвращает тело ответа, если оно есть в кэше и построено по текущей версии запуска.
+     *
+     * @param resource ресурс
+     * @param topicId идентификатор топика
+     * @param representation представление
+     * @param etag ETag текущей версии последнего запуска
+     * @return тело ответа или {@code null}
+     */
+    public synchronized byte[] get(String resource, String topicId, String representation, String etag) {
+        final ResponseKey key = new ResponseKey(resource, topicId, representation);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.etag.equals(etag)) {
+            remove(key);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.body;
+    }
+
+    /**
+     * Сохраняет тело ответа в кэш.
+     *
+     * @param resource ресурс
+     * @param topicId идентификатор топика
+     * @param representation представление
+     * @param etag ETag версии последнего запуска, по которой построено тело
+     * @param body тело ответа
+     */
+    public synchronized void put(String resource, String topicId, String representation, String etag,
+            byte[] body) {
+        final ResponseKey key = new ResponseKey(resource, topicId, representation);
+        remove(key);
+        final Entry entry = new Entry(etag, body);
+        if (entry.bytes > maxBytes || maxEntries <= 0) {
+            return;
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Удаляет все записи.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return число записей
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return оценка объёма записей в байтах
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Удаляет запись.
+     *
+     * @param key ключ
+     */
+    private void remove(ResponseKey key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Ключ записи кэша.
+     */
+    private static class ResponseKey {
+
+        /**
+         * ресурс
+         */
+        private final String resource;
+
+        /**
+         * идентификатор топика
+         */
+        private final String topicId;
+
+        /**
+         * представление
+         */
+        private final String representation;
+
+        /**
+         * @param resource ресурс
+         * @param topicId идентификатор топика
+         * @param representation представление
+         */
+        ResponseKey(String resource, String topicId, String representation) {
+            this.resource = resource;
+            this.topicId = topicId;
+            this.representation = representation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResponseKey)) {
+                return false;
+            }
+            ResponseKey other = (ResponseKey) obj;
+            return resource.equals(other.resource)
+                    && topicId.equals(other.topicId)
+                    && representation.equals(other.representation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * resource.hashCode() + topicId.hashCode()) + representation.hashCode();
+        }
+    }
+
+    /**
+     * Запись кэша.
+     */
+    private static class Entry {
+
+        /**
+         * ETag версии последнего запуска
+         */
+        private final String etag;
+
+        /**
+         * тело ответа
+         */
+        private final byte[] body;
+
+        /**
+         * оценка объёма записи в байтах
+         */
+        private final long bytes;
+
+        /**
+         * @param etag ETag версии последнего запуска
+         * @param body тело ответа
+         */
+        Entry(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+            this.bytes = ENTRY_OVERHEAD_BYTES + body.length;
+        }
+    }
+}
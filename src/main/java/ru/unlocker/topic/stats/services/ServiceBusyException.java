@@ -0,0 +1,32 @@
+package ru.unlocker.topic.stats.services;
+
+/**
+ * Сервис временно не может обработать запрос: очередь чтения переполнена или истекло время ожидания.
+ *
+ * @author unlocker
+ */
+public class ServiceBusyException extends Exception {
+
+    /**
+     * Рекомендуемая пауза перед повтором в секундах.
+     */
+    private final int retryAfterSeconds;
+
+    /**
+     * Сервис временно не может обработать запрос.
+     *
+     * @param message сообщение
+     * @param retryAfterSeconds рекомендуемая пауза перед повтором в секундах
+     */
+    public ServiceBusyException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return рекомендуемая пауза перед повтором в секундах
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
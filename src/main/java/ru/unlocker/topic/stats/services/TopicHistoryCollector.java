@@ -0,0 +1,145 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunHistoryEntry;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Сбор истории запусков топика с параллельным разбором запусков.
+ * <p>
+ * Запуски разбираются в общем пуле потоков скользящим окном, а записи передаются обработчику строго в
+ * порядке запусков: так изменения по партициям считаются между соседними запусками, а в памяти
+ * одновременно находится не более окна разобранных запусков.
+ *
+ * @author unlocker
+ */
+public class TopicHistoryCollector {
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private final TopicDataProvider provider;
+
+    /**
+     * Пул потоков.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Максимальное число запусков в работе на один запрос.
+     */
+    private final int window;
+
+    /**
+     * Сбор истории запусков топика с параллельным разбором запусков.
+     *
+     * @param provider поставщик данных о топиках
+     * @param executor пул потоков
+     * @param window максимальное число запусков в работе на один запрос
+     */
+    public TopicHistoryCollector(TopicDataProvider provider, ExecutorService executor, int window) {
+        this.provider = provider;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Разбирает запуски топика и передаёт записи истории обработчику в порядке запусков.
+     *
+     * @param topicId идентификатор топика
+     * @param timestamps временные метки запусков по возрастанию
+     * @param handler обработчик записей
+     * @throws IOException ошибка обработчика
+     * @throws InterruptedException ожидание прервано
+     */
+    public void collect(String topicId, List<DateTime> timestamps, Handler handler)
+            throws IOException, InterruptedException {
+        Iterator<DateTime> pending = timestamps.iterator();
+        Deque<RunTask> inFlight = new ArrayDeque<>();
+        try {
+            while (inFlight.size() < window && pending.hasNext()) {
+                inFlight.add(new RunTask(topicId, pending.next()));
+            }
+            PartitionCounts previous = null;
+            while (!inFlight.isEmpty()) {
+                RunTask head = inFlight.poll();
+                if (pending.hasNext()) {
+                    inFlight.add(new RunTask(topicId, pending.next()));
+                }
+                RunHistoryEntry entry;
+                try {
+                    PartitionCounts parts = head.future.get();
+                    entry = new RunHistoryEntry(RunStats.of(head.ts, parts),
+                            previous == null ? null : parts.minus(previous));
+                    previous = parts;
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof TopicDataException)) {
+                        throw new IllegalStateException("Ошибка разбора запуска топика.", ex.getCause());
+                    }
+                    entry = new RunHistoryEntry(head.ts, ex.getCause().getMessage());
+                    previous = null;
+                }
+                handler.onEntry(entry);
+            }
+        } finally {
+            for (RunTask task : inFlight) {
+                task.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Обработчик записей истории.
+     */
+    public interface Handler {
+
+        /**
+         * @param entry запись истории
+         * @throws IOException ошибка обработки
+         */
+        void onEntry(RunHistoryEntry entry) throws IOException;
+    }
+
+    /**
+     * Разбор одного запуска, поставленный в пул.
+     */
+    private class RunTask {
+
+        /**
+         * временная метка запуска
+         */
+        private final DateTime ts;
+
+        /**
+         * результат разбора
+         */
+        private final Future<PartitionCounts> future;
+
+        /**
+         * @param topicId идентификатор топика
+         * @param ts временная метка запуска
+         */
+        RunTask(final String topicId, final DateTime ts) {
+            this.ts = ts;
+            this.future = executor.submit(new Callable<PartitionCounts>() {
+
+                @Override
+                public PartitionCounts call() throws TopicDataException {
+                    return provider.getRunParts(topicId, ts);
+                }
+            });
+        }
+    }
+}
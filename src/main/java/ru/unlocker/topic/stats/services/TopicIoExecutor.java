@@ -0,0 +1,255 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.Gauge;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+
+/**
+ * Ограниченный пул потоков для чтения данных о топиках вне потоков обработки запросов.
+ * <p>
+ * Очередь задач ограничена: при её переполнении запрос сразу завершается {@link ServiceBusyException}.
+ * Каждый запрос ограничен по времени: по истечении таймаута задача прерывается, а запрос завершается тем
+ * же исключением. Так медленный диск занимает только потоки этого пула, а не пул соединений сервера.
+ * <p>
+ * Задачи, пишущие тело прямо в ответ, выполняются через {@link #stream(Callable)}: такой запрос завершает
+ * только поток пула после окончания записи, поэтому после ответа 503 запись в ответ невозможна.
+ *
+ * @author unlocker
+ */
+public class TopicIoExecutor implements Closeable {
+
+    /**
+     * Таймаут асинхронной обработки в контейнере для потоковых запросов: не ограничен, их таймаутом
+     * управляет пул.
+     */
+    private static final long NO_CONTAINER_TIMEOUT = 0L;
+
+    /**
+     * Состояние потоковой задачи: в очереди.
+     */
+    private static final int PENDING = 0;
+
+    /**
+     * Состояние потоковой задачи: выполняется.
+     */
+    private static final int RUNNING = 1;
+
+    /**
+     * Состояние потоковой задачи: завершена.
+     */
+    private static final int DONE = 2;
+
+    /**
+     * Состояние потоковой задачи: снята с очереди по таймауту.
+     */
+    private static final int EXPIRED = 3;
+
+    /**
+     * Пул потоков.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Поток таймаутов потоковых задач.
+     */
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    /**
+     * Таймаут запроса в миллисекундах.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Рекомендуемая пауза перед повтором в секундах.
+     */
+    private final int retryAfterSeconds;
+
+    /**
+     * Число отклонённых запросов.
+     */
+    private Counter rejected = new Counter();
+
+    /**
+     * Число запросов, прерванных по таймауту.
+     */
+    private Counter timedOut = new Counter();
+
+    /**
+     * Ограниченный пул потоков для чтения данных о топиках.
+     *
+     * @param threads число потоков
+     * @param queueSize размер очереди задач
+     * @param timeoutMillis таймаут запроса в миллисекундах
+     * @param retryAfterSeconds рекомендуемая пауза перед повтором в секундах
+     */
+    public TopicIoExecutor(int threads, int queueSize, long timeoutMillis, int retryAfterSeconds) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "topics-io-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.timeouts = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "topics-io-timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timeouts.setRemoveOnCancelPolicy(true);
+        this.timeoutMillis = timeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Регистрирует метрики пула: отказы, таймауты, размер очереди и число занятых потоков.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        rejected = metrics.counter("topics_io_rejected_total", "Запросы, отклонённые из-за переполнения очереди.");
+        timedOut = metrics.counter("topics_io_timeouts_total", "Запросы, прерванные по таймауту.");
+        metrics.gauge("topics_io_queue_size", "Задачи в очереди пула чтения.", new Gauge() {
+
+            @Override
+            public double value() {
+                return executor.getQueue().size();
+            }
+        });
+        metrics.gauge("topics_io_active_threads", "Занятые потоки пула чтения.", new Gauge() {
+
+            @Override
+            public double value() {
+                return executor.getActiveCount();
+            }
+        });
+    }
+
+    /**
+     * Выполняет вызов в пуле и возвращает отложенный результат для асинхронной обработки запроса.
+     *
+     * @param <T> тип результата
+     * @param call вызов
+     * @return отложенный результат; исключение вызова передаётся обработчикам исключений контроллера
+     */
+    public <T> DeferredResult<T> submit(final Callable<T> call) {
+        final DeferredResult<T> result = new DeferredResult<>(timeoutMillis,
+                new ServiceBusyException("Превышено время ожидания данных.", retryAfterSeconds));
+        final Future<?> task;
+        try {
+            task = executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (result.isSetOrExpired()) {
+                        return;
+                    }
+                    try {
+                        result.setResult(call.call());
+                    } catch (Exception ex) {
+                        result.setErrorResult(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            result.setErrorResult(new ServiceBusyException("Сервис перегружен.", retryAfterSeconds));
+            return result;
+        }
+        result.onTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                timedOut.increment();
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Выполняет в пуле вызов, записывающий тело прямо в ответ, и возвращает отложенный результат. Запрос
+     * завершает поток пула после окончания вызова. По истечении таймаута задача, ещё стоящая в очереди,
+     * снимается с неё, и запрос завершается {@link ServiceBusyException}; выполняющаяся задача прерывается,
+     * а запрос завершается её исключением, когда она прекратит запись.
+     *
+     * @param call вызов, записывающий ответ
+     * @return отложенный результат; исключение вызова передаётся обработчикам исключений контроллера
+     */
+    public DeferredResult<Void> stream(final Callable<Void> call) {
+        final DeferredResult<Void> result = new DeferredResult<>(NO_CONTAINER_TIMEOUT);
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        final Future<?> task;
+        try {
+            task = executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!state.compareAndSet(PENDING, RUNNING)) {
+                        return;
+                    }
+                    try {
+                        call.call();
+                        result.setResult(null);
+                    } catch (Exception ex) {
+                        result.setErrorResult(ex);
+                    } finally {
+                        state.set(DONE);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            result.setErrorResult(new ServiceBusyException("Сервис перегружен.", retryAfterSeconds));
+            return result;
+        }
+        final Future<?> timeout = timeouts.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (state.compareAndSet(PENDING, EXPIRED)) {
+                    timedOut.increment();
+                    task.cancel(false);
+                    result.setErrorResult(
+                            new ServiceBusyException("Превышено время ожидания данных.", retryAfterSeconds));
+                } else if (state.get() == RUNNING) {
+                    timedOut.increment();
+                    task.cancel(true);
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.onCompletion(new Runnable() {
+
+            @Override
+            public void run() {
+                timeout.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        timeouts.shutdownNow();
+        executor.shutdownNow();
+    }
+}
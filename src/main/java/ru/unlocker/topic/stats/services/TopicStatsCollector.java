@@ -0,0 +1,189 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.TopicStats;
+
+/**
+ * Параллельный сбор статистики по множеству топиков.
+ * <p>
+ * Статистика рассчитывается в общем ограниченном пуле потоков; одновременно в работе находится не более
+ * заданного числа топиков, а результаты передаются обработчику в вызывающем потоке по мере готовности.
+ *
+ * @author unlocker
+ */
+public class TopicStatsCollector {
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private final TopicDataProvider provider;
+
+    /**
+     * Пул потоков.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Максимальное число топиков в работе на один запрос.
+     */
+    private final int window;
+
+    /**
+     * Параллельный сбор статистики по множеству топиков.
+     *
+     * @param provider поставщик данных о топиках
+     * @param executor пул потоков
+     * @param window максимальное число топиков в работе на один запрос
+     */
+    public TopicStatsCollector(TopicDataProvider provider, ExecutorService executor, int window) {
+        this.provider = provider;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Рассчитывает статистику по топикам и передаёт результаты обработчику в порядке готовности. Сбой
+     * расчёта по отдельному топику передаётся обработчику как ошибка этого топика. Если обработчик
+     * завершился исключением или ожидание прервано, расчёты, ещё находящиеся в работе, отменяются.
+     *
+     * @param topicIds идентификаторы топиков
+     * @param handler обработчик результатов
+     * @throws IOException ошибка обработчика
+     * @throws InterruptedException ожидание прервано
+     */
+    public void collect(List<String> topicIds, Handler handler) throws IOException, InterruptedException {
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        Iterator<String> pending = topicIds.iterator();
+        Map<Future<Result>, String> inFlight = new HashMap<>();
+        try {
+            while (inFlight.size() < window && pending.hasNext()) {
+                submit(completion, inFlight, pending.next());
+            }
+            while (!inFlight.isEmpty()) {
+                Future<Result> future = completion.take();
+                String topicId = inFlight.remove(future);
+                if (pending.hasNext()) {
+                    submit(completion, inFlight, pending.next());
+                }
+                Result result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException ex) {
+                    result = new Result(topicId, null,
+                            new TopicDataException("Ошибка расчёта статистики топика.", ex.getCause()));
+                }
+                if (result.stats != null) {
+                    handler.onStats(result.stats);
+                } else {
+                    handler.onError(result.topicId, result.error);
+                }
+            }
+        } finally {
+            for (Future<Result> future : inFlight.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Ставит расчёт статистики топика в пул.
+     *
+     * @param completion очередь завершённых расчётов
+     * @param inFlight расчёты в работе
+     * @param topicId идентификатор топика
+     */
+    private void submit(CompletionService<Result> completion, Map<Future<Result>, String> inFlight,
+            String topicId) {
+        inFlight.put(completion.submit(new StatsTask(topicId)), topicId);
+    }
+
+    /**
+     * Обработчик результатов расчёта.
+     */
+    public interface Handler {
+
+        /**
+         * @param stats статистика топика
+         * @throws IOException ошибка обработки
+         */
+        void onStats(TopicStats stats) throws IOException;
+
+        /**
+         * @param topicId идентификатор топика
+         * @param error ошибка получения статистики
+         * @throws IOException ошибка обработки
+         */
+        void onError(String topicId, TopicDataException error) throws IOException;
+    }
+
+    /**
+     * Результат расчёта по одному топику.
+     */
+    private static class Result {
+
+        /**
+         * идентификатор топика
+         */
+        private final String topicId;
+
+        /**
+         * статистика топика
+         */
+        private final TopicStats stats;
+
+        /**
+         * ошибка получения статистики
+         */
+        private final TopicDataException error;
+
+        /**
+         * @param topicId идентификатор топика
+         * @param stats статистика топика
+         * @param error ошибка получения статистики
+         */
+        Result(String topicId, TopicStats stats, TopicDataException error) {
+            this.topicId = topicId;
+            this.stats = stats;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Задача расчёта статистики одного топика.
+     */
+    private class StatsTask implements Callable<Result> {
+
+        /**
+         * идентификатор топика
+         */
+        private final String topicId;
+
+        /**
+         * @param topicId идентификатор топика
+         */
+        StatsTask(String topicId) {
+            this.topicId = topicId;
+        }
+
+        @Override
+        public Result call() {
+            try {
+                return new Result(topicId, provider.getTopicStats(topicId), null);
+            } catch (TopicDataException ex) {
+                return new Result(topicId, null, ex);
+            }
+        }
+    }
+}
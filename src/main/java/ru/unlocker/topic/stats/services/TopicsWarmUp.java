@@ -0,0 +1,246 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.views.HealthView;
+
+/**
+ * Прогрев поставщика данных после запуска приложения.
+ * <p>
+ * Топики обходятся параллельно в отдельном пуле: для каждого находится последний запуск и читаются его
+ * партиции, что заполняет индекс, указатели и кэши поставщика. Прогрев ограничен по времени: по
+ * истечении бюджета оставшиеся топики пропускаются, и приложение всё равно считается готовым.
+ *
+ * @author unlocker
+ */
+public class TopicsWarmUp implements Closeable {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopicsWarmUp.class);
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private final TopicDataProvider provider;
+
+    /**
+     * Число потоков прогрева.
+     */
+    private final int threads;
+
+    /**
+     * Бюджет времени прогрева в миллисекундах.
+     */
+    private final long budgetMillis;
+
+    /**
+     * Число прогретых топиков.
+     */
+    private final AtomicInteger warmed = new AtomicInteger();
+
+    /**
+     * Число топиков, прочитать которые не удалось.
+     */
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Пул потоков прогрева.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Признак выполнения прогрева.
+     */
+    private volatile boolean warming;
+
+    /**
+     * Признак прогрева всех топиков в пределах бюджета.
+     */
+    private volatile boolean complete = true;
+
+    /**
+     * Время начала прогрева.
+     */
+    private volatile long startedAt;
+
+    /**
+     * Время окончания прогрева.
+     */
+    private volatile long finishedAt;
+
+    /**
+     * Прогрев поставщика данных после запуска приложения.
+     *
+     * @param provider поставщик данных о топиках
+     * @param threads число потоков прогрева
+     * @param budgetMillis бюджет времени прогрева в миллисекундах
+     */
+    public TopicsWarmUp(TopicDataProvider provider, int threads, long budgetMillis) {
+        this.provider = provider;
+        this.threads = threads;
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Запускает прогрев в фоне. До его окончания {@link #getHealth()} сообщает о неготовности.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        warming = true;
+        complete = false;
+        startedAt = System.currentTimeMillis();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "topics-warmup-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread coordinator = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, "topics-warmup");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * @return состояние готовности приложения
+     */
+    public HealthView getHealth() {
+        final boolean running = warming;
+        final long elapsed = startedAt == 0 ? 0 : (running ? System.currentTimeMillis() : finishedAt) - startedAt;
+        return new HealthView(running ? HealthView.WARMING : HealthView.UP,
+                warmed.get(), failed.get(), elapsed, running ? null : complete);
+    }
+
+    /**
+     * @return признак готовности к приёму запросов
+     */
+    public boolean isReady() {
+        return !warming;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Обходит топики и ждёт окончания прогрева в пределах бюджета.
+     */
+    private void warmUp() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        final List<Future<?>> tasks = new ArrayList<>();
+        boolean done = true;
+        try {
+            provider.visitTopics(new TopicVisitor() {
+
+                @Override
+                public void visit(final String topicId) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        throw new BudgetExhaustedException();
+                    }
+                    tasks.add(executor.submit(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            warmUpTopic(topicId, deadline);
+                        }
+                    }));
+                }
+            });
+            done = System.nanoTime() - deadline < 0;
+            for (Future<?> task : tasks) {
+                try {
+                    task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException | CancellationException ex) {
+                    done = false;
+                    break;
+                } catch (ExecutionException ex) {
+                    LOGGER.warn("Ошибка прогрева топика.", ex.getCause());
+                }
+            }
+        } catch (BudgetExhaustedException ex) {
+            done = false;
+        } catch (TopicDataException ex) {
+            done = false;
+            LOGGER.warn("Ошибка обхода топиков при прогреве.", ex);
+        } catch (InterruptedException ex) {
+            done = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            complete = done;
+            finishedAt = System.currentTimeMillis();
+            warming = false;
+        }
+        LOGGER.info("Прогрев {} за {} мс: прогрето топиков {}, с ошибками {}.",
+                done ? "завершён" : "прерван по бюджету времени", finishedAt - startedAt, warmed.get(), failed.get());
+    }
+
+    /**
+     * Прогревает топик: последний запуск и его партиции.
+     *
+     * @param topicId идентификатор топика
+     * @param deadline момент окончания бюджета по {@link System#nanoTime()}
+     */
+    private void warmUpTopic(String topicId, long deadline) {
+        if (System.nanoTime() - deadline >= 0) {
+            return;
+        }
+        try {
+            final DateTime last = provider.getLastTopicTimestamp(topicId);
+            provider.getRunParts(topicId, last);
+            warmed.incrementAndGet();
+        } catch (TopicDataException ex) {
+            failed.incrementAndGet();
+            LOGGER.debug("Топик '{}' не прогрет: {}", topicId, ex.getMessage());
+        } catch (RuntimeException ex) {
+            failed.incrementAndGet();
+            LOGGER.warn(String.format("Ошибка прогрева топика '%s'.", topicId), ex);
+        }
+    }
+
+    /**
+     * Прерывание обхода топиков по истечении бюджета времени.
+     */
+    private static class BudgetExhaustedException extends RuntimeException {
+
+        /**
+         * Прерывание обхода топиков по истечении бюджета времени.
+         */
+        BudgetExhaustedException() {
+            super(null, null, false, false);
+        }
+    }
+}
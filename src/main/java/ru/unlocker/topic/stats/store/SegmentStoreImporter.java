@@ -0,0 +1,185 @@
+package ru.unlocker.topic.stats.store;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Загрузка запусков топиков из исходного поставщика (как правило, папки с топиками) во встроенное
+ * хранилище.
+ * <p>
+ * Для каждого топика дописываются только запуски, более поздние, чем последний сохранённый, поэтому
+ * повторная загрузка переносит лишь новые запуски. Загрузка может повторяться в фоне с заданным
+ * интервалом; при закрытии текущая загрузка останавливается после записи очередного запуска.
+ *
+ * @author unlocker
+ */
+public class SegmentStoreImporter implements Closeable {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentStoreImporter.class);
+
+    /**
+     * Время ожидания окончания текущей загрузки при закрытии в секундах.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Исходный поставщик данных о топиках.
+     */
+    private final TopicDataProvider source;
+
+    /**
+     * Хранилище.
+     */
+    private final SegmentTopicDataProvider store;
+
+    /**
+     * Поток повторной загрузки.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Признак закрытия.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Загрузка запусков топиков во встроенное хранилище.
+     *
+     * @param source исходный поставщик данных о топиках
+     * @param store хранилище
+     */
+    public SegmentStoreImporter(TopicDataProvider source, SegmentTopicDataProvider store) {
+        this.source = source;
+        this.store = store;
+    }
+
+    /**
+     * Дописывает в хранилище запуски всех топиков, появившиеся после последнего сохранённого.
+     *
+     * @return число загруженных запусков
+     * @throws TopicDataException ошибка получения списка топиков или записи в хранилище
+     */
+    public int importAll() throws TopicDataException {
+        final long start = System.currentTimeMillis();
+        int imported = 0;
+        int topics = 0;
+        for (String topicId : source.getTopics()) {
+            if (closed) {
+                break;
+            }
+            imported += importTopic(topicId);
+            topics++;
+        }
+        store.flush();
+        LOGGER.info("Загружено в хранилище запусков: {}, топиков: {}, за {} мс.",
+                imported, topics, System.currentTimeMillis() - start);
+        return imported;
+    }
+
+    /**
+     * Дописывает в хранилище новые запуски топика. Запуск, который не удалось прочитать, пропускается, если
+     * за ним есть более поздние; последний такой запуск, возможно ещё записываемый, откладывается до
+     * следующей загрузки.
+     *
+     * @param topicId идентификатор топика
+     * @return число загруженных запусков
+     * @throws TopicDataException ошибка записи в хранилище
+     */
+    public int importTopic(String topicId) throws TopicDataException {
+        store.addTopic(topicId);
+        final DateTime stored = store.getLastStoredTimestamp(topicId);
+        final List<DateTime> timestamps;
+        try {
+            timestamps = source.getTopicTimestamps(topicId, stored, null);
+        } catch (TopicDataException ex) {
+            LOGGER.debug("Топик '{}' пропущен: {}", topicId, ex.getMessage());
+            return 0;
+        }
+        int imported = 0;
+        for (int i = 0; i < timestamps.size() && !closed; i++) {
+            final DateTime ts = timestamps.get(i);
+            if (stored != null && !ts.isAfter(stored)) {
+                continue;
+            }
+            final PartitionCounts parts;
+            try {
+                parts = source.getRunParts(topicId, ts);
+            } catch (TopicDataException ex) {
+                if (i == timestamps.size() - 1) {
+                    LOGGER.debug("Загрузка запуска {} топика '{}' отложена: {}", ts, topicId, ex.getMessage());
+                } else {
+                    LOGGER.warn("Запуск {} топика '{}' пропущен при загрузке в хранилище: {}",
+                            ts, topicId, ex.getMessage());
+                }
+                continue;
+            }
+            store.append(topicId, ts, parts);
+            imported++;
+        }
+        return imported;
+    }
+
+    /**
+     * Запускает повторную загрузку в фоне.
+     *
+     * @param intervalMillis интервал между загрузками в миллисекундах
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "topics-store-import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    importAll();
+                } catch (TopicDataException | RuntimeException ex) {
+                    LOGGER.warn("Ошибка загрузки запусков в хранилище.", ex);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Останавливает повторную загрузку и дожидается окончания текущей. Поток загрузки не прерывается:
+     * прерывание закрыло бы каналы сегментов на середине записи.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Загрузка запусков в хранилище не завершилась за {} с.", CLOSE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
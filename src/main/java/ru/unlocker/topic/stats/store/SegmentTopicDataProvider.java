@@ -0,0 +1,480 @@
+package ru.unlocker.topic.stats.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.metrics.Timer;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.PartitionStats;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
+import ru.unlocker.topic.stats.views.TopicParts;
+import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
+
+/**
+ * Поставщик данных о топиках во встроенном хранилище: по одному файлу-сегменту на топик в локальной папке.
+ * <p>
+ * Индексы всех сегментов (время запуска - смещение записи и статистика запуска) строятся при открытии и
+ * хранятся в памяти, поэтому последний запуск, диапазон запусков и статистика запусков определяются по
+ * индексу без обращения к диску, а партиции запуска читаются одним позиционным чтением. Хранилище
+ * заполняется из папки с топиками при помощи {@link SegmentStoreImporter}.
+ *
+ * @author unlocker
+ */
+public class SegmentTopicDataProvider implements TopicDataProvider, Closeable {
+
+    /**
+     * Лог.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentTopicDataProvider.class);
+
+    /**
+     * Папка хранилища.
+     */
+    private final Path storeDir;
+
+    /**
+     * Сегменты по топикам.
+     */
+    private final ConcurrentMap<String, TopicSegment> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Длительность чтения партиций из сегментов.
+     */
+    private Timer readSegmentTimer = new Timer();
+
+    /**
+     * Длительность дозаписи запусков в сегменты.
+     */
+    private Timer appendSegmentTimer = new Timer();
+
+    /**
+     * Фоновая загрузка запусков, останавливаемая при закрытии хранилища до закрытия сегментов.
+     */
+    private volatile SegmentStoreImporter importer;
+
+    /**
+     * Поставщик данных о топиках во встроенном хранилище
+     *
+     * @param storePath путь к папке хранилища; создаётся при отсутствии
+     * @throws TopicDataException ошибка открытия хранилища
+     */
+    public SegmentTopicDataProvider(String storePath) throws TopicDataException {
+        this.storeDir = Paths.get(storePath);
+        try {
+            Files.createDirectories(storeDir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(storeDir,
+                    "*" + TopicSegment.SEGMENT_FILE_SUFFIX)) {
+                for (Path entry : stream) {
+                    final String filename = entry.getFileName().toString();
+                    final String topicId = filename.substring(0,
+                            filename.length() - TopicSegment.SEGMENT_FILE_SUFFIX.length());
+                    segments.put(topicId, new TopicSegment(entry));
+                }
+            }
+        } catch (IOException ex) {
+            close();
+            final String message = String.format("Ошибка открытия хранилища '%s'.", storePath);
+            LOGGER.error(message, ex);
+            throw new TopicDataException(message, ex);
+        }
+    }
+
+    /**
+     * Регистрирует метрики чтения и записи сегментов.
+     *
+     * @param metrics реестр метрик
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        final String phases = "topics_provider_phase_seconds";
+        final String phasesHelp = "Длительность этапов чтения данных о топиках.";
+        readSegmentTimer = metrics.timer(phases, phasesHelp, "phase", "read_segment");
+        appendSegmentTimer = metrics.timer(phases, phasesHelp, "phase", "append_segment");
+    }
+
+    /**
+     * Передаёт хранилищу фоновую загрузку запусков: она будет остановлена при закрытии хранилища, чтобы
+     * не дописывать запуски в закрытые сегменты.
+     *
+     * @param importer загрузка запусков в это хранилище
+     */
+    public void setImporter(SegmentStoreImporter importer) {
+        this.importer = importer;
+    }
+
+    @Override
+    public List<String> getTopics() throws TopicDataException {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    @Override
+    public void visitTopics(TopicVisitor visitor) throws TopicDataException {
+        try {
+            for (String topicId : segments.keySet()) {
+                visitor.visit(topicId);
+            }
+        } catch (IOException ex) {
+            LOGGER.debug("Обход топиков прерван обработчиком: {}", ex.toString());
+            throw TopicDataException.visitAbortedException(ex);
+        }
+    }
+
+    @Override
+    public DateTime getLastTopicTimestamp(String topicId) throws TopicDataException {
+        return last(topicId).getStats().getTimestamp();
+    }
+
+    @Override
+    public List<DateTime> getTopicTimestamps(String topicId, DateTime from, DateTime to) throws TopicDataException {
+        final TopicSegment segment = segment(topicId);
+        if (segment.isEmpty()) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        final List<DateTime> result = new ArrayList<>();
+        for (TopicSegment.RunEntry entry : segment.range(from, to).values()) {
+            result.add(entry.getStats().getTimestamp());
+        }
+        return result;
+    }
+
+    @Override
+    public PartitionCounts getRunParts(String topicId, DateTime ts) throws TopicDataException {
+        final TopicSegment segment = segment(topicId);
+        return readParts(topicId, segment, entry(topicId, segment, ts));
+    }
+
+    @Override
+    public RunVersion getLastRunVersion(String topicId) throws TopicDataException {
+        final TopicSegment.RunEntry last = last(topicId);
+        final DateTime ts = last.getStats().getTimestamp();
+        // запись запуска неизменна, её смещение в сегменте заменяет размер файла CSV
+        return new RunVersion(ts, last.getOffset(), ts.getMillis());
+    }
+
+    @Override
+    public TopicStats getTopicStats(String topicId) throws TopicDataException {
+        final RunStats stats = last(topicId).getStats();
+        if (stats.getCount() == 0) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return toTopicStats(topicId, stats);
+    }
+
+    @Override
+    public RunStats getLastRunStats(String topicId) throws TopicDataException {
+        return last(topicId).getStats();
+    }
+
+    @Override
+    public TopicStats getTopicStats(String topicId, Set<TopicStats.Metric> metrics, int top)
+            throws TopicDataException {
+        if (metrics.isEmpty()) {
+            return getTopicStats(topicId);
+        }
+        if (metrics.contains(TopicStats.Metric.TOP) && top < 1) {
+            throw new IllegalArgumentException("Число нагруженных партиций должно быть положительным.");
+        }
+        final TopicSegment segment = segment(topicId);
+        return toTopicStats(topicId, segment, last(topicId, segment), metrics, top);
+    }
+
+    @Override
+    public TopicStats getTopicStats(String topicId, DateTime ts, Set<TopicStats.Metric> metrics, int top)
+            throws TopicDataException {
+        if (metrics.contains(TopicStats.Metric.TOP) && top < 1) {
+            throw new IllegalArgumentException("Число нагруженных партиций должно быть положительным.");
+        }
+        final TopicSegment segment = segment(topicId);
+        final TopicSegment.RunEntry entry = entry(topicId, segment, ts);
+        if (metrics.isEmpty()) {
+            if (entry.getStats().getCount() == 0) {
+                throw TopicDataException.missingTopicDataException(topicId);
+            }
+            return toTopicStats(topicId, entry.getStats());
+        }
+        return toTopicStats(topicId, segment, entry, metrics, top);
+    }
+
+    @Override
+    public TopicParts getTopicParts(String topicId) throws TopicDataException {
+        final TopicSegment segment = segment(topicId);
+        final TopicSegment.RunEntry last = last(topicId, segment);
+        return new TopicParts(topicId, last.getStats().getTimestamp(), readParts(topicId, segment, last));
+    }
+
+    @Override
+    public TopicParts getTopicParts(String topicId, DateTime ts) throws TopicDataException {
+        final TopicSegment segment = segment(topicId);
+        return new TopicParts(topicId, ts, readParts(topicId, segment, entry(topicId, segment, ts)));
+    }
+
+    @Override
+    public TopicSummary getTopicSummary(String topicId, Set<TopicSummary.Section> sections)
+            throws TopicDataException {
+        final TopicSegment segment = segment(topicId);
+        final TopicSegment.RunEntry last = last(topicId, segment);
+        final RunStats runStats = last.getStats();
+        TopicStats stats = null;
+        if (sections.contains(TopicSummary.Section.STATS)) {
+            if (runStats.getCount() == 0) {
+                throw TopicDataException.missingTopicDataException(topicId);
+            }
+            stats = toTopicStats(topicId, runStats);
+        }
+        return new TopicSummary(topicId,
+                sections.contains(TopicSummary.Section.LAST) ? runStats.getTimestamp() : null,
+                stats,
+                sections.contains(TopicSummary.Section.PARTS) ? readParts(topicId, segment, last) : null);
+    }
+
+    @Override
+    public List<RunStats> getRecentRunStats(String topicId, int window) throws TopicDataException {
+        if (window < 1) {
+            throw new IllegalArgumentException("Число запусков должно быть положительным.");
+        }
+        final List<RunStats> result = new ArrayList<>();
+        for (TopicSegment.RunEntry entry : segment(topicId).tail(window).values()) {
+            result.add(entry.getStats());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public TopicTrend getTopicTrend(String topicId, int window) throws TopicDataException {
+        final List<RunStats> runs = getRecentRunStats(topicId, window);
+        if (runs.isEmpty()) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return TopicTrend.of(topicId, runs);
+    }
+
+    /**
+     * Возвращает время последнего сохранённого запуска топика.
+     *
+     * @param topicId идентификатор топика
+     * @return время последнего запуска или {@code null}, если топика или запусков в хранилище нет
+     */
+    public DateTime getLastStoredTimestamp(String topicId) {
+        final TopicSegment segment = segments.get(topicId);
+        final TopicSegment.RunEntry last = segment == null ? null : segment.last();
+        return last == null ? null : last.getStats().getTimestamp();
+    }
+
+    /**
+     * Добавляет топик в хранилище, если его там ещё нет.
+     *
+     * @param topicId идентификатор топика
+     * @throws TopicDataException ошибка создания сегмента
+     */
+    public void addTopic(String topicId) throws TopicDataException {
+        openSegment(topicId);
+    }
+
+    /**
+     * Дописывает запуск топика в хранилище.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска, более поздняя, чем у последнего сохранённого запуска
+     * @param parts партиции и число сообщений
+     * @throws TopicDataException ошибка записи
+     */
+    public void append(String topicId, DateTime ts, PartitionCounts parts) throws TopicDataException {
+        final TopicSegment segment = openSegment(topicId);
+        final long start = Timer.start();
+        try {
+            segment.append(ts, parts);
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка записи запуска топика '%s' в хранилище.", topicId);
+            LOGGER.error(message, ex);
+            throw new TopicDataException(message, ex);
+        } finally {
+            appendSegmentTimer.stop(start);
+        }
+    }
+
+    /**
+     * Сбрасывает записанные данные всех сегментов на диск.
+     *
+     * @throws TopicDataException ошибка записи
+     */
+    public void flush() throws TopicDataException {
+        for (TopicSegment segment : segments.values()) {
+            try {
+                segment.force();
+            } catch (IOException ex) {
+                final String message = "Ошибка сброса хранилища на диск.";
+                LOGGER.error(message, ex);
+                throw new TopicDataException(message, ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        final SegmentStoreImporter current = importer;
+        if (current != null) {
+            current.close();
+        }
+        for (TopicSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Ошибка закрытия сегмента хранилища.", ex);
+            }
+        }
+    }
+
+    /**
+     * @param topicId идентификатор топика
+     * @return сегмент топика
+     * @throws TopicDataException топик не найден
+     */
+    private TopicSegment segment(String topicId) throws TopicDataException {
+        final TopicSegment segment = segments.get(topicId);
+        if (segment == null) {
+            throw TopicDataException.noSuchTopicException(topicId);
+        }
+        return segment;
+    }
+
+    /**
+     * @param topicId идентификатор топика
+     * @return последний запуск топика
+     * @throws TopicDataException топик не найден или нет данных по запускам
+     */
+    private TopicSegment.RunEntry last(String topicId) throws TopicDataException {
+        return last(topicId, segment(topicId));
+    }
+
+    /**
+     * @param topicId идентификатор топика
+     * @param segment сегмент топика
+     * @return последний запуск топика
+     * @throws TopicDataException нет данных по запускам
+     */
+    private static TopicSegment.RunEntry last(String topicId, TopicSegment segment) throws TopicDataException {
+        final TopicSegment.RunEntry last = segment.last();
+        if (last == null) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return last;
+    }
+
+    /**
+     * @param topicId идентификатор топика
+     * @param segment сегмент топика
+     * @param ts временная метка запуска
+     * @return запуск топика
+     * @throws TopicDataException нет данных по запуску
+     */
+    private static TopicSegment.RunEntry entry(String topicId, TopicSegment segment, DateTime ts)
+            throws TopicDataException {
+        final TopicSegment.RunEntry entry = segment.get(ts);
+        if (entry == null) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        return entry;
+    }
+
+    /**
+     * Рассчитывает расширенную статистику запуска по его партициям.
+     *
+     * @param topicId идентификатор топика
+     * @param segment сегмент топика
+     * @param entry запуск топика
+     * @param metrics запрошенные показатели
+     * @param top число самых нагруженных партиций
+     * @return статистика запуска
+     * @throws TopicDataException нет данных по запуску или ошибка чтения партиций
+     */
+    private TopicStats toTopicStats(String topicId, TopicSegment segment, TopicSegment.RunEntry entry,
+            Set<TopicStats.Metric> metrics, int top) throws TopicDataException {
+        if (entry.getStats().getCount() == 0) {
+            throw TopicDataException.missingTopicDataException(topicId);
+        }
+        PartitionStats details = PartitionStats.of(readParts(topicId, segment, entry), metrics, top);
+        return new TopicStats(topicId, entry.getStats().getTimestamp(),
+                details.getMin(), details.getMax(), details.getAvg(), details);
+    }
+
+    /**
+     * Открывает сегмент топика, создавая его при отсутствии.
+     *
+     * @param topicId идентификатор топика
+     * @return сегмент топика
+     * @throws TopicDataException ошибка создания сегмента
+     */
+    private synchronized TopicSegment openSegment(String topicId) throws TopicDataException {
+        TopicSegment segment = segments.get(topicId);
+        if (segment == null) {
+            try {
+                segment = new TopicSegment(storeDir.resolve(topicId + TopicSegment.SEGMENT_FILE_SUFFIX));
+            } catch (IOException ex) {
+                final String message = String.format("Ошибка создания сегмента топика '%s'.", topicId);
+                LOGGER.error(message, ex);
+                throw new TopicDataException(message, ex);
+            }
+            segments.put(topicId, segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Читает партиции запуска из сегмента.
+     *
+     * @param topicId идентификатор топика
+     * @param segment сегмент топика
+     * @param entry запуск
+     * @return партиции и число сообщений
+     * @throws TopicDataException ошибка чтения
+     */
+    private PartitionCounts readParts(String topicId, TopicSegment segment, TopicSegment.RunEntry entry)
+            throws TopicDataException {
+        final long start = Timer.start();
+        try {
+            return segment.readParts(entry);
+        } catch (ClosedByInterruptException ex) {
+            // запрос отменён; сегмент откроет канал заново при следующем обращении
+            final String message = String.format("Чтение данных запуска топика '%s' прервано.", topicId);
+            LOGGER.debug(message);
+            throw new TopicDataException(message, ex);
+        } catch (IOException ex) {
+            final String message = String.format("Ошибка получения данных запуска топика '%s'.", topicId);
+            LOGGER.error(message, ex);
+            throw new TopicDataException(message, ex);
+        } finally {
+            readSegmentTimer.stop(start);
+        }
+    }
+
+    /**
+     * Представить статистику запуска как статистику топика.
+     *
+     * @param topicId идентификатор топика
+     * @param stats статистика последнего запуска
+     * @return статистика
+     */
+    private static TopicStats toTopicStats(String topicId, RunStats stats) {
+        return new TopicStats(topicId, stats.getTimestamp(), stats.getMin(), stats.getMax(), stats.getAvg());
+    }
+}
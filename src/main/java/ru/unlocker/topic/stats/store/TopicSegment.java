@@ -0,0 +1,434 @@
+package ru.unlocker.topic.stats.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+import org.joda.time.DateTime;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Сегмент хранилища: файл запусков одного топика и его индекс в памяти.
+ * <p>
+ * Формат файла: заголовок (признак формата, версия), затем записи запусков в порядке возрастания времени.
+ * Запись состоит из заголовка фиксированной длины (время запуска в мс, число партиций, сумма, минимум,
+ * максимум, CRC32 колонок и CRC32 предыдущих полей заголовка) и колонок номеров партиций (int) и числа
+ * сообщений (long). Записи только дописываются. При открытии читаются лишь заголовки записей, из которых
+ * строится индекс: время запуска - смещение записи и статистика. Обход останавливается на первой неполной
+ * записи, записи с неверной контрольной суммой заголовка или с временем не позже предыдущего, и файл
+ * усекается до последней целой записи. Контрольная сумма колонок проверяется при их чтении.
+ *
+ * @author unlocker
+ */
+class TopicSegment implements Closeable {
+
+    /**
+     * Расширение файла сегмента.
+     */
+    static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+    /**
+     * Признак формата.
+     */
+    private static final int MAGIC = 0x54534547;
+
+    /**
+     * Версия формата.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Длина заголовка файла в байтах.
+     */
+    static final int HEADER_SIZE = 4 + 4;
+
+    /**
+     * Длина заголовка записи в байтах.
+     */
+    static final int RECORD_HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 4 + 4;
+
+    /**
+     * Смещение CRC32 колонок в заголовке записи.
+     */
+    private static final int DATA_CRC_OFFSET = 36;
+
+    /**
+     * Смещение CRC32 заголовка в заголовке записи.
+     */
+    private static final int HEADER_CRC_OFFSET = 40;
+
+    /**
+     * Путь к файлу сегмента.
+     */
+    private final Path path;
+
+    /**
+     * Канал файла сегмента. Прерывание потока во время чтения или записи закрывает канал, поэтому закрытый
+     * не через {@link #close()} канал открывается заново.
+     */
+    private volatile FileChannel channel;
+
+    /**
+     * Признак закрытия сегмента.
+     */
+    private boolean closed;
+
+    /**
+     * Индекс записей по времени запуска в мс.
+     */
+    private final ConcurrentSkipListMap<Long, RunEntry> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * Конец последней полной записи.
+     */
+    private long end;
+
+    /**
+     * Открывает сегмент, создавая файл при отсутствии, и строит индекс по заголовкам записей.
+     *
+     * @param path путь к файлу сегмента
+     * @throws IOException ошибка чтения или повреждённый заголовок файла
+     */
+    TopicSegment(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.truncate(0);
+                writeFully(header, 0);
+                end = HEADER_SIZE;
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(String.format("Файл '%s' не является сегментом хранилища.", path));
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(String.format("Сегмент '%s' записан в версии формата %d, ожидается %d: "
+                        + "хранилище нужно загрузить заново.", path, header.getInt(4), VERSION));
+            }
+            scan(size);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return признак отсутствия запусков
+     */
+    boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * @return последний запуск или {@code null}, если запусков нет
+     */
+    RunEntry last() {
+        Map.Entry<Long, RunEntry> last = index.lastEntry();
+        return last == null ? null : last.getValue();
+    }
+
+    /**
+     * @param ts временная метка запуска
+     * @return запуск или {@code null}, если его нет
+     */
+    RunEntry get(DateTime ts) {
+        return index.get(ts.getMillis());
+    }
+
+    /**
+     * Выбирает запуски из диапазона.
+     *
+     * @param from начало диапазона включительно или {@code null}
+     * @param to конец диапазона включительно или {@code null}
+     * @return запуски по возрастанию времени; пустой набор, если начало диапазона позже конца
+     */
+    NavigableMap<Long, RunEntry> range(DateTime from, DateTime to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            return new TreeMap<>();
+        }
+        NavigableMap<Long, RunEntry> range = index;
+        if (from != null) {
+            range = range.tailMap(from.getMillis(), true);
+        }
+        if (to != null) {
+            range = range.headMap(to.getMillis(), true);
+        }
+        return range;
+    }
+
+    /**
+     * Выбирает последние запуски.
+     *
+     * @param window число запусков
+     * @return запуски по убыванию времени
+     */
+    NavigableMap<Long, RunEntry> tail(int window) {
+        NavigableMap<Long, RunEntry> descending = index.descendingMap();
+        int skipped = 0;
+        for (Long key : descending.keySet()) {
+            if (++skipped > window) {
+                return descending.headMap(key, false);
+            }
+        }
+        return descending;
+    }
+
+    /**
+     * Читает колонки партиций записи одним позиционным чтением и сверяет их контрольную сумму.
+     *
+     * @param entry запуск
+     * @return партиции и число сообщений
+     * @throws IOException ошибка чтения или повреждённая запись
+     */
+    PartitionCounts readParts(RunEntry entry) throws IOException {
+        final int count = entry.stats.getCount();
+        ByteBuffer buffer = ByteBuffer.allocate(count * (4 + 8));
+        readFully(buffer, entry.offset + RECORD_HEADER_SIZE);
+        if (crc(buffer.array(), buffer.limit()) != entry.checksum) {
+            throw new IOException(String.format("Запись запуска %s в сегменте хранилища повреждена.",
+                    entry.stats.getTimestamp()));
+        }
+        buffer.flip();
+        int[] partitions = new int[count];
+        long[] counts = new long[count];
+        buffer.asIntBuffer().get(partitions);
+        buffer.position(count * 4);
+        buffer.asLongBuffer().get(counts);
+        return new PartitionCounts(partitions, counts);
+    }
+
+    /**
+     * Дописывает запуск в конец сегмента. Запись попадает в индекс после того, как записана целиком.
+     *
+     * @param ts временная метка запуска, более поздняя, чем у последней записи
+     * @param parts партиции и число сообщений
+     * @throws IOException ошибка записи
+     */
+    synchronized void append(DateTime ts, PartitionCounts parts) throws IOException {
+        RunEntry last = last();
+        if (last != null && !ts.isAfter(last.stats.getTimestamp())) {
+            throw new IllegalArgumentException("Запуски дописываются в порядке возрастания времени.");
+        }
+        final int count = parts.size();
+        final RunStats stats = RunStats.of(ts, parts);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + count * (4 + 8));
+        buffer.position(RECORD_HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(parts.partitionAt(i));
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(parts.countAt(i));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, buffer.position() - RECORD_HEADER_SIZE);
+        final int checksum = (int) crc.getValue();
+        buffer.putLong(0, ts.getMillis())
+                .putInt(8, count)
+                .putLong(12, stats.getSum())
+                .putLong(20, count == 0 ? 0 : stats.getMin())
+                .putLong(28, count == 0 ? 0 : stats.getMax())
+                .putInt(DATA_CRC_OFFSET, checksum)
+                .putInt(HEADER_CRC_OFFSET, crc(buffer.array(), HEADER_CRC_OFFSET));
+        buffer.flip();
+        final long offset = end;
+        channel().truncate(offset);
+        writeFully(buffer, offset);
+        end = offset + buffer.limit();
+        index.put(ts.getMillis(), new RunEntry(offset, stats, checksum));
+    }
+
+    /**
+     * Сбрасывает записанные данные на диск.
+     *
+     * @throws IOException ошибка записи
+     */
+    void force() throws IOException {
+        channel().force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Возвращает открытый канал файла сегмента, открывая его заново, если он закрыт прерыванием потока.
+     *
+     * @return канал файла сегмента
+     * @throws IOException сегмент закрыт или ошибка открытия файла
+     */
+    private FileChannel channel() throws IOException {
+        final FileChannel current = channel;
+        if (current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Читает заголовки записей и строит индекс. Обход останавливается на первой неполной записи, записи с
+     * неверной контрольной суммой заголовка или с временем не позже предыдущего; всё после последней целой
+     * записи отбрасывается.
+     *
+     * @param size размер файла
+     * @throws IOException ошибка чтения или усечения
+     */
+    private void scan(long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = HEADER_SIZE;
+        long previous = Long.MIN_VALUE;
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            if (header.getInt(HEADER_CRC_OFFSET) != crc(header.array(), HEADER_CRC_OFFSET)) {
+                break;
+            }
+            final long millis = header.getLong(0);
+            final int count = header.getInt(8);
+            final long next = position + RECORD_HEADER_SIZE + count * (4L + 8L);
+            if (count < 0 || next > size || millis <= previous) {
+                break;
+            }
+            final long sum = header.getLong(12);
+            final DateTime ts = new DateTime(millis);
+            index.put(millis, new RunEntry(position, count == 0
+                    ? new RunStats(ts, 0, 0, null, null, null)
+                    : new RunStats(ts, count, sum, header.getLong(20), header.getLong(28), sum / count),
+                    header.getInt(DATA_CRC_OFFSET)));
+            previous = millis;
+            position = next;
+        }
+        if (position < size) {
+            channel().truncate(position);
+        }
+        end = position;
+    }
+
+    /**
+     * @param bytes данные
+     * @param length длина данных от начала массива
+     * @return CRC32 данных
+     */
+    private static int crc(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Читает буфер целиком с заданной позиции.
+     *
+     * @param buffer буфер
+     * @param position позиция в файле
+     * @throws IOException ошибка чтения или неожиданный конец файла
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final FileChannel current = channel();
+            final int read;
+            try {
+                read = current.read(buffer, position + buffer.position());
+            } catch (ClosedByInterruptException ex) {
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // канал закрыт прерыванием другого потока: чтение продолжается через новый канал
+                continue;
+            }
+            if (read < 0) {
+                throw new IOException("Неожиданный конец сегмента хранилища.");
+            }
+        }
+    }
+
+    /**
+     * Записывает буфер целиком с заданной позиции.
+     *
+     * @param buffer буфер
+     * @param position позиция в файле
+     * @throws IOException ошибка записи
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final FileChannel current = channel();
+            try {
+                current.write(buffer, position + buffer.position());
+            } catch (ClosedByInterruptException ex) {
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // канал закрыт прерыванием другого потока: запись продолжается через новый канал
+            }
+        }
+    }
+
+    /**
+     * Запись индекса: смещение записи запуска в файле и статистика запуска.
+     */
+    static class RunEntry {
+
+        /**
+         * смещение записи в файле
+         */
+        private final long offset;
+
+        /**
+         * статистика запуска
+         */
+        private final RunStats stats;
+
+        /**
+         * CRC32 колонок записи
+         */
+        private final int checksum;
+
+        /**
+         * @param offset смещение записи в файле
+         * @param stats статистика запуска
+         * @param checksum CRC32 колонок записи
+         */
+        RunEntry(long offset, RunStats stats, int checksum) {
+            this.offset = offset;
+            this.stats = stats;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return смещение записи в файле
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return статистика запуска
+         */
+        RunStats getStats() {
+            return stats;
+        }
+    }
+}
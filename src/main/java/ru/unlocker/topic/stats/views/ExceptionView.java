@@ -1,12 +1,20 @@
 package ru.unlocker.topic.stats.views;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Обёртка исключения.
  *
  * @author unlocker
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ExceptionView {
 
+    /**
+     * Идентификатор топика, к которому относится ошибка.
+     */
+    private final String id;
+
     /**
      * Сообщение об ошибке.
      */
@@ -18,9 +26,27 @@ public class ExceptionView {
      * @param errorMessage сообщение об ошибке
      */
     public ExceptionView(String errorMessage) {
+        this(null, errorMessage);
+    }
+
+    /**
+     * Обёртка исключения, относящегося к топику.
+     *
+     * @param id идентификатор топика
+     * @param errorMessage сообщение об ошибке
+     */
+    public ExceptionView(String id, String errorMessage) {
+        this.id = id;
         this.errorMessage = errorMessage;
     }
 
+    /**
+     * @return идентификатор топика, к которому относится ошибка
+     */
+    public String getId() {
+        return id;
+    }
+
     /**
      * @return сообщение об ошибке
      */
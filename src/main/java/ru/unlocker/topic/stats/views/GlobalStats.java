@@ -0,0 +1,230 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Статистика по всем топикам: последние запуски, сведённые в общие показатели.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class GlobalStats {
+
+    /**
+     * число учтённых топиков
+     */
+    private final int topics;
+
+    /**
+     * число топиков, данные которых прочитать не удалось
+     */
+    private final int failedTopics;
+
+    /**
+     * суммарное число партиций
+     */
+    private final long partitions;
+
+    /**
+     * суммарное число сообщений
+     */
+    private final long messages;
+
+    /**
+     * минимальное количество сообщений в партиции
+     */
+    private final Long min;
+
+    /**
+     * максимальное количество сообщений в партиции
+     */
+    private final Long max;
+
+    /**
+     * среднее число сообщений на топик
+     */
+    private final Double topicMean;
+
+    /**
+     * стандартное отклонение числа сообщений по топикам
+     */
+    private final Double topicStddev;
+
+    /**
+     * коэффициент асимметрии числа сообщений по топикам
+     */
+    private final Double topicSkew;
+
+    /**
+     * крупнейшие топики по убыванию числа сообщений
+     */
+    private final List<TopicVolume> largestTopics;
+
+    /**
+     * распределение топиков по перекосу партиций: отношение максимума к среднему
+     */
+    private final Map<String, Long> partitionSkew;
+
+    /**
+     * Статистика по всем топикам
+     *
+     * @param topics число учтённых топиков
+     * @param failedTopics число топиков, данные которых прочитать не удалось
+     * @param partitions суммарное число партиций
+     * @param messages суммарное число сообщений
+     * @param min минимальное количество сообщений в партиции или {@code null}, если партиций нет
+     * @param max максимальное количество сообщений в партиции или {@code null}, если партиций нет
+     * @param topicMean среднее число сообщений на топик или {@code null}, если топиков нет
+     * @param topicStddev стандартное отклонение числа сообщений по топикам
+     * @param topicSkew коэффициент асимметрии числа сообщений по топикам
+     * @param largestTopics крупнейшие топики по убыванию числа сообщений
+     * @param partitionSkew число топиков по верхним границам отношения максимума партиции к среднему
+     */
+    public GlobalStats(int topics, int failedTopics, long partitions, long messages, Long min, Long max,
+            Double topicMean, Double topicStddev, Double topicSkew, List<TopicVolume> largestTopics,
+            Map<String, Long> partitionSkew) {
+        this.topics = topics;
+        this.failedTopics = failedTopics;
+        this.partitions = partitions;
+        this.messages = messages;
+        this.min = min;
+        this.max = max;
+        this.topicMean = topicMean;
+        this.topicStddev = topicStddev;
+        this.topicSkew = topicSkew;
+        this.largestTopics = largestTopics;
+        this.partitionSkew = partitionSkew;
+    }
+
+    /**
+     * @return число учтённых топиков
+     */
+    public int getTopics() {
+        return topics;
+    }
+
+    /**
+     * @return число топиков, данные которых прочитать не удалось
+     */
+    public int getFailedTopics() {
+        return failedTopics;
+    }
+
+    /**
+     * @return суммарное число партиций
+     */
+    public long getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return суммарное число сообщений
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return минимальное количество сообщений в партиции
+     */
+    public Long getMin() {
+        return min;
+    }
+
+    /**
+     * @return максимальное количество сообщений в партиции
+     */
+    public Long getMax() {
+        return max;
+    }
+
+    /**
+     * @return среднее число сообщений на топик
+     */
+    public Double getTopicMean() {
+        return topicMean;
+    }
+
+    /**
+     * @return стандартное отклонение числа сообщений по топикам
+     */
+    public Double getTopicStddev() {
+        return topicStddev;
+    }
+
+    /**
+     * @return коэффициент асимметрии числа сообщений по топикам
+     */
+    public Double getTopicSkew() {
+        return topicSkew;
+    }
+
+    /**
+     * @return крупнейшие топики по убыванию числа сообщений
+     */
+    public List<TopicVolume> getLargestTopics() {
+        return largestTopics;
+    }
+
+    /**
+     * @return распределение топиков по перекосу партиций: отношение максимума к среднему
+     */
+    public Map<String, Long> getPartitionSkew() {
+        return partitionSkew;
+    }
+
+    /**
+     * Объём последнего запуска топика.
+     */
+    public static class TopicVolume {
+
+        /**
+         * идентификатор
+         */
+        private final String id;
+
+        /**
+         * число сообщений
+         */
+        private final long messages;
+
+        /**
+         * число партиций
+         */
+        private final int partitions;
+
+        /**
+         * @param id идентификатор
+         * @param messages число сообщений
+         * @param partitions число партиций
+         */
+        public TopicVolume(String id, long messages, int partitions) {
+            this.id = id;
+            this.messages = messages;
+            this.partitions = partitions;
+        }
+
+        /**
+         * @return идентификатор
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return число сообщений
+         */
+        public long getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return число партиций
+         */
+        public int getPartitions() {
+            return partitions;
+        }
+    }
+}
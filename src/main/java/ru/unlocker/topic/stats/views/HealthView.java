@@ -0,0 +1,100 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Состояние готовности приложения.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HealthView {
+
+    /**
+     * Состояние: приложение готово к приёму запросов.
+     */
+    public static final String UP = "UP";
+
+    /**
+     * Состояние: выполняется прогрев.
+     */
+    public static final String WARMING = "WARMING";
+
+    /**
+     * состояние
+     */
+    private final String status;
+
+    /**
+     * число прогретых топиков
+     */
+    private final int warmedTopics;
+
+    /**
+     * число топиков, прочитать которые не удалось
+     */
+    private final int failedTopics;
+
+    /**
+     * длительность прогрева в миллисекундах
+     */
+    private final long warmUpMillis;
+
+    /**
+     * признак прогрева всех топиков в пределах бюджета
+     */
+    private final Boolean warmUpComplete;
+
+    /**
+     * Состояние готовности приложения
+     *
+     * @param status состояние
+     * @param warmedTopics число прогретых топиков
+     * @param failedTopics число топиков, прочитать которые не удалось
+     * @param warmUpMillis длительность прогрева в миллисекундах
+     * @param warmUpComplete признак прогрева всех топиков или {@code null}, пока прогрев идёт
+     */
+    public HealthView(String status, int warmedTopics, int failedTopics, long warmUpMillis,
+            Boolean warmUpComplete) {
+        this.status = status;
+        this.warmedTopics = warmedTopics;
+        this.failedTopics = failedTopics;
+        this.warmUpMillis = warmUpMillis;
+        this.warmUpComplete = warmUpComplete;
+    }
+
+    /**
+     * @return состояние
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return число прогретых топиков
+     */
+    public int getWarmedTopics() {
+        return warmedTopics;
+    }
+
+    /**
+     * @return число топиков, прочитать которые не удалось
+     */
+    public int getFailedTopics() {
+        return failedTopics;
+    }
+
+    /**
+     * @return длительность прогрева в миллисекундах
+     */
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    /**
+     * @return признак прогрева всех топиков в пределах бюджета
+     */
+    public Boolean getWarmUpComplete() {
+        return warmUpComplete;
+    }
+}
@@ -0,0 +1,279 @@
+package ru.unlocker.topic.stats.views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import org.joda.time.DateTime;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+/**
+ * Конвертер в компактный двоичный формат для {@link TopicParts}, {@link TopicStats} и перечней топиков.
+ * <p>
+ * Целые числа записываются как varint (7 бит на байт, младшие группы первыми), знаковые - после
+ * zigzag-преобразования; строки - длина varint и байты UTF-8; дробные числа - 8 байт IEEE 754 в порядке
+ * big-endian; время - миллисекунды UTC знаковым varint. Первый байт тела - вид записи:
+ * <ul>
+ * <li>{@value #PARTS_TAG} - партиции: идентификатор, время, число партиций, номера партиций разностями с
+ * предыдущим номером (знаковый varint), число сообщений по партициям (знаковый varint);</li>
+ * <li>{@value #STATS_TAG} - статистика: идентификатор, битовая маска присутствующих полей (время, min, max,
+ * avg, sum, count, mean, median, p90, p99, stddev, skew, top) и сами поля в том же порядке; top - число
+ * элементов и пары (номер партиции, число сообщений);</li>
+ * <li>{@value #LIST_TAG} - перечень топиков: строки без числа элементов, чтобы перечень можно было
+ * записывать по мере обхода, и признак конца - пустая строка (длина 0; идентификаторы топиков непустые).
+ * Тело без признака конца - оборванный ответ, а не короткий перечень.</li>
+ * </ul>
+ * Конвертер только записывает ответы. Через механизм конвертеров записываются только партиции и статистика:
+ * по классу ответа нельзя отличить перечень топиков от других списков, поэтому перечень топиков записывает
+ * контроллер или {@link #encode(Object)}.
+ *
+ * @author unlocker
+ */
+public class PackedHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    /**
+     * Тип содержимого двоичного формата.
+     */
+    public static final MediaType PACKED_MEDIA_TYPE = new MediaType("application", "vnd.topic-stats.packed");
+
+    /**
+     * Вид записи: партиции.
+     */
+    public static final int PARTS_TAG = 1;
+
+    /**
+     * Вид записи: статистика.
+     */
+    public static final int STATS_TAG = 2;
+
+    /**
+     * Вид записи: перечень топиков.
+     */
+    public static final int LIST_TAG = 3;
+
+    /**
+     * Конвертер в компактный двоичный формат.
+     */
+    public PackedHttpMessageConverter() {
+        super(PACKED_MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return TopicParts.class.isAssignableFrom(clazz)
+                || TopicStats.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<? extends Object> clazz, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Двоичный формат поддерживается только для ответов.");
+    }
+
+    @Override
+    protected void writeInternal(Object object, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        outputMessage.getBody().write(encode(object));
+    }
+
+    /**
+     * Записывает объект в двоичном формате.
+     *
+     * @param object партиции, статистика или перечень идентификаторов топиков
+     * @return тело ответа
+     * @throws HttpMessageNotWritableException объект не поддерживается форматом
+     */
+    public static byte[] encode(Object object) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PackedOutput out = new PackedOutput(buffer);
+        try {
+            if (object instanceof TopicParts) {
+                writeParts(out, (TopicParts) object);
+            } else if (object instanceof TopicStats) {
+                writeStats(out, (TopicStats) object);
+            } else if (object instanceof Collection) {
+                out.writeTag(LIST_TAG);
+                for (Object item : (Collection<?>) object) {
+                    if (!(item instanceof String) || ((String) item).isEmpty()) {
+                        throw new HttpMessageNotWritableException(
+                                "Двоичный формат поддерживает только перечни непустых идентификаторов топиков.");
+                    }
+                    out.writeString((String) item);
+                }
+                out.writeListEnd();
+            } else {
+                throw new HttpMessageNotWritableException(String.format(
+                        "Двоичный формат не поддерживает %s.", object.getClass().getName()));
+            }
+        } catch (IOException ex) {
+            throw new HttpMessageNotWritableException("Ошибка записи двоичного формата.", ex);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param out поток двоичного формата
+     * @param value партиции
+     * @throws IOException ошибка записи
+     */
+    private static void writeParts(PackedOutput out, TopicParts value) throws IOException {
+        final PartitionCounts parts = value.getParts();
+        final int count = parts.size();
+        out.writeTag(PARTS_TAG);
+        out.writeString(value.getId());
+        out.writeTimestamp(value.getTimestamp());
+        out.writeVarint(count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            final int partition = parts.partitionAt(i);
+            out.writeSigned((long) partition - previous);
+            previous = partition;
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeSigned(parts.countAt(i));
+        }
+    }
+
+    /**
+     * @param out поток двоичного формата
+     * @param value статистика
+     * @throws IOException ошибка записи
+     */
+    private static void writeStats(PackedOutput out, TopicStats value) throws IOException {
+        final PartitionStats details = value.getDetails();
+        final Object[] fields = details == null
+                ? new Object[]{value.getTimestamp(), value.getMin(), value.getMax(), value.getAvg()}
+                : new Object[]{value.getTimestamp(), value.getMin(), value.getMax(), value.getAvg(),
+                    details.getSum(), details.getCount(), details.getMean(), details.getMedian(),
+                    details.getP90(), details.getP99(), details.getStddev(), details.getSkew(), details.getTop()};
+        long mask = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                mask |= 1L << i;
+            }
+        }
+        out.writeTag(STATS_TAG);
+        out.writeString(value.getId());
+        out.writeVarint(mask);
+        for (Object field : fields) {
+            if (field instanceof DateTime) {
+                out.writeTimestamp((DateTime) field);
+            } else if (field instanceof Double) {
+                out.writeDouble((Double) field);
+            } else if (field instanceof Number) {
+                out.writeSigned(((Number) field).longValue());
+            } else if (field instanceof Collection) {
+                final Collection<?> top = (Collection<?>) field;
+                out.writeVarint(top.size());
+                for (Object item : top) {
+                    final PartitionStats.PartitionLoad load = (PartitionStats.PartitionLoad) item;
+                    out.writeSigned(load.getPartition());
+                    out.writeSigned(load.getCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * Поток записи в двоичном формате.
+     */
+    public static class PackedOutput {
+
+        /**
+         * поток тела ответа
+         */
+        private final OutputStream out;
+
+        /**
+         * буфер для varint и дробных чисел
+         */
+        private final byte[] scratch = new byte[10];
+
+        /**
+         * @param out поток тела ответа
+         */
+        public PackedOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * @param tag вид записи
+         * @throws IOException ошибка записи
+         */
+        public void writeTag(int tag) throws IOException {
+            out.write(tag);
+        }
+
+        /**
+         * @param value неотрицательное число
+         * @throws IOException ошибка записи
+         */
+        public void writeVarint(long value) throws IOException {
+            int length = 0;
+            while ((value & ~0x7FL) != 0) {
+                scratch[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            scratch[length++] = (byte) value;
+            out.write(scratch, 0, length);
+        }
+
+        /**
+         * @param value знаковое число
+         * @throws IOException ошибка записи
+         */
+        public void writeSigned(long value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * @param value дробное число
+         * @throws IOException ошибка записи
+         */
+        public void writeDouble(double value) throws IOException {
+            final long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                scratch[i] = (byte) (bits >>> (56 - 8 * i));
+            }
+            out.write(scratch, 0, 8);
+        }
+
+        /**
+         * @param value строка
+         * @throws IOException ошибка записи
+         */
+        public void writeString(String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Записывает признак конца перечня.
+         *
+         * @throws IOException ошибка записи
+         */
+        public void writeListEnd() throws IOException {
+            writeVarint(0);
+        }
+
+        /**
+         * @param value время
+         * @throws IOException ошибка записи
+         */
+        public void writeTimestamp(DateTime value) throws IOException {
+            writeSigned(value.getMillis());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Партиции и число сообщений в них: упорядоченные параллельные массивы номеров партиций и счётчиков.
+ * <p>
+ * В JSON представляется объектом вида {@code {"<партиция>": <число сообщений>, ...}}.
+ *
+ * @author unlocker
+ */
+@JsonSerialize(using = PartitionCounts.Serializer.class)
+public class PartitionCounts {
+
+    /**
+     * номера партиций по возрастанию
+     */
+    private final int[] partitions;
+
+    /**
+     * число сообщений по партициям
+     */
+    private final long[] counts;
+
+    /**
+     * Партиции и число сообщений в них.
+     *
+     * @param partitions номера партиций по возрастанию, без повторов
+     * @param counts число сообщений по партициям
+     */
+    public PartitionCounts(int[] partitions, long[] counts) {
+        if (partitions.length != counts.length) {
+            throw new IllegalArgumentException("Размеры массивов партиций и счётчиков не совпадают.");
+        }
+        this.partitions = partitions;
+        this.counts = counts;
+    }
+
+    /**
+     * Создаёт набор партиций из отображения.
+     *
+     * @param parts партиции и число сообщений
+     * @return набор партиций
+     */
+    public static PartitionCounts fromMap(Map<Integer, Long> parts) {
+        int[] partitions = new int[parts.size()];
+        int i = 0;
+        for (Integer partition : parts.keySet()) {
+            partitions[i++] = partition;
+        }
+        Arrays.sort(partitions);
+        long[] counts = new long[partitions.length];
+        for (i = 0; i < partitions.length; i++) {
+            counts[i] = parts.get(partitions[i]);
+        }
+        return new PartitionCounts(partitions, counts);
+    }
+
+    /**
+     * @return число партиций
+     */
+    public int size() {
+        return partitions.length;
+    }
+
+    /**
+     * @return признак отсутствия партиций
+     */
+    public boolean isEmpty() {
+        return partitions.length == 0;
+    }
+
+    /**
+     * @param index порядковый номер
+     * @return номер партиции
+     */
+    public int partitionAt(int index) {
+        return partitions[index];
+    }
+
+    /**
+     * @param index порядковый номер
+     * @return число сообщений
+     */
+    public long countAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Возвращает число сообщений в партиции.
+     *
+     * @param partition номер партиции
+     * @return число сообщений или {@code null}, если партиции нет
+     */
+    public Long get(int partition) {
+        final int index = Arrays.binarySearch(partitions, partition);
+        return index < 0 ? null : counts[index];
+    }
+
+    /**
+     * Рассчитывает изменение числа сообщений по партициям относительно предыдущего набора. Отсутствующая
+     * в одном из наборов партиция считается пустой.
+     *
+     * @param previous предыдущий набор партиций
+     * @return изменения по объединению партиций обоих наборов
+     */
+    public PartitionCounts minus(PartitionCounts previous) {
+        final int[] otherPartitions = previous.partitions;
+        final long[] otherCounts = previous.counts;
+        int[] resultPartitions = new int[partitions.length + otherPartitions.length];
+        long[] resultCounts = new long[resultPartitions.length];
+        int i = 0, j = 0, n = 0;
+        while (i < partitions.length || j < otherPartitions.length) {
+            if (j == otherPartitions.length || (i < partitions.length && partitions[i] < otherPartitions[j])) {
+                resultPartitions[n] = partitions[i];
+                resultCounts[n++] = counts[i++];
+            } else if (i == partitions.length || otherPartitions[j] < partitions[i]) {
+                resultPartitions[n] = otherPartitions[j];
+                resultCounts[n++] = -otherCounts[j++];
+            } else {
+                resultPartitions[n] = partitions[i];
+                resultCounts[n++] = counts[i++] - otherCounts[j++];
+            }
+        }
+        return new PartitionCounts(Arrays.copyOf(resultPartitions, n), Arrays.copyOf(resultCounts, n));
+    }
+
+    /**
+     * Сериализатор в JSON-объект без упаковки значений.
+     */
+    public static class Serializer extends JsonSerializer<PartitionCounts> {
+
+        @Override
+        public void serialize(PartitionCounts value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            for (int i = 0; i < value.partitions.length; i++) {
+                gen.writeFieldName(Integer.toString(value.partitions[i]));
+                gen.writeNumber(value.counts[i]);
+            }
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Расширенная статистика распределения сообщений по партициям запуска.
+ * <p>
+ * Все показатели считаются за один проход по партициям: сумма, минимум и максимум, центральные моменты
+ * (по Уэлфорду), копия значений для квантилей и ограниченная куча для самых нагруженных партиций. Квантили
+ * находятся последовательным выбором (quickselect) по копии значений без полной сортировки. Поля,
+ * которые не запрошены, остаются пустыми и в JSON не попадают.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PartitionStats {
+
+    /**
+     * минимальное количество сообщений
+     */
+    private Long min;
+
+    /**
+     * максимальное количество сообщений
+     */
+    private Long max;
+
+    /**
+     * среднее количество сообщений
+     */
+    private Long avg;
+
+    /**
+     * суммарное число сообщений
+     */
+    private Long sum;
+
+    /**
+     * число партиций
+     */
+    private Integer count;
+
+    /**
+     * среднее количество сообщений без округления
+     */
+    private Double mean;
+
+    /**
+     * медиана количества сообщений
+     */
+    private Double median;
+
+    /**
+     * 90-й процентиль количества сообщений
+     */
+    private Long p90;
+
+    /**
+     * 99-й процентиль количества сообщений
+     */
+    private Long p99;
+
+    /**
+     * стандартное отклонение количества сообщений
+     */
+    private Double stddev;
+
+    /**
+     * коэффициент асимметрии распределения
+     */
+    private Double skew;
+
+    /**
+     * самые нагруженные партиции по убыванию числа сообщений
+     */
+    private List<PartitionLoad> top;
+
+    /**
+     * Рассчитывает запрошенные показатели за один проход по партициям.
+     *
+     * @param parts партиции и число сообщений, не пустые
+     * @param metrics запрошенные показатели
+     * @param topSize число самых нагруженных партиций
+     * @return расширенная статистика
+     */
+    public static PartitionStats of(PartitionCounts parts, Set<TopicStats.Metric> metrics, int topSize) {
+        final int n = parts.size();
+        final boolean quantiles = metrics.contains(TopicStats.Metric.MEDIAN)
+                || metrics.contains(TopicStats.Metric.P90) || metrics.contains(TopicStats.Metric.P99);
+        final long[] values = quantiles ? new long[n] : null;
+        final int heapCapacity = metrics.contains(TopicStats.Metric.TOP) ? Math.min(topSize, n) : 0;
+        final int[] heap = new int[heapCapacity];
+        int heapSize = 0;
+        long min = parts.countAt(0);
+        long max = min;
+        long sum = 0;
+        double mean = 0;
+        double m2 = 0;
+        double m3 = 0;
+        for (int i = 0; i < n; i++) {
+            final long value = parts.countAt(i);
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            sum += value;
+            final double delta = value - mean;
+            final double deltaN = delta / (i + 1);
+            final double term = delta * deltaN * i;
+            mean += deltaN;
+            m3 += term * deltaN * (i - 1) - 3 * deltaN * m2;
+            m2 += term;
+            if (values != null) {
+                values[i] = value;
+            }
+            if (heapCapacity > 0) {
+                if (heapSize < heapCapacity) {
+                    heap[heapSize] = i;
+                    siftUp(parts, heap, heapSize++);
+                } else if (value > parts.countAt(heap[0])) {
+                    heap[0] = i;
+                    siftDown(parts, heap, heapSize);
+                }
+            }
+        }
+        PartitionStats stats = new PartitionStats();
+        stats.min = min;
+        stats.max = max;
+        stats.avg = sum / n;
+        if (metrics.contains(TopicStats.Metric.SUM)) {
+            stats.sum = sum;
+        }
+        if (metrics.contains(TopicStats.Metric.COUNT)) {
+            stats.count = n;
+        }
+        if (metrics.contains(TopicStats.Metric.MEAN)) {
+            stats.mean = (double) sum / n;
+        }
+        if (metrics.contains(TopicStats.Metric.STDDEV)) {
+            stats.stddev = Math.sqrt(m2 / n);
+        }
+        if (metrics.contains(TopicStats.Metric.SKEW)) {
+            stats.skew = m2 == 0 ? 0d : Math.sqrt(n) * m3 / Math.pow(m2, 1.5);
+        }
+        if (quantiles) {
+            final int lowerMedian = (n - 1) / 2;
+            select(values, 0, n - 1, lowerMedian);
+            int from = lowerMedian;
+            if (metrics.contains(TopicStats.Metric.MEDIAN)) {
+                stats.median = n % 2 == 1
+                        ? (double) values[lowerMedian]
+                        : (values[lowerMedian] + (double) minOf(values, lowerMedian + 1, n - 1)) / 2;
+            }
+            if (metrics.contains(TopicStats.Metric.P90)) {
+                from = rankIndex(n, 90);
+                select(values, lowerMedian, n - 1, from);
+                stats.p90 = values[from];
+            }
+            if (metrics.contains(TopicStats.Metric.P99)) {
+                final int index = rankIndex(n, 99);
+                select(values, from, n - 1, index);
+                stats.p99 = values[index];
+            }
+        }
+        if (heapCapacity > 0) {
+            PartitionLoad[] sorted = new PartitionLoad[heapSize];
+            while (heapSize > 0) {
+                final int index = heap[0];
+                sorted[--heapSize] = new PartitionLoad(parts.partitionAt(index), parts.countAt(index));
+                heap[0] = heap[heapSize];
+                siftDown(parts, heap, heapSize);
+            }
+            stats.top = Arrays.asList(sorted);
+        }
+        return stats;
+    }
+
+    /**
+     * @return минимальное количество сообщений
+     */
+    @JsonIgnore
+    public Long getMin() {
+        return min;
+    }
+
+    /**
+     * @return максимальное количество сообщений
+     */
+    @JsonIgnore
+    public Long getMax() {
+        return max;
+    }
+
+    /**
+     * @return среднее количество сообщений
+     */
+    @JsonIgnore
+    public Long getAvg() {
+        return avg;
+    }
+
+    /**
+     * @return суммарное число сообщений
+     */
+    public Long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return число партиций
+     */
+    public Integer getCount() {
+        return count;
+    }
+
+    /**
+     * @return среднее количество сообщений без округления
+     */
+    public Double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return медиана количества сообщений
+     */
+    public Double getMedian() {
+        return median;
+    }
+
+    /**
+     * @return 90-й процентиль количества сообщений
+     */
+    public Long getP90() {
+        return p90;
+    }
+
+    /**
+     * @return 99-й процентиль количества сообщений
+     */
+    public Long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return стандартное отклонение количества сообщений
+     */
+    public Double getStddev() {
+        return stddev;
+    }
+
+    /**
+     * @return коэффициент асимметрии распределения
+     */
+    public Double getSkew() {
+        return skew;
+    }
+
+    /**
+     * @return самые нагруженные партиции по убыванию числа сообщений
+     */
+    public List<PartitionLoad> getTop() {
+        return top;
+    }
+
+    /**
+     * Порядковый номер значения процентиля по методу ближайшего ранга.
+     *
+     * @param n число значений
+     * @param percentile процентиль
+     * @return порядковый номер в упорядоченных значениях
+     */
+    private static int rankIndex(int n, int percentile) {
+        return Math.max(0, (int) ((n * (long) percentile + 99) / 100) - 1);
+    }
+
+    /**
+     * Переставляет значения отрезка так, чтобы на позиции {@code k} оказалось k-е по порядку значение,
+     * слева - не большие, справа - не меньшие (quickselect с опорным элементом - медианой трёх).
+     *
+     * @param values значения
+     * @param from начало отрезка включительно
+     * @param to конец отрезка включительно
+     * @param k искомая позиция
+     */
+    private static void select(long[] values, int from, int to, int k) {
+        while (from < to) {
+            final int middle = (from + to) >>> 1;
+            if (values[middle] < values[from]) {
+                swap(values, middle, from);
+            }
+            if (values[to] < values[from]) {
+                swap(values, to, from);
+            }
+            if (values[to] < values[middle]) {
+                swap(values, to, middle);
+            }
+            final long pivot = values[middle];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+            if (k <= j) {
+                to = j;
+            } else if (k >= i) {
+                from = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param values значения
+     * @param from начало отрезка включительно
+     * @param to конец отрезка включительно
+     * @return минимальное значение отрезка
+     */
+    private static long minOf(long[] values, int from, int to) {
+        long min = values[from];
+        for (int i = from + 1; i <= to; i++) {
+            if (values[i] < min) {
+                min = values[i];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @param values значения
+     * @param i первая позиция
+     * @param j вторая позиция
+     */
+    private static void swap(long[] values, int i, int j) {
+        final long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Поднимает элемент кучи с минимумом в корне.
+     *
+     * @param parts партиции
+     * @param heap порядковые номера партиций
+     * @param index позиция элемента
+     */
+    private static void siftUp(PartitionCounts parts, int[] heap, int index) {
+        final int item = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!less(parts, item, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = item;
+    }
+
+    /**
+     * Опускает корень кучи с минимумом в корне.
+     *
+     * @param parts партиции
+     * @param heap порядковые номера партиций
+     * @param size размер кучи
+     */
+    private static void siftDown(PartitionCounts parts, int[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        final int item = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(parts, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(parts, heap[child], item)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
+
+    /**
+     * Порядок кучи: по числу сообщений, при равенстве менее нагруженной считается партиция с большим
+     * номером, чтобы в вершине оставались партиции с меньшими номерами.
+     *
+     * @param parts партиции
+     * @param a порядковый номер первой партиции
+     * @param b порядковый номер второй партиции
+     * @return признак того, что первая партиция нагружена меньше
+     */
+    private static boolean less(PartitionCounts parts, int a, int b) {
+        final long countA = parts.countAt(a);
+        final long countB = parts.countAt(b);
+        return countA < countB || (countA == countB && a > b);
+    }
+
+    /**
+     * Партиция и число сообщений в ней.
+     */
+    public static class PartitionLoad {
+
+        /**
+         * номер партиции
+         */
+        private final int partition;
+
+        /**
+         * число сообщений
+         */
+        private final long count;
+
+        /**
+         * @param partition номер партиции
+         * @param count число сообщений
+         */
+        public PartitionLoad(int partition, long count) {
+            this.partition = partition;
+            this.count = count;
+        }
+
+        /**
+         * @return номер партиции
+         */
+        public int getPartition() {
+            return partition;
+        }
+
+        /**
+         * @return число сообщений
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+}
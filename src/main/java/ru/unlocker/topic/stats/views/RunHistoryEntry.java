@@ -0,0 +1,90 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import org.joda.time.DateTime;
+
+/**
+ * Запись истории запусков топика: статистика запуска и изменение числа сообщений по партициям
+ * относительно предыдущего запуска.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RunHistoryEntry {
+
+    /**
+     * дата запуска
+     */
+    private final DateTime timestamp;
+
+    /**
+     * статистика запуска
+     */
+    private final RunStats stats;
+
+    /**
+     * изменение числа сообщений по партициям
+     */
+    private final PartitionCounts deltas;
+
+    /**
+     * сообщение об ошибке чтения запуска
+     */
+    private final String errorMessage;
+
+    /**
+     * Запись истории запусков топика
+     *
+     * @param stats статистика запуска
+     * @param deltas изменение числа сообщений относительно предыдущего запуска или {@code null} для первого
+     */
+    public RunHistoryEntry(RunStats stats, PartitionCounts deltas) {
+        this.timestamp = null;
+        this.stats = stats;
+        this.deltas = deltas;
+        this.errorMessage = null;
+    }
+
+    /**
+     * Запись истории для запуска, данные которого прочитать не удалось
+     *
+     * @param timestamp дата запуска
+     * @param errorMessage сообщение об ошибке
+     */
+    public RunHistoryEntry(DateTime timestamp, String errorMessage) {
+        this.timestamp = timestamp;
+        this.stats = null;
+        this.deltas = null;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * @return дата запуска, если статистика отсутствует
+     */
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return статистика запуска
+     */
+    @JsonUnwrapped
+    public RunStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return изменение числа сообщений по партициям
+     */
+    public PartitionCounts getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * @return сообщение об ошибке чтения запуска
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,132 @@
+package ru.unlocker.topic.stats.views;
+
+import org.joda.time.DateTime;
+
+/**
+ * Статистика отдельного запуска топика.
+ *
+ * @author unlocker
+ */
+public class RunStats {
+
+    /**
+     * дата запуска
+     */
+    private final DateTime timestamp;
+
+    /**
+     * число партиций
+     */
+    private final int count;
+
+    /**
+     * суммарное число сообщений
+     */
+    private final long sum;
+
+    /**
+     * минимальное количество сообщений
+     */
+    private final Long min;
+
+    /**
+     * максимальное количество сообщений
+     */
+    private final Long max;
+
+    /**
+     * среднее количество сообщений
+     */
+    private final Long avg;
+
+    /**
+     * Статистика отдельного запуска топика
+     *
+     * @param timestamp дата запуска
+     * @param count число партиций
+     * @param sum суммарное число сообщений
+     * @param min минимальное количество сообщений или {@code null}, если партиций нет
+     * @param max максимальное количество сообщений или {@code null}, если партиций нет
+     * @param avg среднее количество сообщений или {@code null}, если партиций нет
+     */
+    public RunStats(DateTime timestamp, int count, long sum, Long min, Long max, Long avg) {
+        this.timestamp = timestamp;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.avg = avg;
+    }
+
+    /**
+     * Рассчитывает статистику запуска за один проход по партициям.
+     *
+     * @param timestamp дата запуска
+     * @param parts партиции и число сообщений
+     * @return статистика запуска
+     */
+    public static RunStats of(DateTime timestamp, PartitionCounts parts) {
+        final int count = parts.size();
+        if (count == 0) {
+            return new RunStats(timestamp, 0, 0, null, null, null);
+        }
+        long min, max, sum;
+        min = parts.countAt(0);
+        max = min;
+        sum = min;
+        for (int i = 1; i < count; i++) {
+            final long value = parts.countAt(i);
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+            sum += value;
+        }
+        return new RunStats(timestamp, count, sum, min, max, sum / count);
+    }
+
+    /**
+     * @return дата запуска
+     */
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return число партиций
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return суммарное число сообщений
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return минимальное количество сообщений
+     */
+    public Long getMin() {
+        return min;
+    }
+
+    /**
+     * @return максимальное количество сообщений
+     */
+    public Long getMax() {
+        return max;
+    }
+
+    /**
+     * @return среднее количество сообщений
+     */
+    public Long getAvg() {
+        return avg;
+    }
+
+}
@@ -0,0 +1,70 @@
+package ru.unlocker.topic.stats.views;
+
+import org.joda.time.DateTime;
+
+/**
+ * Версия последнего запуска топика: временная метка запуска, размер и время изменения файла CSV.
+ * Используется как валидатор условных HTTP-запросов.
+ *
+ * @author unlocker
+ */
+public class RunVersion {
+
+    /**
+     * дата последнего запуска
+     */
+    private final DateTime timestamp;
+
+    /**
+     * размер файла CSV или -1, если файла нет
+     */
+    private final long size;
+
+    /**
+     * время изменения файла CSV
+     */
+    private final long lastModified;
+
+    /**
+     * Версия последнего запуска топика
+     *
+     * @param timestamp дата последнего запуска
+     * @param size размер файла CSV или -1, если файла нет
+     * @param lastModified время изменения файла CSV
+     */
+    public RunVersion(DateTime timestamp, long size, long lastModified) {
+        this.timestamp = timestamp;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return дата последнего запуска
+     */
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return размер файла CSV или -1, если файла нет
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return время изменения файла CSV (мс)
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return строгий ETag версии (в кавычках)
+     */
+    public String getETag() {
+        return '"' + Long.toHexString(timestamp.getMillis())
+                + '-' + Long.toHexString(size)
+                + '-' + Long.toHexString(lastModified) + '"';
+    }
+}
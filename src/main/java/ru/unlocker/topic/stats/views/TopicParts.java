@@ -25,7 +25,7 @@ public class TopicParts {
     /**
      * партиции и число сообщений
      */
-    private final Map<Integer, Long> parts;
+    private final PartitionCounts parts;
 
     /**
      *
@@ -33,12 +33,22 @@ public class TopicParts {
      * @param timestamp дата последнего запуска
      * @param parts партиции и число сообщений
      */
-    public TopicParts(String id, DateTime timestamp, Map<Integer, Long> parts) {
+    public TopicParts(String id, DateTime timestamp, PartitionCounts parts) {
         this.id = id;
         this.timestamp = timestamp;
         this.parts = parts;
     }
 
+    /**
+     *
+     * @param id идентификатор
+     * @param timestamp дата последнего запуска
+     * @param parts партиции и число сообщений
+     */
+    public TopicParts(String id, DateTime timestamp, Map<Integer, Long> parts) {
+        this(id, timestamp, PartitionCounts.fromMap(parts));
+    }
+
     /**
      * @return идентификатор
      */
@@ -56,7 +66,7 @@ public class TopicParts {
     /**
      * @return партиции и число сообщений
      */
-    public Map<Integer, Long> getParts() {
+    public PartitionCounts getParts() {
         return parts;
     }
     
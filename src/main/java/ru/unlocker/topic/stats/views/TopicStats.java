@@ -1,5 +1,10 @@
 package ru.unlocker.topic.stats.views;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
 import org.joda.time.DateTime;
 
 /**
@@ -7,6 +12,7 @@ import org.joda.time.DateTime;
  *
  * @author unlocker
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class TopicStats {
 
     /**
@@ -34,6 +40,11 @@ public class TopicStats {
      */
     private final Long avg;
 
+    /**
+     * расширенная статистика по партициям
+     */
+    private final PartitionStats details;
+
     /**
      * Статистика по топику
      *
@@ -44,11 +55,26 @@ public class TopicStats {
      * @param avg среднее количество сообщений
      */
     public TopicStats(String id, DateTime timestamp, Long min, Long max, Long avg) {
+        this(id, timestamp, min, max, avg, null);
+    }
+
+    /**
+     * Статистика по топику с расширенными показателями
+     *
+     * @param id идентификатор
+     * @param timestamp дата последнего запуска
+     * @param min минимальное количество сообщений
+     * @param max максимальное количество сообщений
+     * @param avg среднее количество сообщений
+     * @param details расширенная статистика по партициям или {@code null}, если не запрошена
+     */
+    public TopicStats(String id, DateTime timestamp, Long min, Long max, Long avg, PartitionStats details) {
         this.id = id;
         this.timestamp = timestamp;
         this.min = min;
         this.max = max;
         this.avg = avg;
+        this.details = details;
     }
 
     /**
@@ -86,4 +112,73 @@ public class TopicStats {
         return avg;
     }
 
+    /**
+     * @return расширенная статистика по партициям
+     */
+    @JsonUnwrapped
+    public PartitionStats getDetails() {
+        return details;
+    }
+
+    /**
+     * Расширенные показатели статистики.
+     */
+    public static enum Metric {
+
+        /**
+         * суммарное число сообщений
+         */
+        SUM,
+        /**
+         * число партиций
+         */
+        COUNT,
+        /**
+         * среднее без округления
+         */
+        MEAN,
+        /**
+         * медиана
+         */
+        MEDIAN,
+        /**
+         * 90-й процентиль
+         */
+        P90,
+        /**
+         * 99-й процентиль
+         */
+        P99,
+        /**
+         * стандартное отклонение
+         */
+        STDDEV,
+        /**
+         * коэффициент асимметрии
+         */
+        SKEW,
+        /**
+         * самые нагруженные партиции
+         */
+        TOP;
+
+        /**
+         * Разбирает перечень показателей.
+         *
+         * @param names наименования показателей без учёта регистра
+         * @return показатели
+         * @throws IllegalArgumentException неизвестный показатель
+         */
+        public static Set<Metric> parse(String... names) {
+            Set<Metric> metrics = EnumSet.noneOf(Metric.class);
+            for (String name : names) {
+                try {
+                    metrics.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException(String.format("Неизвестный показатель '%s'.", name), ex);
+                }
+            }
+            return metrics;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import org.joda.time.DateTime;
+
+/**
+ * Сводка по топику: выбранные разделы, полученные за один разбор последнего запуска.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TopicSummary {
+
+    /**
+     * идентификатор
+     */
+    private final String id;
+
+    /**
+     * дата последнего запуска
+     */
+    private final DateTime timestamp;
+
+    /**
+     * статистика последнего запуска
+     */
+    private final TopicStats stats;
+
+    /**
+     * партиции и число сообщений
+     */
+    private final PartitionCounts parts;
+
+    /**
+     * Сводка по топику
+     *
+     * @param id идентификатор
+     * @param timestamp дата последнего запуска или {@code null}, если не запрошена
+     * @param stats статистика или {@code null}, если не запрошена
+     * @param parts партиции или {@code null}, если не запрошены
+     */
+    public TopicSummary(String id, DateTime timestamp, TopicStats stats, PartitionCounts parts) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.stats = stats;
+        this.parts = parts;
+    }
+
+    /**
+     * @return идентификатор
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return дата последнего запуска
+     */
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return статистика последнего запуска
+     */
+    public TopicStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return партиции и число сообщений
+     */
+    public PartitionCounts getParts() {
+        return parts;
+    }
+
+    /**
+     * Разделы сводки.
+     */
+    public static enum Section {
+
+        /**
+         * дата последнего запуска
+         */
+        LAST,
+        /**
+         * статистика
+         */
+        STATS,
+        /**
+         * партиции
+         */
+        PARTS;
+
+        /**
+         * Разбирает перечень разделов.
+         *
+         * @param names наименования разделов без учёта регистра
+         * @return разделы
+         * @throws IllegalArgumentException неизвестный раздел
+         */
+        public static Set<Section> parse(String... names) {
+            Set<Section> sections = EnumSet.noneOf(Section.class);
+            for (String name : names) {
+                try {
+                    sections.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException(String.format("Неизвестный раздел сводки '%s'.", name), ex);
+                }
+            }
+            return sections;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.unlocker.topic.stats.views;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+import org.joda.time.DateTime;
+
+/**
+ * Скользящие показатели топика по последним запускам.
+ *
+ * @author unlocker
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TopicTrend {
+
+    /**
+     * Число миллисекунд в часе.
+     */
+    private static final double MILLIS_PER_HOUR = 3600000d;
+
+    /**
+     * идентификатор
+     */
+    private final String id;
+
+    /**
+     * число запусков в окне
+     */
+    private final int runs;
+
+    /**
+     * дата первого запуска окна
+     */
+    private final DateTime from;
+
+    /**
+     * дата последнего запуска окна
+     */
+    private final DateTime to;
+
+    /**
+     * среднее число сообщений на партицию по всем запускам окна
+     */
+    private final Double avgPerPartition;
+
+    /**
+     * среднее суммарное число сообщений за запуск
+     */
+    private final Double avgSum;
+
+    /**
+     * прирост суммарного числа сообщений за запуск
+     */
+    private final Double growthPerRun;
+
+    /**
+     * прирост суммарного числа сообщений за час
+     */
+    private final Double growthPerHour;
+
+    /**
+     * Скользящие показатели топика
+     *
+     * @param id идентификатор
+     * @param runs число запусков в окне
+     * @param from дата первого запуска окна
+     * @param to дата последнего запуска окна
+     * @param avgPerPartition среднее число сообщений на партицию или {@code null}, если партиций нет
+     * @param avgSum среднее суммарное число сообщений за запуск
+     * @param growthPerRun прирост суммы за запуск или {@code null}, если запусков меньше двух
+     * @param growthPerHour прирост суммы за час или {@code null}, если запуски не разнесены во времени
+     */
+    public TopicTrend(String id, int runs, DateTime from, DateTime to, Double avgPerPartition, Double avgSum,
+            Double growthPerRun, Double growthPerHour) {
+        this.id = id;
+        this.runs = runs;
+        this.from = from;
+        this.to = to;
+        this.avgPerPartition = avgPerPartition;
+        this.avgSum = avgSum;
+        this.growthPerRun = growthPerRun;
+        this.growthPerHour = growthPerHour;
+    }
+
+    /**
+     * Рассчитывает показатели за один проход по статистике запусков.
+     *
+     * @param id идентификатор
+     * @param window статистика запусков окна по возрастанию времени, не пустая
+     * @return скользящие показатели
+     */
+    public static TopicTrend of(String id, List<RunStats> window) {
+        final int runs = window.size();
+        long partitions = 0;
+        double sum = 0;
+        for (RunStats run : window) {
+            partitions += run.getCount();
+            sum += run.getSum();
+        }
+        final RunStats first = window.get(0);
+        final RunStats last = window.get(runs - 1);
+        final double growth = last.getSum() - first.getSum();
+        final long millis = last.getTimestamp().getMillis() - first.getTimestamp().getMillis();
+        return new TopicTrend(id, runs, first.getTimestamp(), last.getTimestamp(),
+                partitions == 0 ? null : sum / partitions,
+                sum / runs,
+                runs < 2 ? null : growth / (runs - 1),
+                millis <= 0 ? null : growth / (millis / MILLIS_PER_HOUR));
+    }
+
+    /**
+     * @return идентификатор
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return число запусков в окне
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return дата первого запуска окна
+     */
+    public DateTime getFrom() {
+        return from;
+    }
+
+    /**
+     * @return дата последнего запуска окна
+     */
+    public DateTime getTo() {
+        return to;
+    }
+
+    /**
+     * @return среднее число сообщений на партицию по всем запускам окна
+     */
+    public Double getAvgPerPartition() {
+        return avgPerPartition;
+    }
+
+    /**
+     * @return среднее суммарное число сообщений за запуск
+     */
+    public Double getAvgSum() {
+        return avgSum;
+    }
+
+    /**
+     * @return прирост суммарного числа сообщений за запуск
+     */
+    public Double getGrowthPerRun() {
+        return growthPerRun;
+    }
+
+    /**
+     * @return прирост суммарного числа сообщений за час
+     */
+    public Double getGrowthPerHour() {
+        return growthPerHour;
+    }
+}
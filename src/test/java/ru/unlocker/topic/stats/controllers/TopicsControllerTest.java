@@ -1,10 +1,23 @@
 package ru.unlocker.topic.stats.controllers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import org.hamcrest.Matchers;
 import static org.hamcrest.Matchers.*;
 import org.joda.time.DateTime;
@@ -14,6 +27,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static org.mockito.Mockito.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -21,19 +36,35 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 import ru.unlocker.topic.stats.TopicDataException;
 import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
 import ru.unlocker.topic.stats.config.TestContext;
 import ru.unlocker.topic.stats.config.WebContext;
+import ru.unlocker.topic.stats.services.SerializedResponseCache;
+import ru.unlocker.topic.stats.services.ServiceBusyException;
+import ru.unlocker.topic.stats.views.PackedHttpMessageConverter;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.PartitionStats;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
 import ru.unlocker.topic.stats.views.TopicParts;
 import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
 
 /**
  * Тесты контроллера топиков
@@ -45,6 +76,11 @@ import ru.unlocker.topic.stats.views.TopicStats;
 @WebAppConfiguration
 public class TopicsControllerTest {
 
+    /**
+     * Время ожидания асинхронного результата: у потоковых запросов нет таймаута контейнера.
+     */
+    private static final long ASYNC_WAIT_MILLIS = 10000;
+
     /**
      * Тип содержимого сервиса
      */
@@ -64,6 +100,12 @@ public class TopicsControllerTest {
     @Autowired
     private TopicDataProvider provider;
 
+    /**
+     * Кэш готовых тел ответов
+     */
+    @Autowired
+    private SerializedResponseCache responseCache;
+
     /**
      * Контекст web-приложения
      */
@@ -76,9 +118,48 @@ public class TopicsControllerTest {
     @Before
     public void setUp() {
         Mockito.reset(provider);
+        responseCache.clear();
         mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
     }
 
+    /**
+     * Выполняет асинхронный запрос и дожидается его завершения.
+     * <p>
+     * Потоковые ответы целиком пишутся в пуле чтения и завершаются пустым результатом. MockMvc создаёт
+     * для повторной обработки новый ответ, поэтому такие ответы проверяются по исходному запросу.
+     *
+     * @param builder запрос
+     * @return результат запроса
+     * @throws Exception
+     */
+    private ResultActions performAsync(RequestBuilder builder) throws Exception {
+        final MvcResult started = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        if (started.getAsyncResult(ASYNC_WAIT_MILLIS) != null) {
+            return mockMvc.perform(asyncDispatch(started));
+        }
+        return new ResultActions() {
+
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(started);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(started);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return started;
+            }
+        };
+    }
+
     /**
      * Проверка возврата списка идентификаторов топиков
      *
@@ -88,11 +169,21 @@ public class TopicsControllerTest {
     public void shouldReturnTopicsIds() throws Exception {
         // GIVEN
         final List<String> topics = Arrays.asList("a", "b", "c");
-        when(provider.getTopics()).thenReturn(topics);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TopicVisitor visitor = (TopicVisitor) invocation.getArguments()[0];
+                for (String topic : topics) {
+                    visitor.visit(topic);
+                }
+                return null;
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
         // WHEN
-        ResultActions result = mockMvc.perform(get("/topics"));
+        ResultActions result = performAsync(get("/topics"));
         // THEN
-        verify(provider, times(1)).getTopics();
+        verify(provider, times(1)).visitTopics(Mockito.any(TopicVisitor.class));
         verifyNoMoreInteractions(provider);
         result.andExpect(status().isOk())
                 .andExpect(content().contentType(APPLICATION_JSON_UTF8))
@@ -109,13 +200,13 @@ public class TopicsControllerTest {
     public void shouldWrapExceptionWhenThrown() throws Exception {
         // GIVEN
         final String topicId = "a";
-        when(provider.getLastTopicTimestamp(topicId))
+        when(provider.getLastRunVersion(topicId))
                 .thenThrow(TopicDataException.noSuchTopicException(topicId));
         // WHEN
-        ResultActions result = mockMvc.perform(get(String.format("/topics/%s/last", topicId)));
+        ResultActions result = performAsync(get(String.format("/topics/%s/last", topicId)));
         // THEN
         ArgumentCaptor<String> topicIdCaptor = ArgumentCaptor.forClass(String.class);
-        verify(provider, times(1)).getLastTopicTimestamp(topicIdCaptor.capture());
+        verify(provider, times(1)).getLastRunVersion(topicIdCaptor.capture());
         verifyNoMoreInteractions(provider);
 
         assertThat(topicIdCaptor.getValue(), is(topicId));
@@ -134,12 +225,12 @@ public class TopicsControllerTest {
         // GIVEN
         final String topicId = "a";
         final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
-        when(provider.getLastTopicTimestamp(topicId)).thenReturn(ts);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
         // WHEN
-        ResultActions result = mockMvc.perform(get(String.format("/topics/%s/last", topicId)));
+        ResultActions result = performAsync(get(String.format("/topics/%s/last", topicId)));
         // THEN
         ArgumentCaptor<String> topicIdCaptor = ArgumentCaptor.forClass(String.class);
-        verify(provider, times(1)).getLastTopicTimestamp(topicIdCaptor.capture());
+        verify(provider, times(1)).getLastRunVersion(topicIdCaptor.capture());
         verifyNoMoreInteractions(provider);
 
         assertThat(topicIdCaptor.getValue(), is(topicId));
@@ -159,15 +250,15 @@ public class TopicsControllerTest {
         final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
         final Integer val = 3;
         TopicStats stats = new TopicStats(topicId, ts, new Long(val), new Long(val), new Long(val));
-        when(provider.getTopicStats(topicId)).thenReturn(stats);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicStats(topicId, ts, EnumSet.noneOf(TopicStats.Metric.class), 10)).thenReturn(stats);
         // WHEN
-        ResultActions result = mockMvc.perform(get(String.format("/topics/%s/stats", topicId)));
+        ResultActions result = performAsync(get(String.format("/topics/%s/stats", topicId)));
         // THEN
-        ArgumentCaptor<String> topicIdCaptor = ArgumentCaptor.forClass(String.class);
-        verify(provider, times(1)).getTopicStats(topicIdCaptor.capture());
+        verify(provider, times(1)).getLastRunVersion(topicId);
+        verify(provider, times(1)).getTopicStats(topicId, ts, EnumSet.noneOf(TopicStats.Metric.class), 10);
         verifyNoMoreInteractions(provider);
 
-        assertThat(topicIdCaptor.getValue(), is(topicId));
         result.andExpect(status().isOk())
                 .andExpect(content().contentType(APPLICATION_JSON_UTF8))
                 .andExpect(jsonPath("$.id", is(topicId)))
@@ -188,17 +279,619 @@ public class TopicsControllerTest {
         final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
         Map<Integer, Long> partsMap = ImmutableMap.of(1, 2L, 3, 4L, 5, 6L);
         TopicParts parts = new TopicParts(topicId, ts, partsMap);
-        when(provider.getTopicParts(topicId)).thenReturn(parts);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicParts(topicId, ts)).thenReturn(parts);
         // WHEN
-        ResultActions result = mockMvc.perform(get(String.format("/topics/%s/parts", topicId)));
+        ResultActions result = performAsync(get(String.format("/topics/%s/parts", topicId)));
         // THEN
-        ArgumentCaptor<String> topicIdCaptor = ArgumentCaptor.forClass(String.class);
-        verify(provider, times(1)).getTopicParts(topicIdCaptor.capture());
+        verify(provider, times(1)).getLastRunVersion(topicId);
+        verify(provider, times(1)).getTopicParts(topicId, ts);
+        verifyNoMoreInteractions(provider);
+
+        result.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.id", is(topicId)))
+                .andExpect(jsonPath("$.parts.1", is(2)))
+                .andExpect(jsonPath("$.parts.3", is(4)))
+                .andExpect(jsonPath("$.parts.5", is(6)));
+    }
+
+    /**
+     * Проверка ответа готовым телом из кэша до появления нового запуска
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldServeCachedPartsUntilNewRunAppears() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final DateTime next = ts.plusHours(1);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)));
+        when(provider.getTopicParts(topicId, next)).thenReturn(new TopicParts(topicId, next, ImmutableMap.of(1, 5L)));
+        // WHEN
+        ResultActions first = performAsync(get(String.format("/topics/%s/parts", topicId)));
+        ResultActions cached = performAsync(get(String.format("/topics/%s/parts", topicId)));
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(next, 10, next.getMillis()));
+        ResultActions fresh = performAsync(get(String.format("/topics/%s/parts", topicId)));
+        // THEN
+        verify(provider, times(3)).getLastRunVersion(topicId);
+        verify(provider, times(1)).getTopicParts(topicId, ts);
+        verify(provider, times(1)).getTopicParts(topicId, next);
+        verifyNoMoreInteractions(provider);
+
+        first.andExpect(jsonPath("$.parts.1", is(2)));
+        cached.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.parts.1", is(2)));
+        fresh.andExpect(jsonPath("$.parts.1", is(5)));
+    }
+
+    /**
+     * Проверка построения тела по запуску, версия которого отдана в ETag, даже если за это время появился
+     * новый запуск
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldBuildPartsFromResolvedRunVersion() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final DateTime next = ts.plusHours(1);
+        final RunVersion version = new RunVersion(ts, 10, ts.getMillis());
+        when(provider.getLastRunVersion(topicId)).thenReturn(version);
+        when(provider.getTopicParts(topicId)).thenReturn(new TopicParts(topicId, next, ImmutableMap.of(1, 5L)));
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)));
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/parts", topicId)));
+        // THEN
+        verify(provider, never()).getTopicParts(topicId);
+        result.andExpect(status().isOk())
+                .andExpect(header().string("ETag", version.getETag()))
+                .andExpect(jsonPath("$.parts.1", is(2)));
+    }
+
+    /**
+     * Проверка сжатия длинного списка партиций, сжимаемого один раз на запуск
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldServeCompressedPartsOncePerRun() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        Map<Integer, Long> partsMap = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            partsMap.put(i, 1000000L + i);
+        }
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, partsMap));
+        // WHEN
+        MvcResult first = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept-Encoding", "gzip")).andReturn();
+        MvcResult second = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept-Encoding", "deflate;q=0.5, gzip")).andReturn();
+        MvcResult plain = performAsync(get(String.format("/topics/%s/parts", topicId))).andReturn();
+        // THEN
+        verify(provider, times(1)).getTopicParts(topicId, ts);
+        byte[] compressed = first.getResponse().getContentAsByteArray();
+        byte[] json = plain.getResponse().getContentAsByteArray();
+        assertThat(first.getResponse().getHeader("Content-Encoding"), is("gzip"));
+        assertThat(first.getResponse().getHeader("Vary"), is("Accept-Encoding"));
+        assertThat(second.getResponse().getContentAsByteArray(), is(compressed));
+        assertThat(plain.getResponse().getHeader("Content-Encoding"), nullValue());
+        assertThat(compressed.length, lessThan(json.length));
+        assertThat(gunzip(compressed), is(json));
+    }
+
+    /**
+     * Проверка обрыва перечня топиков при ошибке посреди обхода: отправленное начало тела не должно
+     * читаться как полный массив, а неотправленный ответ заменяется описанием ошибки
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldLeaveTopicsListIncompleteOnFailure() throws Exception {
+        // GIVEN
+        final int[] count = {2000};
+        final CountDownLatch visited = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TopicVisitor visitor = (TopicVisitor) invocation.getArguments()[0];
+                for (int i = 0; i < count[0]; i++) {
+                    visitor.visit("topic-" + i);
+                }
+                visited.countDown();
+                sent.await(ASYNC_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                throw new TopicDataException("Ошибка обхода");
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
+        // WHEN
+        MvcResult started = mockMvc.perform(get("/topics"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertThat(visited.await(ASYNC_WAIT_MILLIS, TimeUnit.MILLISECONDS), is(true));
+        // начало тела уже отправлено клиенту
+        started.getResponse().flushBuffer();
+        sent.countDown();
+        assertThat(started.getAsyncResult(ASYNC_WAIT_MILLIS), instanceOf(TopicDataException.class));
+        count[0] = 1;
+        sent.countDown();
+        ResultActions early = performAsync(get("/topics"));
+        // THEN
+        String body = started.getResponse().getContentAsString();
+        assertThat(body, Matchers.startsWith("[\"topic-0\",\"topic-1\""));
+        assertThat(body, not(containsString("Ошибка обхода")));
+        try {
+            new ObjectMapper().readValue(body, List.class);
+            throw new AssertionError("Оборванный перечень прочитан как полный массив");
+        } catch (JsonProcessingException ex) {
+            // ожидаемо
+        }
+        early.andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.errorMessage", is("Ошибка обхода")));
+    }
+
+    /**
+     * Проверка сжатия перечня топиков только после порога
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCompressTopicsListAboveThreshold() throws Exception {
+        // GIVEN
+        final List<String> topics = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            topics.add("topic-" + i);
+        }
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TopicVisitor visitor = (TopicVisitor) invocation.getArguments()[0];
+                for (String topic : topics) {
+                    visitor.visit(topic);
+                }
+                return null;
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
+        // WHEN
+        MvcResult result = performAsync(get("/topics").header("Accept-Encoding", "gzip")).andReturn();
+        topics.subList(1, topics.size()).clear();
+        MvcResult small = performAsync(get("/topics").header("Accept-Encoding", "gzip")).andReturn();
+        // THEN
+        assertThat(result.getResponse().getHeader("Content-Encoding"), is("gzip"));
+        String body = new String(gunzip(result.getResponse().getContentAsByteArray()), StandardCharsets.UTF_8);
+        assertThat(body, Matchers.startsWith("[\"topic-0\",\"topic-1\""));
+        assertThat(body, Matchers.endsWith("\"topic-999\"]"));
+        assertThat(small.getResponse().getHeader("Content-Encoding"), nullValue());
+        assertThat(small.getResponse().getContentAsString(), is("[\"topic-0\"]"));
+    }
+
+    /**
+     * Проверка выбора двоичного формата по заголовку Accept
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldNegotiatePackedFormat() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((TopicVisitor) invocation.getArguments()[0]).visit(topicId);
+                return null;
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
+        // WHEN
+        MvcResult packed = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept", "application/vnd.topic-stats.packed, application/json;q=0.5")).andReturn();
+        ResultActions json = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept", "*/*"));
+        MvcResult topics = performAsync(get("/topics")
+                .header("Accept", "application/vnd.topic-stats.packed")).andReturn();
+        // THEN
+        verify(provider, times(2)).getTopicParts(topicId, ts);
+        assertThat(packed.getResponse().getContentType(), is("application/vnd.topic-stats.packed"));
+        assertThat(packed.getResponse().getHeaders("Vary"), hasItem("Accept"));
+        assertThat(packed.getResponse().getContentAsByteArray(),
+                is(PackedHttpMessageConverter.encode(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)))));
+        json.andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.parts.1", is(2)));
+        assertThat(topics.getResponse().getContentAsByteArray(),
+                is(PackedHttpMessageConverter.encode(Arrays.asList(topicId))));
+    }
+
+    /**
+     * Проверка отдельного ETag двоичного формата, заголовка Vary в ответе 304 и неприемлемости типов с q=0
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldSeparatePackedVariantAndSkipZeroQuality() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final RunVersion version = new RunVersion(ts, 10, ts.getMillis());
+        final String packedEtag = version.getETag().replaceAll("\"$", "-packed\"");
+        when(provider.getLastRunVersion(topicId)).thenReturn(version);
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)));
+        when(provider.getRecentRunStats(topicId, 10)).thenReturn(new ArrayList<RunStats>());
+        // WHEN
+        MvcResult notModified = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept", "application/vnd.topic-stats.packed")
+                .header("If-None-Match", packedEtag)).andReturn();
+        MvcResult json = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept", "application/vnd.topic-stats.packed;q=0, */*")
+                .header("If-None-Match", packedEtag)).andReturn();
+        MvcResult runs = performAsync(get(String.format("/topics/%s/trend/runs", topicId))
+                .header("Accept", "application/vnd.topic-stats.packed, application/json;q=0.5")).andReturn();
+        // THEN
+        assertThat(notModified.getResponse().getStatus(), is(304));
+        assertThat(notModified.getResponse().getHeaders("Vary"), hasItem("Accept"));
+        assertThat(json.getResponse().getStatus(), is(200));
+        assertThat(json.getResponse().getHeader("ETag"), is(version.getETag()));
+        assertThat(json.getResponse().getContentType(), Matchers.startsWith("application/json"));
+        assertThat(runs.getResponse().getStatus(), is(200));
+        assertThat(runs.getResponse().getContentAsString(), is("[]"));
+    }
+
+    /**
+     * Проверка получения расширенной статистики с выбранными показателями
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnRequestedStatsMetrics() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final Set<TopicStats.Metric> metrics = EnumSet.of(TopicStats.Metric.SUM, TopicStats.Metric.TOP);
+        PartitionStats details = PartitionStats.of(new PartitionCounts(new int[]{1, 2, 3}, new long[]{2L, 6L, 4L}),
+                metrics, 2);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicStats(topicId, ts, metrics, 2))
+                .thenReturn(new TopicStats(topicId, ts, 2L, 6L, 4L, details));
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/stats", topicId))
+                .param("metrics", "sum,top")
+                .param("top", "2"));
+        // THEN
+        verify(provider, times(1)).getLastRunVersion(topicId);
+        verify(provider, times(1)).getTopicStats(topicId, ts, metrics, 2);
+        verifyNoMoreInteractions(provider);
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.min", is(2)))
+                .andExpect(jsonPath("$.sum", is(12)))
+                .andExpect(jsonPath("$.top[0].partition", is(2)))
+                .andExpect(jsonPath("$.top[1].count", is(4)))
+                .andExpect(jsonPath("$.median").doesNotExist());
+    }
+
+    /**
+     * Проверка общего кэша ответов статистики с разным числом партиций, если показатель top не запрошен
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldIgnoreTopInCacheKeyWithoutTopMetric() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final Set<TopicStats.Metric> metrics = EnumSet.of(TopicStats.Metric.SUM);
+        PartitionStats details = PartitionStats.of(new PartitionCounts(new int[]{1, 2}, new long[]{2L, 6L}),
+                metrics, 2);
+        when(provider.getLastRunVersion(topicId)).thenReturn(new RunVersion(ts, 10, ts.getMillis()));
+        when(provider.getTopicStats(Mockito.eq(topicId), Mockito.eq(ts), Mockito.eq(metrics), Mockito.anyInt()))
+                .thenReturn(new TopicStats(topicId, ts, 2L, 6L, 4L, details));
+        // WHEN
+        ResultActions first = performAsync(get(String.format("/topics/%s/stats", topicId))
+                .param("metrics", "sum")
+                .param("top", "2"));
+        ResultActions second = performAsync(get(String.format("/topics/%s/stats", topicId))
+                .param("metrics", "sum")
+                .param("top", "7"));
+        // THEN
+        verify(provider, times(1)).getTopicStats(Mockito.eq(topicId), Mockito.eq(ts), Mockito.eq(metrics),
+                Mockito.anyInt());
+        first.andExpect(jsonPath("$.sum", is(8)));
+        second.andExpect(jsonPath("$.sum", is(8)));
+    }
+
+    /**
+     * Проверка получения скользящих показателей топика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnTrendForTopic() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getTopicTrend(topicId, 5))
+                .thenReturn(new TopicTrend(topicId, 2, ts, ts.plusHours(2), 300d, 1500d, 100d, 50d));
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/trend", topicId)).param("window", "5"));
+        // THEN
+        verify(provider, times(1)).getTopicTrend(topicId, 5);
+        verifyNoMoreInteractions(provider);
+        result.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.id", is(topicId)))
+                .andExpect(jsonPath("$.runs", is(2)))
+                .andExpect(jsonPath("$.avgPerPartition", is(300d)))
+                .andExpect(jsonPath("$.growthPerHour", is(50d)));
+    }
+
+    /**
+     * Проверка получения статистики по всем топикам
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnGlobalStats() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getTopics()).thenReturn(Arrays.asList("a", "b", "c"));
+        when(provider.getLastRunStats("a")).thenReturn(new RunStats(ts, 2, 10, 5L, 5L, 5L));
+        when(provider.getLastRunStats("b")).thenReturn(new RunStats(ts, 3, 90, 10L, 70L, 30L));
+        when(provider.getLastRunStats("c")).thenThrow(new TopicDataException("Нет данных."));
+        // WHEN
+        ResultActions result = performAsync(get("/stats/global").param("top", "1"));
+        // THEN
+        result.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.topics", is(2)))
+                .andExpect(jsonPath("$.failedTopics", is(1)))
+                .andExpect(jsonPath("$.partitions", is(5)))
+                .andExpect(jsonPath("$.messages", is(100)))
+                .andExpect(jsonPath("$.min", is(5)))
+                .andExpect(jsonPath("$.max", is(70)))
+                .andExpect(jsonPath("$.topicMean", is(50d)))
+                .andExpect(jsonPath("$.largestTopics", hasSize(1)))
+                .andExpect(jsonPath("$.largestTopics[0].id", is("b")))
+                .andExpect(jsonPath("$.partitionSkew['<=1.5']", is(1)))
+                .andExpect(jsonPath("$.partitionSkew['<=5']", is(1)));
+    }
+
+    /**
+     * Проверка получения сводки по топику с выбранными разделами
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnSummaryForTopic() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final Integer val = 3;
+        TopicStats stats = new TopicStats(topicId, ts, new Long(val), new Long(val), new Long(val));
+        final Set<TopicSummary.Section> sections = EnumSet.of(TopicSummary.Section.STATS, TopicSummary.Section.LAST);
+        when(provider.getTopicSummary(topicId, sections))
+                .thenReturn(new TopicSummary(topicId, ts, stats, null));
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/summary", topicId))
+                .param("include", "stats,last"));
+        // THEN
+        verify(provider, times(1)).getTopicSummary(topicId, sections);
+        verifyNoMoreInteractions(provider);
+
+        result.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$.id", is(topicId)))
+                .andExpect(jsonPath("$.stats.avg", is(val)))
+                .andExpect(jsonPath("$.timestamp", notNullValue()));
+    }
+
+    /**
+     * Проверка получения статистики по множеству топиков
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnStatsForManyTopics() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getTopicStats("a")).thenReturn(new TopicStats("a", ts, 1L, 3L, 2L));
+        when(provider.getTopicStats("b")).thenReturn(new TopicStats("b", ts, 4L, 6L, 5L));
+        when(provider.getTopicStats("c")).thenThrow(TopicDataException.missingTopicDataException("c"));
+        // WHEN
+        ResultActions result = performAsync(get("/topics/stats").param("ids", "a,b,c"));
+        // THEN
+        verify(provider, times(3)).getTopicStats(anyString());
         verifyNoMoreInteractions(provider);
 
-        assertThat(topicIdCaptor.getValue(), is(topicId));
         result.andExpect(status().isOk())
                 .andExpect(content().contentType(APPLICATION_JSON_UTF8))
-                .andExpect(jsonPath("$.id", is(topicId)));
+                .andExpect(jsonPath("$", Matchers.hasSize(3)))
+                .andExpect(jsonPath("$[*].id", Matchers.containsInAnyOrder("a", "b", "c")))
+                .andExpect(jsonPath("$[*].avg", Matchers.containsInAnyOrder(2, 5)))
+                .andExpect(jsonPath("$[*].errorMessage", Matchers.hasSize(1)));
+    }
+
+    /**
+     * Проверка получения статистики по всем топикам
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnStatsForAllTopicsWhenIdsAreMissing() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getTopics()).thenReturn(Arrays.asList("a"));
+        when(provider.getTopicStats("a")).thenReturn(new TopicStats("a", ts, 1L, 3L, 2L));
+        // WHEN
+        ResultActions result = performAsync(get("/topics/stats"));
+        // THEN
+        verify(provider, times(1)).getTopics();
+        verify(provider, times(1)).getTopicStats("a");
+        verifyNoMoreInteractions(provider);
+
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$", Matchers.hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is("a")));
+    }
+
+    /**
+     * Проверка выдачи валидаторов и ответа 304 без разбора данных
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnNotModifiedWhenRunIsUnchanged() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final RunVersion version = new RunVersion(ts, 10, ts.getMillis());
+        when(provider.getLastRunVersion(topicId)).thenReturn(version);
+        // WHEN
+        ResultActions byEtag = performAsync(get(String.format("/topics/%s/stats", topicId))
+                .header("If-None-Match", version.getETag()));
+        ResultActions byDate = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("If-Modified-Since", ts.plusSeconds(1).toDate().getTime()));
+        // THEN
+        verify(provider, times(2)).getLastRunVersion(topicId);
+        verifyNoMoreInteractions(provider);
+
+        byEtag.andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", version.getETag()));
+        byDate.andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", version.getETag()));
+    }
+
+    /**
+     * Проверка отдельного ETag для сжатого тела и заголовка Vary в ответе 304
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldSeparateCompressedVariantValidators() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final RunVersion version = new RunVersion(ts, 10, ts.getMillis());
+        final String gzipEtag = version.getETag().replaceAll("\"$", "-gzip\"");
+        when(provider.getLastRunVersion(topicId)).thenReturn(version);
+        when(provider.getTopicParts(topicId, ts)).thenReturn(new TopicParts(topicId, ts, ImmutableMap.of(1, 2L)));
+        // WHEN
+        MvcResult notModified = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", gzipEtag)).andReturn();
+        MvcResult identityEtag = performAsync(get(String.format("/topics/%s/parts", topicId))
+                .header("Accept-Encoding", "GZIP")
+                .header("If-None-Match", version.getETag())).andReturn();
+        // THEN
+        assertThat(notModified.getResponse().getStatus(), is(304));
+        assertThat(notModified.getResponse().getHeaders("Vary"), hasItem("Accept-Encoding"));
+        assertThat(identityEtag.getResponse().getStatus(), is(200));
+        assertThat(identityEtag.getResponse().getHeader("ETag"), is(gzipEtag));
+    }
+
+    /**
+     * Проверка полного ответа при изменившейся версии запуска
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnBodyWhenEtagDoesNotMatch() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final RunVersion version = new RunVersion(ts, 10, ts.getMillis());
+        when(provider.getLastRunVersion(topicId)).thenReturn(version);
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/last", topicId))
+                .header("If-None-Match", "\"stale\""));
+        // THEN
+        result.andExpect(status().isOk())
+                .andExpect(header().string("ETag", version.getETag()))
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8));
+    }
+
+    /**
+     * Проверка получения истории запусков топика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnHistoryForTopic() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime first = new DateTime(2014, 5, 1, 0, 0);
+        final DateTime second = first.plusHours(1);
+        when(provider.getTopicTimestamps(topicId, null, null)).thenReturn(Arrays.asList(first, second));
+        when(provider.getRunParts(topicId, first))
+                .thenReturn(new PartitionCounts(new int[]{1, 2}, new long[]{10L, 20L}));
+        when(provider.getRunParts(topicId, second))
+                .thenReturn(new PartitionCounts(new int[]{1, 3}, new long[]{15L, 5L}));
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/history", topicId)));
+        // THEN
+        verify(provider, times(1)).getTopicTimestamps(topicId, null, null);
+        verify(provider, times(2)).getRunParts(eq(topicId), Mockito.any(DateTime.class));
+        verifyNoMoreInteractions(provider);
+
+        result.andExpect(status().isOk())
+                .andExpect(content().contentType(APPLICATION_JSON_UTF8))
+                .andExpect(jsonPath("$", Matchers.hasSize(2)))
+                .andExpect(jsonPath("$[0].sum", is(30)))
+                .andExpect(jsonPath("$[0].count", is(2)))
+                .andExpect(jsonPath("$[0].deltas").doesNotExist())
+                .andExpect(jsonPath("$[1].sum", is(20)))
+                .andExpect(jsonPath("$[1].min", is(5)))
+                .andExpect(jsonPath("$[1].deltas.1", is(5)))
+                .andExpect(jsonPath("$[1].deltas.2", is(-20)))
+                .andExpect(jsonPath("$[1].deltas.3", is(5)));
+    }
+
+    /**
+     * Проверка ответа 503 с Retry-After при перегрузке
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnServiceUnavailableWhenBusy() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        when(provider.getLastRunVersion(topicId)).thenAnswer(new Answer<RunVersion>() {
+
+            @Override
+            public RunVersion answer(InvocationOnMock invocation) throws Throwable {
+                throw new ServiceBusyException("Сервис перегружен.", 7);
+            }
+        });
+        // WHEN
+        ResultActions result = performAsync(get(String.format("/topics/%s/stats", topicId)));
+        // THEN
+        result.andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "7"))
+                .andExpect(jsonPath("$.errorMessage", is("Сервис перегружен.")));
+    }
+
+    /**
+     * @param compressed данные в формате gzip
+     * @return распакованные данные
+     * @throws IOException
+     */
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) > 0;) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
     }
 }
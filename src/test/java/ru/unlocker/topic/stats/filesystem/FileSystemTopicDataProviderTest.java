@@ -7,11 +7,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 import static org.hamcrest.Matchers.*;
 import org.joda.time.DateTime;
@@ -21,8 +26,14 @@ import org.junit.Before;
 import org.junit.Test;
 import ru.unlocker.topic.stats.TopicDataException;
 import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.RunVersion;
 import ru.unlocker.topic.stats.views.TopicParts;
 import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+import ru.unlocker.topic.stats.views.TopicTrend;
 
 /**
  * Тесты работы поставщика данных по топикам
@@ -106,6 +117,33 @@ public class FileSystemTopicDataProviderTest {
         assertThat(actualTopics, containsInAnyOrder(topics.toArray()));
     }
 
+    /**
+     * Проверка передачи ошибки обработчика при обходе топиков причиной исключения
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldPassVisitorErrorAsCause() throws Exception {
+        // GIVEN
+        Files.createDirectory(Paths.get(rootDir.toString(), "a"));
+        final IOException abort = new IOException("клиент отключился");
+        TopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        try {
+            provider.visitTopics(new TopicVisitor() {
+
+                @Override
+                public void visit(String topicId) throws IOException {
+                    throw abort;
+                }
+            });
+            fail("Ожидалось исключение.");
+        } catch (TopicDataException ex) {
+            // THEN
+            assertThat(ex.getCause(), sameInstance((Throwable) abort));
+        }
+    }
+
     /**
      * Проверка возврата времени запуска топика
      *
@@ -158,6 +196,123 @@ public class FileSystemTopicDataProviderTest {
         assertThat(lastTs, is(ts));
     }
 
+    /**
+     * Проверка последнего запуска по файлу-указателю и его обновления при появлении новых запусков
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldTrustLatestMarkerUntilHistoryChanges() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path historyPath = Paths.get(rootDir.toString(), topicId, FileSystemTopicDataProvider.HISTORY_FOLDER_NAME);
+        for (int i = 0; i < 3; i++) {
+            Files.createDirectories(historyPath.resolve(ts.minusDays(i)
+                    .toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        }
+        Files.setLastModifiedTime(historyPath, FileTime.fromMillis(System.currentTimeMillis()
+                - 2 * FileSystemTopicDataProvider.LATEST_MARKER_SETTLE_MILLIS));
+        Path markerPath = historyPath.resolve(FileSystemTopicDataProvider.LATEST_MARKER_NAME);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setLatestMarkerEnabled(true);
+        // WHEN
+        DateTime first = provider.getLastTopicTimestamp(topicId);
+        DateTime second = provider.getLastTopicTimestamp(topicId);
+        final long historyModified = Files.getLastModifiedTime(historyPath).to(TimeUnit.NANOSECONDS);
+        final String older = ts.minusDays(2).toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE);
+        Files.write(markerPath, (older + " " + historyModified + "\n").getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        DateTime trusted = provider.getLastTopicTimestamp(topicId);
+        Files.createDirectories(historyPath.resolve(ts.plusDays(1)
+                .toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        DateTime refreshed = provider.getLastTopicTimestamp(topicId);
+        // THEN
+        assertThat(first, is(ts));
+        assertThat(second, is(ts));
+        assertThat(trusted, is(ts.minusDays(2)));
+        assertThat(refreshed, is(ts.plusDays(1)));
+        assertThat(Files.exists(markerPath), is(true));
+    }
+
+    /**
+     * Проверка записи файла-указателя только для папки истории, не менявшейся дольше точности времени
+     * изменения
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldWriteLatestMarkerOnlyForSettledHistory() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path historyPath = Paths.get(rootDir.toString(), topicId, FileSystemTopicDataProvider.HISTORY_FOLDER_NAME);
+        Files.createDirectories(historyPath.resolve(
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        Path markerPath = historyPath.resolve(FileSystemTopicDataProvider.LATEST_MARKER_NAME);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setLatestMarkerEnabled(true);
+        // WHEN
+        DateTime recent = provider.getLastTopicTimestamp(topicId);
+        final boolean writtenForRecent = Files.exists(markerPath);
+        Files.setLastModifiedTime(historyPath, FileTime.fromMillis(System.currentTimeMillis()
+                - 2 * FileSystemTopicDataProvider.LATEST_MARKER_SETTLE_MILLIS));
+        DateTime settled = provider.getLastTopicTimestamp(topicId);
+        // THEN
+        assertThat(recent, is(ts));
+        assertThat(writtenForRecent, is(false));
+        assertThat(settled, is(ts));
+        assertThat(Files.exists(markerPath), is(true));
+    }
+
+    /**
+     * Проверка выборки запусков топика из диапазона
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnTimestampsInRange() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        for (int i = 0; i < 5; i++) {
+            Files.createDirectories(Paths.get(rootDir.toString(),
+                    topicId,
+                    FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                    ts.plusDays(i).toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        }
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        List<DateTime> range = provider.getTopicTimestamps(topicId, ts.plusDays(1), ts.plusDays(3));
+        List<DateTime> all = provider.getTopicTimestamps(topicId, null, null);
+        // THEN
+        assertThat(range, contains(ts.plusDays(1), ts.plusDays(2), ts.plusDays(3)));
+        assertThat(all.size(), is(5));
+    }
+
+    /**
+     * Проверка пустой выборки, если начало диапазона позже конца
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnNoTimestampsForInvertedRange() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        for (int i = 0; i < 5; i++) {
+            Files.createDirectories(Paths.get(rootDir.toString(),
+                    topicId,
+                    FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                    ts.plusDays(i).toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        }
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        List<DateTime> range = provider.getTopicTimestamps(topicId, ts.plusDays(3), ts.plusDays(1));
+        // THEN
+        assertThat(range.isEmpty(), is(true));
+    }
+
     /**
      * Проверка возвращения всех партиций, если в файле нет дубликатов.
      *
@@ -218,6 +373,37 @@ public class FileSystemTopicDataProviderTest {
         assertThat(parts.getParts().get(5), is(500L));
     }
 
+    /**
+     * Проверка чтения партиций и статистики указанного запуска, а не последнего.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnPartsAndStatsOfRequestedRun() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime older = new DateTime(2014, 5, 1, 5, 43);
+        final DateTime newer = new DateTime(2014, 5, 1, 6, 43);
+        for (DateTime ts : new DateTime[]{older, newer}) {
+            Path dirPath = Paths.get(rootDir.toString(),
+                    topicId,
+                    FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                    ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+            Files.createDirectories(dirPath);
+            writeFileFromResources(ts.equals(older) ? "normal.csv" : "duplicate.csv", dirPath);
+        }
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        TopicParts parts = provider.getTopicParts(topicId, older);
+        TopicStats stats = provider.getTopicStats(topicId, older, EnumSet.noneOf(TopicStats.Metric.class), 0);
+        // THEN
+        assertThat(parts.getTimestamp(), is(older));
+        assertThat(parts.getParts().size(), is(5));
+        assertThat(stats.getTimestamp(), is(older));
+        assertThat(stats.getMin(), is(100L));
+        assertThat(stats.getMax(), is(500L));
+    }
+
     /**
      * Проверка статистики топика без дубликатов
      *
@@ -274,6 +460,244 @@ public class FileSystemTopicDataProviderTest {
         assertThat(stats.getAvg(), is(500L));
     }
 
+    /**
+     * Проверка сводки топика со всеми разделами
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnSummaryWithRequestedSections() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path dirPath = Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+        Files.createDirectories(dirPath);
+        writeFileFromResources("normal.csv", dirPath);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        TopicSummary full = provider.getTopicSummary(topicId, EnumSet.allOf(TopicSummary.Section.class));
+        TopicSummary statsOnly = provider.getTopicSummary(topicId, EnumSet.of(TopicSummary.Section.STATS));
+        // THEN
+        assertThat(full.getTimestamp(), is(ts));
+        assertThat(full.getStats().getAvg(), is(300L));
+        assertThat(full.getParts().size(), is(5));
+        assertThat(statsOnly.getTimestamp(), nullValue());
+        assertThat(statsOnly.getParts(), nullValue());
+        assertThat(statsOnly.getStats().getMax(), is(500L));
+    }
+
+    /**
+     * Проверка версии последнего запуска по атрибутам файла CSV
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnRunVersionFromCsvAttributes() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path dirPath = Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+        Files.createDirectories(dirPath);
+        writeFileFromResources("normal.csv", dirPath);
+        Path csvPath = Paths.get(dirPath.toString(), FileSystemTopicDataProvider.CSV_DATAFILE_NAME);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        RunVersion version = provider.getLastRunVersion(topicId);
+        // THEN
+        assertThat(version.getTimestamp(), is(ts));
+        assertThat(version.getSize(), is(Files.size(csvPath)));
+        assertThat(version.getLastModified(), is(Files.getLastModifiedTime(csvPath).toMillis()));
+    }
+
+    /**
+     * Проверка записи двоичного снимка при разборе и чтения статистики из его заголовка
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldWriteSnapshotAndReadStatsFromIt() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path dirPath = Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+        Files.createDirectories(dirPath);
+        writeFileFromResources("normal.csv", dirPath);
+        Path csvPath = Paths.get(dirPath.toString(), FileSystemTopicDataProvider.CSV_DATAFILE_NAME);
+        Path snapshotPath = Paths.get(dirPath.toString(), RunSnapshot.SNAPSHOT_FILE_NAME);
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setSnapshotsEnabled(true);
+        // WHEN
+        TopicParts parts = provider.getTopicParts(topicId);
+        RunSnapshot.write(snapshotPath, Files.size(csvPath), Files.getLastModifiedTime(csvPath).toMillis(),
+                new PartitionCounts(new int[]{7}, new long[]{42L}));
+        TopicStats stats = provider.getTopicStats(topicId);
+        // THEN
+        assertThat(parts.getParts().size(), is(5));
+        assertThat(stats.getMin(), is(42L));
+        assertThat(stats.getMax(), is(42L));
+        assertThat(stats.getAvg(), is(42L));
+    }
+
+    /**
+     * Проверка разбора файла CSV вместо устаревшего двоичного снимка
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldIgnoreStaleSnapshot() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        Path dirPath = Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE));
+        Files.createDirectories(dirPath);
+        writeFileFromResources("normal.csv", dirPath);
+        Path csvPath = Paths.get(dirPath.toString(), FileSystemTopicDataProvider.CSV_DATAFILE_NAME);
+        Path snapshotPath = Paths.get(dirPath.toString(), RunSnapshot.SNAPSHOT_FILE_NAME);
+        RunSnapshot.write(snapshotPath, Files.size(csvPath) + 1, Files.getLastModifiedTime(csvPath).toMillis(),
+                new PartitionCounts(new int[]{7}, new long[]{42L}));
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setSnapshotsEnabled(true);
+        // WHEN
+        TopicStats stats = provider.getTopicStats(topicId);
+        // THEN
+        assertThat(stats.getMin(), is(100L));
+        assertThat(stats.getMax(), is(500L));
+        assertThat(provider.compactSnapshots(), is(0));
+    }
+
+    /**
+     * Проверка расширенной статистики последнего запуска
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnExtendedTopicStats() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        writeFileFromResources("normal.csv", createRunDir(topicId, new DateTime(2014, 5, 1, 5, 43)));
+        TopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        TopicStats stats = provider.getTopicStats(topicId, EnumSet.allOf(TopicStats.Metric.class), 2);
+        // THEN
+        assertThat(stats.getMin(), is(100L));
+        assertThat(stats.getAvg(), is(300L));
+        assertThat(stats.getDetails().getSum(), is(1500L));
+        assertThat(stats.getDetails().getCount(), is(5));
+        assertThat(stats.getDetails().getMedian(), is(300d));
+        assertThat(stats.getDetails().getP90(), is(500L));
+        assertThat(stats.getDetails().getStddev(), closeTo(Math.sqrt(20000), 1e-9));
+        assertThat(stats.getDetails().getSkew(), closeTo(0, 1e-9));
+        assertThat(stats.getDetails().getTop().get(0).getPartition(), is(5));
+        assertThat(stats.getDetails().getTop().get(1).getPartition(), is(4));
+    }
+
+    /**
+     * Проверка скользящих показателей по журналу запусков: записанные запуски не перечитываются из CSV,
+     * новые дописываются в журнал
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldAnswerTrendFromSummaryLog() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime first = new DateTime(2014, 5, 1, 5, 0);
+        final DateTime second = first.plusHours(2);
+        Path firstDir = createRunDir(topicId, first);
+        writeFileFromResources("normal.csv", firstDir);
+        writeFileFromResources("normal.csv", createRunDir(topicId, second));
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setSummaryLogEnabled(true);
+        // WHEN
+        TopicTrend trend = provider.getTopicTrend(topicId, 10);
+        Files.delete(firstDir.resolve(FileSystemTopicDataProvider.CSV_DATAFILE_NAME));
+        Path thirdDir = createRunDir(topicId, second.plusHours(1));
+        Files.write(thirdDir.resolve(FileSystemTopicDataProvider.CSV_DATAFILE_NAME),
+                "1,200\n2,400\n3,600\n".getBytes(StandardCharsets.US_ASCII));
+        TopicTrend window = provider.getTopicTrend(topicId, 2);
+        List<RunStats> runs = provider.getRecentRunStats(topicId, 10);
+        // THEN
+        assertThat(Files.exists(rootDir.resolve(topicId).resolve(RunSummaryLog.SUMMARY_LOG_FILE_NAME)), is(true));
+        assertThat(trend.getRuns(), is(2));
+        assertThat(trend.getAvgPerPartition(), is(300d));
+        assertThat(trend.getAvgSum(), is(1500d));
+        assertThat(trend.getGrowthPerRun(), is(0d));
+        assertThat(trend.getGrowthPerHour(), is(0d));
+        assertThat(window.getRuns(), is(2));
+        assertThat(window.getFrom(), is(second));
+        assertThat(window.getAvgPerPartition(), is(2700d / 8));
+        assertThat(window.getGrowthPerRun(), is(-300d));
+        assertThat(window.getGrowthPerHour(), is(-300d));
+        assertThat(runs.size(), is(3));
+        assertThat(runs.get(0).getTimestamp(), is(first));
+        assertThat(runs.get(0).getSum(), is(1500L));
+        assertThat(runs.get(2).getMax(), is(600L));
+    }
+
+    /**
+     * Проверка отложенной записи в журнал запуска без файла CSV и всех последующих: после появления файла
+     * журнал совпадает с чтением файлов CSV
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldDeferRunWithoutCsvInSummaryLog() throws Exception {
+        // GIVEN
+        final String topicId = "a";
+        final DateTime first = new DateTime(2014, 5, 1, 5, 0);
+        final DateTime missing = first.plusHours(1);
+        final DateTime third = first.plusHours(2);
+        writeFileFromResources("normal.csv", createRunDir(topicId, first));
+        createRunDir(topicId, missing);
+        writeFileFromResources("normal.csv", createRunDir(topicId, third));
+        FileSystemTopicDataProvider provider = new FileSystemTopicDataProvider(rootDir.toString());
+        provider.setSummaryLogEnabled(true);
+        FileSystemTopicDataProvider direct = new FileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        List<RunStats> runs = provider.getRecentRunStats(topicId, 10);
+        writeFileFromResources("normal.csv", createRunDir(topicId, missing));
+        List<RunStats> next = provider.getRecentRunStats(topicId, 10);
+        List<RunStats> expected = direct.getRecentRunStats(topicId, 10);
+        // THEN
+        assertThat(runs.size(), is(1));
+        assertThat(runs.get(0).getTimestamp(), is(first));
+        assertThat(next.size(), is(3));
+        assertThat(next.get(0).getTimestamp(), is(first));
+        assertThat(next.get(1).getTimestamp(), is(missing));
+        assertThat(next.get(2).getTimestamp(), is(third));
+        assertThat(next.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(next.get(i).getTimestamp(), is(expected.get(i).getTimestamp()));
+        }
+    }
+
+    /**
+     * Создаёт папку запуска топика.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @return путь к папке
+     * @throws IOException
+     */
+    private Path createRunDir(String topicId, DateTime ts) throws IOException {
+        return Files.createDirectories(Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+    }
+
     /**
      * Записывает файл CSV из ресурсов.
      *
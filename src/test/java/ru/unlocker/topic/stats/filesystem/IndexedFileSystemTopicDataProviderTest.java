@@ -0,0 +1,156 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import ru.unlocker.topic.stats.TopicDataException;
+
+/**
+ * Тесты поставщика данных по топикам с индексом в памяти
+ *
+ * @author unlocker
+ */
+public class IndexedFileSystemTopicDataProviderTest {
+
+    /**
+     * Префикс для временных файлов.
+     */
+    private static final String TEMP_FILE_PREFIX = "topic-stats";
+
+    /**
+     * Время ожидания событий файловой системы.
+     */
+    private static final long WATCH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    /**
+     * Корневая папка.
+     */
+    private Path rootDir;
+
+    /**
+     * Поставщик данных.
+     */
+    private IndexedFileSystemTopicDataProvider provider;
+
+    /**
+     * Установка
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.rootDir = Files.createTempDirectory(TEMP_FILE_PREFIX);
+    }
+
+    /**
+     * Очистка
+     *
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        if (provider != null) {
+            provider.close();
+            provider = null;
+        }
+        if (Files.exists(rootDir)) {
+            FileUtils.forceDelete(rootDir.toFile());
+        }
+        rootDir = null;
+    }
+
+    /**
+     * Проверка построения индекса при запуске
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldIndexExistingRunsOnStartup() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        createRun("a", ts.minusDays(1));
+        createRun("a", ts);
+        Files.createDirectory(Paths.get(rootDir.toString(), "b"));
+        // WHEN
+        provider = new IndexedFileSystemTopicDataProvider(rootDir.toString());
+        // THEN
+        assertThat(provider.getTopics(), containsInAnyOrder("a", "b"));
+        assertThat(provider.getLastTopicTimestamp("a"), is(ts));
+    }
+
+    /**
+     * Проверка исключения для топика без запусков
+     *
+     * @throws Exception
+     */
+    @Test(expected = TopicDataException.MissingTopicDataException.class)
+    public void shouldThrowExceptionWhenTopicHasNoRuns() throws Exception {
+        // GIVEN
+        Files.createDirectory(Paths.get(rootDir.toString(), "b"));
+        provider = new IndexedFileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        provider.getLastTopicTimestamp("b");
+    }
+
+    /**
+     * Проверка исключения для отсутствующего топика
+     *
+     * @throws Exception
+     */
+    @Test(expected = TopicDataException.NoSuchTopicException.class)
+    public void shouldThrowExceptionWhenTopicIsMissing() throws Exception {
+        // GIVEN
+        provider = new IndexedFileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        provider.getLastTopicTimestamp("a");
+    }
+
+    /**
+     * Проверка обновления индекса при появлении нового топика и нового запуска
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldPickUpNewRunsAfterStartup() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 43);
+        createRun("a", ts);
+        provider = new IndexedFileSystemTopicDataProvider(rootDir.toString());
+        // WHEN
+        final DateTime next = ts.plusHours(1);
+        createRun("a", next);
+        createRun("c", ts);
+        // THEN
+        long deadline = System.currentTimeMillis() + WATCH_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline
+                && !(provider.getLastTopicTimestamp("a").equals(next) && provider.getTopics().contains("c"))) {
+            Thread.sleep(50);
+        }
+        assertThat(provider.getLastTopicTimestamp("a"), is(next));
+        assertThat(provider.getTopics(), containsInAnyOrder("a", "c"));
+    }
+
+    /**
+     * Создаёт папку запуска с пустым файлом CSV.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка
+     * @throws IOException
+     */
+    private void createRun(String topicId, DateTime ts) throws IOException {
+        Path dirPath = Files.createDirectories(Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        Files.createFile(Paths.get(dirPath.toString(), FileSystemTopicDataProvider.CSV_DATAFILE_NAME));
+    }
+}
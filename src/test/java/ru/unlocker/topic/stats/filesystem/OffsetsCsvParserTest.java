@@ -0,0 +1,190 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import static org.hamcrest.Matchers.*;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Тесты разборщика файла offsets.csv
+ *
+ * @author unlocker
+ */
+public class OffsetsCsvParserTest {
+
+    /**
+     * Префикс для временных файлов.
+     */
+    private static final String TEMP_FILE_PREFIX = "topic-stats";
+
+    /**
+     * Файл CSV.
+     */
+    private Path csvPath;
+
+    /**
+     * Установка
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        csvPath = Files.createTempFile(TEMP_FILE_PREFIX, ".csv");
+    }
+
+    /**
+     * Очистка
+     *
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csvPath);
+    }
+
+    /**
+     * Проверка суммирования дубликатов
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldSumDuplicateParts() throws Exception {
+        // GIVEN
+        write("5,100\n5,100\n1,1\n5,300");
+        // WHEN
+        Map<Integer, Long> parts = toMap(OffsetsCsvParser.parse(csvPath).toPartitionCounts());
+        // THEN
+        assertThat(parts.size(), is(2));
+        assertThat(parts.get(5), is(500L));
+        assertThat(parts.get(1), is(1L));
+    }
+
+    /**
+     * Проверка учёта некорректных строк без учёта пустых
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCountMalformedRows() throws Exception {
+        // GIVEN
+        write("1,10\r\n\nx,1\n2,\n3,30,x\n4,40\n");
+        Counter malformed = new Counter();
+        // WHEN
+        Map<Integer, Long> parts = toMap(OffsetsCsvParser.parse(csvPath, malformed).toPartitionCounts());
+        // THEN
+        assertThat(parts.size(), is(2));
+        assertThat(malformed.get(), is(3L));
+    }
+
+    /**
+     * Проверка совпадения с разбором через String.split на некорректных строках
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldSkipMalformedRowsLikeStringSplit() throws Exception {
+        // GIVEN
+        final String content = "1,10\r\n"
+                + "2,20,,\n"
+                + "3,30,x\n"
+                + ",40\n"
+                + "5,\n"
+                + "6\n"
+                + "\n"
+                + "+7,-70\n"
+                + "-8,+80\n"
+                + "9,1a\n"
+                + " 10,100\n"
+                + "11, 110\n"
+                + "2147483647,9223372036854775807\n"
+                + "2147483648,1\n"
+                + "-2147483648,-9223372036854775808\n"
+                + "12,9223372036854775808\n"
+                + "-,1\n"
+                + "13,+\n"
+                + "14,140";
+        write(content);
+        // WHEN
+        Map<Integer, Long> parts = toMap(OffsetsCsvParser.parse(csvPath).toPartitionCounts());
+        // THEN
+        assertThat(parts, is(parseWithSplit(content)));
+        assertThat(parts.size(), is(7));
+    }
+
+    /**
+     * Проверка разбора строк, пересекающих границу буфера чтения
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldParseRowsAcrossBufferBoundaries() throws Exception {
+        // GIVEN
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 3 * OffsetsCsvParser.BUFFER_SIZE; i++) {
+            content.append(i % 1000).append(',').append(i).append('\n');
+        }
+        write(content.toString());
+        // WHEN
+        Map<Integer, Long> parts = toMap(OffsetsCsvParser.parse(csvPath).toPartitionCounts());
+        // THEN
+        assertThat(parts, is(parseWithSplit(content.toString())));
+    }
+
+    /**
+     * Записывает содержимое файла CSV.
+     *
+     * @param content содержимое
+     * @throws IOException
+     */
+    private void write(String content) throws IOException {
+        Files.write(csvPath, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Преобразует набор партиций в отображение.
+     *
+     * @param counts набор партиций
+     * @return партиции
+     */
+    private static Map<Integer, Long> toMap(PartitionCounts counts) {
+        Map<Integer, Long> parts = new HashMap<>();
+        for (int i = 0; i < counts.size(); i++) {
+            parts.put(counts.partitionAt(i), counts.countAt(i));
+        }
+        return parts;
+    }
+
+    /**
+     * Эталонный разбор через String.split.
+     *
+     * @param content содержимое
+     * @return партиции
+     */
+    private static Map<Integer, Long> parseWithSplit(String content) {
+        Map<Integer, Long> parts = new HashMap<>();
+        for (String line : content.split("\r\n|\r|\n")) {
+            String[] split = line.split(",");
+            if (split.length != 2) {
+                continue;
+            }
+            try {
+                Integer part = Integer.parseInt(split[0]);
+                Long messageCount = Long.parseLong(split[1]);
+                Long old = parts.get(part);
+                parts.put(part, old == null ? messageCount : old + messageCount);
+            } catch (NumberFormatException e) {
+                // некорректная строка
+            }
+        }
+        return parts;
+    }
+}
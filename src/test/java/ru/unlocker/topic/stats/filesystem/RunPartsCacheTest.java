@@ -0,0 +1,145 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+
+/**
+ * Тесты кэша разобранных файлов CSV
+ *
+ * @author unlocker
+ */
+public class RunPartsCacheTest {
+
+    /**
+     * Временная метка запуска.
+     */
+    private static final DateTime TS = new DateTime(2014, 5, 1, 5, 43);
+
+    /**
+     * Партиции запуска.
+     */
+    private static final PartitionCounts PARTS = new PartitionCounts(new int[]{1, 2}, new long[]{100L, 200L});
+
+    /**
+     * Проверка попадания в кэш при неизменном файле
+     */
+    @Test
+    public void shouldReturnCachedPartsWhenFileIsUnchanged() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(10, Long.MAX_VALUE);
+        cache.put("a", TS, 10, 1000, PARTS);
+        // WHEN
+        PartitionCounts parts = cache.get("a", new DateTime(TS.getMillis()), 10, 1000);
+        // THEN
+        assertThat(parts, sameInstance(PARTS));
+    }
+
+    /**
+     * Проверка промаха кэша при изменении размера или времени изменения файла
+     */
+    @Test
+    public void shouldInvalidateEntryWhenFileIsChanged() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(10, Long.MAX_VALUE);
+        cache.put("a", TS, 10, 1000, PARTS);
+        cache.put("b", TS, 10, 1000, PARTS);
+        // WHEN
+        PartitionCounts resized = cache.get("a", TS, 11, 1000);
+        PartitionCounts touched = cache.get("b", TS, 10, 2000);
+        // THEN
+        assertThat(resized, nullValue());
+        assertThat(touched, nullValue());
+        assertThat(cache.size(), is(0));
+        assertThat(cache.bytes(), is(0L));
+    }
+
+    /**
+     * Проверка вытеснения давно не использованных записей по числу записей
+     */
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(2, Long.MAX_VALUE);
+        cache.put("a", TS, 10, 1000, PARTS);
+        cache.put("b", TS, 10, 1000, PARTS);
+        cache.get("a", TS, 10, 1000);
+        // WHEN
+        cache.put("c", TS, 10, 1000, PARTS);
+        // THEN
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("a", TS, 10, 1000), notNullValue());
+        assertThat(cache.get("b", TS, 10, 1000), nullValue());
+        assertThat(cache.get("c", TS, 10, 1000), notNullValue());
+    }
+
+    /**
+     * Проверка вытеснения записей по объёму
+     */
+    @Test
+    public void shouldEvictEntriesWhenByteBudgetIsExceeded() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(10, 3 * RunPartsCache.BYTES_PER_PART);
+        cache.put("a", TS, 10, 1000, PARTS);
+        // WHEN
+        cache.put("b", TS, 10, 1000, PARTS);
+        // THEN
+        assertThat(cache.size(), is(1));
+        assertThat(cache.bytes(), is(2 * RunPartsCache.BYTES_PER_PART));
+        assertThat(cache.get("b", TS, 10, 1000), notNullValue());
+    }
+
+    /**
+     * Проверка сохранения новых записей в тёплый уровень и переноса в горячий после заданного числа обращений
+     */
+    @Test
+    public void shouldPromoteWarmEntryAfterRepeatedHits() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(10, Long.MAX_VALUE);
+        OffHeapRunPartsCache warm = new OffHeapRunPartsCache(1024, 256);
+        cache.setWarmTier(warm, 2, true, false);
+        cache.put("a", TS, 10, 1000, PARTS);
+        // WHEN
+        PartitionCounts first = cache.get("a", TS, 10, 1000);
+        final int hotAfterFirst = cache.size();
+        PartitionCounts second = cache.get("a", TS, 10, 1000);
+        // THEN
+        assertThat(hotAfterFirst, is(0));
+        assertThat(first.size(), is(2));
+        assertThat(first.get(2), is(200L));
+        assertThat(second.get(1), is(100L));
+        assertThat(cache.size(), is(1));
+        assertThat(warm.size(), is(0));
+        assertThat(cache.get("a", TS, 10, 1000), sameInstance(second));
+    }
+
+    /**
+     * Проверка переноса вытесненных из горячего уровня записей в тёплый и вытеснения слябов по кругу
+     */
+    @Test
+    public void shouldDemoteEvictedEntriesAndRecycleSlabs() {
+        // GIVEN
+        RunPartsCache cache = new RunPartsCache(1, Long.MAX_VALUE);
+        OffHeapRunPartsCache warm = new OffHeapRunPartsCache(2 * 24, 24);
+        cache.setWarmTier(warm, 0, true, true);
+        // WHEN
+        cache.put("a", TS, 10, 1000, PARTS);
+        cache.put("b", TS, 10, 1000, PARTS);
+        final int warmAfterDemotion = warm.size();
+        PartitionCounts demoted = cache.get("a", TS, 10, 1000);
+        cache.put("c", TS, 10, 1000, PARTS);
+        cache.put("d", TS, 10, 1000, PARTS);
+        // THEN
+        assertThat(warmAfterDemotion, is(1));
+        assertThat(demoted.get(2), is(200L));
+        assertThat(warm.evicted(), is(1L));
+        assertThat(warm.allocatedBytes(), is(2 * 24L));
+        assertThat(cache.get("a", TS, 10, 1000), nullValue());
+        assertThat(cache.get("b", TS, 10, 1000), notNullValue());
+        assertThat(cache.get("b", TS, 11, 1000), nullValue());
+        assertThat(cache.get("c", TS, 10, 1000), notNullValue());
+        assertThat(cache.get("d", TS, 10, 1000), notNullValue());
+    }
+}
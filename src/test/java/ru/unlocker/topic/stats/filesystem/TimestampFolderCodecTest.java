@@ -0,0 +1,51 @@
+package ru.unlocker.topic.stats.filesystem;
+
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты разбора имён папок запусков
+ *
+ * @author unlocker
+ */
+public class TimestampFolderCodecTest {
+
+    /**
+     * Проверка совпадения с разбором через форматтер Joda и порядка чисел
+     */
+    @Test
+    public void shouldDecodeLikeJodaFormatterAndPreserveOrder() {
+        // GIVEN
+        final String[] names = {"2013-12-31-23-59-59", "2014-01-01-00-00-00", "2014-05-01-05-43-07",
+            "2016-02-29-12-00-00"};
+        long previous = TimestampFolderCodec.INVALID;
+        for (String name : names) {
+            // WHEN
+            final long packed = TimestampFolderCodec.decode(name);
+            // THEN
+            assertThat(packed, greaterThan(previous));
+            assertThat(TimestampFolderCodec.toDateTime(packed), is(DateTime.parse(name,
+                    DateTimeFormat.forPattern(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE))));
+            assertThat(TimestampFolderCodec.encode(TimestampFolderCodec.toDateTime(packed)), is(packed));
+            previous = packed;
+        }
+        assertThat(TimestampFolderCodec.decode("2014-05-01-05-43-07"), is(20140501054307L));
+    }
+
+    /**
+     * Проверка отбрасывания имён неправильного формата и недопустимых дат
+     */
+    @Test
+    public void shouldRejectMalformedNames() {
+        final String[] names = {"", "LATEST", "2014-05-01-05-43", "2014-05-01-05-43-070", "2014_05-01-05-43-07",
+            "2014-05-01-05-4a-07", "2014-13-01-00-00-00", "2014-00-01-00-00-00", "2014-02-29-00-00-00",
+            "2014-04-31-00-00-00", "2014-05-01-24-00-00", "2014-05-01-23-60-00", "2014-05-01-23-00-60",
+            "+014-05-01-05-43-07"};
+        for (String name : names) {
+            assertThat(name, TimestampFolderCodec.decode(name), is(TimestampFolderCodec.INVALID));
+        }
+    }
+}
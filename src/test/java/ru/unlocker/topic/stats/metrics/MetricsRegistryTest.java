@@ -0,0 +1,76 @@
+package ru.unlocker.topic.stats.metrics;
+
+import java.io.StringWriter;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты реестра метрик
+ *
+ * @author unlocker
+ */
+public class MetricsRegistryTest {
+
+    /**
+     * Проверка повторного получения той же метрики по имени и меткам
+     */
+    @Test
+    public void shouldReturnSameMetricForSameLabels() {
+        // GIVEN
+        MetricsRegistry registry = new MetricsRegistry();
+        // WHEN
+        Counter first = registry.counter("requests_total", "Запросы.", "result", "hit");
+        Counter second = registry.counter("requests_total", "Запросы.", "result", "hit");
+        Counter other = registry.counter("requests_total", "Запросы.", "result", "miss");
+        // THEN
+        assertThat(second, sameInstance(first));
+        assertThat(other, not(sameInstance(first)));
+    }
+
+    /**
+     * Проверка выгрузки в текстовом формате Prometheus
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldWritePrometheusTextFormat() throws Exception {
+        // GIVEN
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Запросы.", "result", "hit").add(3);
+        Timer timer = registry.timer("phase_seconds", "Этапы.", "phase", "read_csv");
+        timer.record(200000L);
+        timer.record(20000000000L);
+        registry.gauge("entries", "Записи.", new Gauge() {
+
+            @Override
+            public double value() {
+                return 7;
+            }
+        });
+        StringWriter writer = new StringWriter();
+        // WHEN
+        registry.write(writer);
+        // THEN
+        final String text = writer.toString();
+        assertThat(text, containsString("# TYPE requests_total counter\nrequests_total{result=\"hit\"} 3\n"));
+        assertThat(text, containsString("# TYPE entries gauge\nentries 7.0\n"));
+        assertThat(text, containsString("# TYPE phase_seconds histogram\n"));
+        assertThat(text, containsString("phase_seconds_bucket{phase=\"read_csv\",le=\"1.0E-4\"} 0\n"));
+        assertThat(text, containsString("phase_seconds_bucket{phase=\"read_csv\",le=\"2.5E-4\"} 1\n"));
+        assertThat(text, containsString("phase_seconds_bucket{phase=\"read_csv\",le=\"+Inf\"} 2\n"));
+        assertThat(text, containsString("phase_seconds_count{phase=\"read_csv\"} 2\n"));
+    }
+
+    /**
+     * Проверка запрета регистрации метрики с тем же именем и другим типом
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTypeConflict() {
+        // GIVEN
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "Запросы.");
+        // WHEN
+        registry.timer("requests_total", "Запросы.");
+    }
+}
@@ -0,0 +1,240 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.metrics.Counter;
+import ru.unlocker.topic.stats.metrics.MetricsRegistry;
+import ru.unlocker.topic.stats.views.TopicStats;
+
+/**
+ * Тесты объединения одновременных одинаковых запросов
+ *
+ * @author unlocker
+ */
+public class CoalescingTopicDataProviderTest {
+
+    /**
+     * Число одновременных запросов.
+     */
+    private static final int CLIENTS = 8;
+
+    /**
+     * Пул потоков клиентов.
+     */
+    private ExecutorService clients;
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private TopicDataProvider delegate;
+
+    /**
+     * Признак начала вычисления у поставщика.
+     */
+    private CountDownLatch started;
+
+    /**
+     * Разрешение закончить вычисление.
+     */
+    private CountDownLatch release;
+
+    /**
+     * Присоединение запросов к выполняемому вычислению.
+     */
+    private CountDownLatch joined;
+
+    /**
+     * Реестр метрик, отмечающий присоединение запросов.
+     */
+    private MetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        clients = Executors.newFixedThreadPool(CLIENTS);
+        delegate = Mockito.mock(TopicDataProvider.class);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        joined = new CountDownLatch(CLIENTS - 1);
+        metrics = Mockito.mock(MetricsRegistry.class);
+        when(metrics.counter(anyString(), anyString())).thenReturn(new Counter() {
+
+            @Override
+            public void increment() {
+                super.increment();
+                joined.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    /**
+     * Проверка одного обращения к поставщику для одновременных запросов одного топика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldShareResultOfConcurrentIdenticalRequests() throws Exception {
+        // GIVEN
+        final TopicStats stats = new TopicStats("a", new DateTime(2014, 5, 1, 0, 0), 1L, 3L, 2L);
+        when(delegate.getTopicStats("a")).thenAnswer(blockingAnswer(stats));
+        final CoalescingTopicDataProvider provider = new CoalescingTopicDataProvider(delegate);
+        provider.setMetrics(metrics);
+        // WHEN
+        List<Future<TopicStats>> results = requestStats(provider, "a");
+        // THEN
+        for (Future<TopicStats> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS), is(sameInstance(stats)));
+        }
+        verify(delegate, times(1)).getTopicStats("a");
+        // повторный запрос после окончания вычисления снова обращается к поставщику
+        release = new CountDownLatch(0);
+        assertThat(provider.getTopicStats("a"), is(sameInstance(stats)));
+        verify(delegate, times(2)).getTopicStats("a");
+    }
+
+    /**
+     * Проверка передачи ошибки вычисления всем ожидающим запросам
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldShareErrorOfConcurrentIdenticalRequests() throws Exception {
+        // GIVEN
+        when(delegate.getTopicStats("a")).thenAnswer(blockingAnswer(TopicDataException.noSuchTopicException("a")));
+        final CoalescingTopicDataProvider provider = new CoalescingTopicDataProvider(delegate);
+        provider.setMetrics(metrics);
+        // WHEN
+        List<Future<TopicStats>> results = requestStats(provider, "a");
+        // THEN
+        for (Future<TopicStats> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Ожидалась ошибка отсутствия топика.");
+            } catch (ExecutionException ex) {
+                assertThat(ex.getCause(), is(instanceOf(TopicDataException.NoSuchTopicException.class)));
+            }
+        }
+        verify(delegate, times(1)).getTopicStats("a");
+    }
+
+    /**
+     * Проверка повтора вычисления ожидающими запросами, если поток первого запроса прерван
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldRetryWhenLeaderIsInterrupted() throws Exception {
+        // GIVEN
+        final TopicStats stats = new TopicStats("a", new DateTime(2014, 5, 1, 0, 0), 1L, 3L, 2L);
+        final AtomicReference<Thread> leader = new AtomicReference<>();
+        when(delegate.getTopicStats("a")).thenAnswer(new Answer<TopicStats>() {
+
+            @Override
+            public TopicStats answer(InvocationOnMock invocation) throws Throwable {
+                if (leader.compareAndSet(null, Thread.currentThread())) {
+                    started.countDown();
+                    new CountDownLatch(1).await();
+                }
+                return stats;
+            }
+        });
+        final CoalescingTopicDataProvider provider = new CoalescingTopicDataProvider(delegate);
+        provider.setMetrics(metrics);
+        final List<Future<TopicStats>> results = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            results.add(clients.submit(new Callable<TopicStats>() {
+
+                @Override
+                public TopicStats call() throws TopicDataException {
+                    return provider.getTopicStats("a");
+                }
+            }));
+        }
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(joined.await(5, TimeUnit.SECONDS), is(true));
+        // WHEN
+        leader.get().interrupt();
+        // THEN
+        int interrupted = 0;
+        for (Future<TopicStats> result : results) {
+            try {
+                assertThat(result.get(5, TimeUnit.SECONDS), is(sameInstance(stats)));
+            } catch (ExecutionException ex) {
+                assertThat(ex.getCause().getCause(), is(instanceOf(InterruptedException.class)));
+                interrupted++;
+            }
+        }
+        assertThat(interrupted, is(1));
+        verify(delegate, atLeast(2)).getTopicStats("a");
+    }
+
+    /**
+     * Запускает одновременные запросы статистики топика и дожидается, пока все они не окажутся в ожидании
+     * первого вычисления.
+     *
+     * @param provider поставщик данных
+     * @param topicId идентификатор топика
+     * @return результаты запросов
+     * @throws Exception
+     */
+    private List<Future<TopicStats>> requestStats(final TopicDataProvider provider, final String topicId)
+            throws Exception {
+        final List<Future<TopicStats>> results = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            results.add(clients.submit(new Callable<TopicStats>() {
+
+                @Override
+                public TopicStats call() throws TopicDataException {
+                    return provider.getTopicStats(topicId);
+                }
+            }));
+        }
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(joined.await(5, TimeUnit.SECONDS), is(true));
+        release.countDown();
+        return results;
+    }
+
+    /**
+     * @param outcome результат или исключение вычисления
+     * @return ответ, ожидающий разрешения закончить вычисление
+     */
+    private Answer<Object> blockingAnswer(final Object outcome) {
+        return new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                if (outcome instanceof Throwable) {
+                    throw (Throwable) outcome;
+                }
+                return outcome;
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.GlobalStats;
+import ru.unlocker.topic.stats.views.RunStats;
+
+/**
+ * Тесты сбора статистики по всем топикам
+ *
+ * @author unlocker
+ */
+public class GlobalStatsCollectorTest {
+
+    /**
+     * Пул потоков.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private TopicDataProvider provider;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+        provider = Mockito.mock(TopicDataProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Проверка совпадения слитых частичных результатов с последовательным расчётом
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldMatchSequentialCalculation() throws Exception {
+        // GIVEN
+        final Random random = new Random(7);
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        final int n = 101;
+        final List<String> topicIds = new ArrayList<>(n);
+        final long[] sums = new long[n];
+        long messages = 0;
+        long max = 0;
+        for (int i = 0; i < n; i++) {
+            final String topicId = String.format("t%03d", i);
+            topicIds.add(topicId);
+            final int partitions = 1 + random.nextInt(8);
+            final long partMax = 1 + random.nextInt(1000);
+            sums[i] = partMax * partitions - random.nextInt((int) partMax);
+            messages += sums[i];
+            max = Math.max(max, partMax);
+            when(provider.getLastRunStats(topicId))
+                    .thenReturn(new RunStats(ts, partitions, sums[i], 0L, partMax, sums[i] / partitions));
+        }
+        topicIds.add("broken");
+        when(provider.getLastRunStats("broken")).thenThrow(new TopicDataException("Нет данных."));
+        when(provider.getTopics()).thenReturn(topicIds);
+        double mean = (double) messages / n;
+        double m2 = 0;
+        double m3 = 0;
+        for (long sum : sums) {
+            m2 += (sum - mean) * (sum - mean);
+            m3 += (sum - mean) * (sum - mean) * (sum - mean);
+        }
+        final long[] sorted = sums.clone();
+        Arrays.sort(sorted);
+        // WHEN
+        GlobalStats stats = new GlobalStatsCollector(provider, pool).collect(5);
+        // THEN
+        assertThat(stats.getTopics(), is(n));
+        assertThat(stats.getFailedTopics(), is(1));
+        assertThat(stats.getMessages(), is(messages));
+        assertThat(stats.getMin(), is(0L));
+        assertThat(stats.getMax(), is(max));
+        assertThat(stats.getTopicMean(), closeTo(mean, 1e-6));
+        assertThat(stats.getTopicStddev(), closeTo(Math.sqrt(m2 / n), 1e-6));
+        assertThat(stats.getTopicSkew(), closeTo(Math.sqrt(n) * m3 / Math.pow(m2, 1.5), 1e-9));
+        assertThat(stats.getLargestTopics().size(), is(5));
+        for (int i = 0; i < 5; i++) {
+            assertThat(stats.getLargestTopics().get(i).getMessages(), is(sorted[n - 1 - i]));
+        }
+        long skewed = 0;
+        for (Long count : stats.getPartitionSkew().values()) {
+            skewed += count;
+        }
+        assertThat(skewed, is((long) n));
+    }
+
+    /**
+     * Проверка пустой статистики при отсутствии топиков
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReturnEmptyStatsWithoutTopics() throws Exception {
+        // GIVEN
+        when(provider.getTopics()).thenReturn(new ArrayList<String>());
+        // WHEN
+        GlobalStats stats = new GlobalStatsCollector(provider, pool).collect(10);
+        // THEN
+        assertThat(stats.getTopics(), is(0));
+        assertThat(stats.getMessages(), is(0L));
+        assertThat(stats.getMin(), is(nullValue()));
+        assertThat(stats.getTopicMean(), is(nullValue()));
+        assertThat(stats.getLargestTopics(), is(empty()));
+    }
+
+    /**
+     * Проверка отмены сбора при прерывании ожидающего потока: блокирующие чтения не занимают единственный
+     * поток пула, а после прерывания чтение следующих топиков не начинается
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCancelCollectionWhenInterrupted() throws Exception {
+        // GIVEN
+        final ForkJoinPool single = new ForkJoinPool(1);
+        final int n = 100;
+        final List<String> topicIds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            topicIds.add(String.format("t%03d", i));
+        }
+        when(provider.getTopics()).thenReturn(topicIds);
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch reading = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DateTime ts = new DateTime(2014, 5, 1, 0, 0);
+        when(provider.getLastRunStats(Mockito.anyString())).thenAnswer(new Answer<RunStats>() {
+
+            @Override
+            public RunStats answer(InvocationOnMock invocation) throws Throwable {
+                reads.incrementAndGet();
+                reading.countDown();
+                release.await();
+                return new RunStats(ts, 1, 1L, 1L, 1L, 1L);
+            }
+        });
+        final AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread caller = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    new GlobalStatsCollector(provider, single).collect(10);
+                } catch (Exception ex) {
+                    thrown.set(ex);
+                }
+            }
+        });
+        try {
+            // WHEN
+            caller.start();
+            assertThat(reading.await(5, TimeUnit.SECONDS), is(true));
+            caller.interrupt();
+            caller.join(5000);
+            release.countDown();
+            assertThat(single.awaitQuiescence(5, TimeUnit.SECONDS), is(true));
+            // THEN
+            assertThat(caller.isAlive(), is(false));
+            assertThat(thrown.get(), instanceOf(InterruptedException.class));
+            assertThat(reads.get(), lessThan(n));
+        } finally {
+            release.countDown();
+            single.shutdownNow();
+        }
+    }
+}
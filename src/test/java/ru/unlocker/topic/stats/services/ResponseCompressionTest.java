@@ -0,0 +1,28 @@
+package ru.unlocker.topic.stats.services;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты выбора способа сжатия ответов
+ *
+ * @author unlocker
+ */
+public class ResponseCompressionTest {
+
+    /**
+     * Проверка выбора способа сжатия по весам Accept-Encoding
+     */
+    @Test
+    public void shouldNegotiateCodingByWeight() {
+        assertThat(ResponseCompression.negotiate(null), nullValue());
+        assertThat(ResponseCompression.negotiate("identity"), nullValue());
+        assertThat(ResponseCompression.negotiate("gzip, deflate"), is(ResponseCompression.Coding.GZIP));
+        assertThat(ResponseCompression.negotiate("gzip;q=0.5, deflate"), is(ResponseCompression.Coding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("DEFLATE"), is(ResponseCompression.Coding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("*"), is(ResponseCompression.Coding.GZIP));
+        assertThat(ResponseCompression.negotiate("gzip;q=0, *;q=0.1"), is(ResponseCompression.Coding.DEFLATE));
+        assertThat(ResponseCompression.negotiate("gzip;q=0"), nullValue());
+    }
+}
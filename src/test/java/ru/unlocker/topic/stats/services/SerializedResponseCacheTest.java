@@ -0,0 +1,58 @@
+package ru.unlocker.topic.stats.services;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты кэша готовых тел ответов
+ *
+ * @author unlocker
+ */
+public class SerializedResponseCacheTest {
+
+    /**
+     * Тело ответа.
+     */
+    private static final byte[] BODY = {'{', '}'};
+
+    /**
+     * Проверка попадания при неизменной версии запуска и промаха после появления нового
+     */
+    @Test
+    public void shouldInvalidateEntryWhenEtagChanges() {
+        // GIVEN
+        SerializedResponseCache cache = new SerializedResponseCache(10, Long.MAX_VALUE);
+        cache.put("parts", "a", "json", "\"1\"", BODY);
+        // WHEN
+        byte[] hit = cache.get("parts", "a", "json", "\"1\"");
+        byte[] otherResource = cache.get("stats", "a", "json", "\"1\"");
+        byte[] stale = cache.get("parts", "a", "json", "\"2\"");
+        // THEN
+        assertThat(hit, sameInstance(BODY));
+        assertThat(otherResource, nullValue());
+        assertThat(stale, nullValue());
+        assertThat(cache.size(), is(0));
+        assertThat(cache.bytes(), is(0L));
+    }
+
+    /**
+     * Проверка вытеснения давно не использованных записей по объёму
+     */
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntriesByBytes() {
+        // GIVEN
+        final long entryBytes = SerializedResponseCache.ENTRY_OVERHEAD_BYTES + BODY.length;
+        SerializedResponseCache cache = new SerializedResponseCache(10, 2 * entryBytes);
+        cache.put("parts", "a", "json", "\"1\"", BODY);
+        cache.put("parts", "b", "json", "\"1\"", BODY);
+        cache.get("parts", "a", "json", "\"1\"");
+        // WHEN
+        cache.put("parts", "c", "json", "\"1\"", BODY);
+        // THEN
+        assertThat(cache.get("parts", "a", "json", "\"1\""), notNullValue());
+        assertThat(cache.get("parts", "b", "json", "\"1\""), nullValue());
+        assertThat(cache.get("parts", "c", "json", "\"1\""), notNullValue());
+        assertThat(cache.bytes(), is(2 * entryBytes));
+    }
+}
@@ -0,0 +1,154 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Тесты ограниченного пула чтения данных
+ *
+ * @author unlocker
+ */
+public class TopicIoExecutorTest {
+
+    /**
+     * Время ожидания событий в тестах в секундах.
+     */
+    private static final long WAIT_SECONDS = 5;
+
+    /**
+     * Освобождение занятых потоков пула.
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Пул.
+     */
+    private TopicIoExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    /**
+     * Проверка отказа с 503 при переполнении очереди
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldRejectWhenQueueIsFull() throws Exception {
+        // GIVEN
+        executor = new TopicIoExecutor(1, 1, 30000, 3);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit(blocking(started));
+        assertThat(started.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+        executor.submit(blocking(new CountDownLatch(1)));
+        // WHEN
+        DeferredResult<Void> result = executor.stream(blocking(new CountDownLatch(1)));
+        // THEN
+        assertThat(result.getResult(), instanceOf(ServiceBusyException.class));
+        assertThat(((ServiceBusyException) result.getResult()).getRetryAfterSeconds(), is(3));
+    }
+
+    /**
+     * Проверка снятия с очереди потоковой задачи по таймауту и ответа 503
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldExpireQueuedStreamWithServiceBusy() throws Exception {
+        // GIVEN
+        executor = new TopicIoExecutor(1, 1, 100, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit(blocking(started));
+        assertThat(started.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+        final AtomicBoolean called = new AtomicBoolean();
+        // WHEN
+        DeferredResult<Void> result = executor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                called.set(true);
+                return null;
+            }
+        });
+        awaitResult(result);
+        release.countDown();
+        // THEN
+        assertThat(result.getResult(), instanceOf(ServiceBusyException.class));
+        assertThat(called.get(), is(false));
+    }
+
+    /**
+     * Проверка прерывания выполняющейся потоковой задачи по таймауту: запрос завершает сама задача
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldLeaveCompletionToRunningStreamOnTimeout() throws Exception {
+        // GIVEN
+        executor = new TopicIoExecutor(1, 1, 100, 1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        // WHEN
+        DeferredResult<Void> result = executor.stream(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                    finish.await(WAIT_SECONDS, TimeUnit.SECONDS);
+                    throw ex;
+                }
+                return null;
+            }
+        });
+        // THEN
+        assertThat(interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS), is(true));
+        assertThat(result.isSetOrExpired(), is(false));
+        finish.countDown();
+        awaitResult(result);
+        assertThat(result.getResult(), instanceOf(InterruptedException.class));
+    }
+
+    /**
+     * @param started отметка начала выполнения
+     * @return вызов, ожидающий освобождения пула
+     */
+    private Callable<Void> blocking(final CountDownLatch started) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Ожидает результата запроса.
+     *
+     * @param result отложенный результат
+     * @throws InterruptedException
+     */
+    private static void awaitResult(DeferredResult<?> result) throws InterruptedException {
+        for (int i = 0; i < 200 && !result.hasResult(); i++) {
+            Thread.sleep(25);
+        }
+        assertThat(result.hasResult(), is(true));
+    }
+}
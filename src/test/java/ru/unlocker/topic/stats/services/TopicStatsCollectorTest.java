@@ -0,0 +1,137 @@
+package ru.unlocker.topic.stats.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.views.TopicStats;
+
+/**
+ * Тесты параллельного сбора статистики по множеству топиков
+ *
+ * @author unlocker
+ */
+public class TopicStatsCollectorTest {
+
+    /**
+     * Пул потоков.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Поставщик данных о топиках.
+     */
+    private TopicDataProvider provider;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        provider = Mockito.mock(TopicDataProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Проверка передачи непредвиденного сбоя расчёта обработчику как ошибки топика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReportUnexpectedFailureAsTopicError() throws Exception {
+        // GIVEN
+        when(provider.getTopicStats("a"))
+                .thenReturn(new TopicStats("a", new DateTime(2014, 5, 1, 0, 0), 1L, 1L, 1L));
+        when(provider.getTopicStats("b")).thenThrow(new IllegalStateException("сбой"));
+        final List<String> stats = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        // WHEN
+        new TopicStatsCollector(provider, executor, 2).collect(Arrays.asList("a", "b"),
+                new TopicStatsCollector.Handler() {
+
+                    @Override
+                    public void onStats(TopicStats value) {
+                        stats.add(value.getId());
+                    }
+
+                    @Override
+                    public void onError(String topicId, TopicDataException error) {
+                        errors.add(topicId);
+                    }
+                });
+        // THEN
+        assertThat(stats, is(Arrays.asList("a")));
+        assertThat(errors, is(Arrays.asList("b")));
+    }
+
+    /**
+     * Проверка отмены расчётов в работе при ошибке обработчика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCancelInFlightTasksWhenHandlerFails() throws Exception {
+        // GIVEN
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        when(provider.getTopicStats("fast")).thenAnswer(new Answer<TopicStats>() {
+
+            @Override
+            public TopicStats answer(InvocationOnMock invocation) throws Throwable {
+                started.await();
+                return new TopicStats("fast", new DateTime(2014, 5, 1, 0, 0), 1L, 1L, 1L);
+            }
+        });
+        when(provider.getTopicStats("slow")).thenAnswer(new Answer<TopicStats>() {
+
+            @Override
+            public TopicStats answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        });
+        // WHEN
+        try {
+            new TopicStatsCollector(provider, executor, 2).collect(Arrays.asList("slow", "fast"),
+                    new TopicStatsCollector.Handler() {
+
+                        @Override
+                        public void onStats(TopicStats value) throws IOException {
+                            throw new IOException("клиент отключился");
+                        }
+
+                        @Override
+                        public void onError(String topicId, TopicDataException error) {
+                        }
+                    });
+            fail("Ожидалось исключение.");
+        } catch (IOException ex) {
+            // обработчик завершился ошибкой
+        }
+        // THEN
+        assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+    }
+}
@@ -0,0 +1,172 @@
+package ru.unlocker.topic.stats.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.TopicDataProvider;
+import ru.unlocker.topic.stats.TopicVisitor;
+import ru.unlocker.topic.stats.views.HealthView;
+
+/**
+ * Тесты прогрева поставщика данных
+ *
+ * @author unlocker
+ */
+public class TopicsWarmUpTest {
+
+    /**
+     * Временная метка запуска.
+     */
+    private static final DateTime TS = new DateTime(2014, 5, 1, 5, 43);
+
+    /**
+     * Проверка прогрева последнего запуска каждого топика и готовности после него
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldWarmUpLastRunOfEachTopic() throws Exception {
+        // GIVEN
+        TopicDataProvider provider = mockProvider("a", "b", "c");
+        when(provider.getLastTopicTimestamp("c")).thenThrow(TopicDataException.missingTopicDataException("c"));
+        TopicsWarmUp warmUp = new TopicsWarmUp(provider, 2, 10000);
+        assertThat(warmUp.isReady(), is(true));
+        // WHEN
+        warmUp.start();
+        HealthView health = awaitReady(warmUp);
+        // THEN
+        assertThat(health.getStatus(), is(HealthView.UP));
+        assertThat(health.getWarmedTopics(), is(2));
+        assertThat(health.getFailedTopics(), is(1));
+        assertThat(health.getWarmUpComplete(), is(true));
+        verify(provider).getRunParts("a", TS);
+        verify(provider).getRunParts("b", TS);
+    }
+
+    /**
+     * Проверка готовности по истечении бюджета времени
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldBecomeReadyWhenBudgetIsExhausted() throws Exception {
+        // GIVEN
+        TopicDataProvider provider = mockProvider("a");
+        when(provider.getRunParts("a", TS)).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(5000);
+                return null;
+            }
+        });
+        TopicsWarmUp warmUp = new TopicsWarmUp(provider, 1, 100);
+        // WHEN
+        warmUp.start();
+        HealthView health = awaitReady(warmUp);
+        // THEN
+        assertThat(health.getStatus(), is(HealthView.UP));
+        assertThat(health.getWarmedTopics(), is(0));
+        assertThat(health.getWarmUpComplete(), is(false));
+        assertThat(health.getWarmUpMillis(), lessThan(5000L));
+    }
+
+    /**
+     * Проверка учёта непредвиденного сбоя как ошибки прогрева топика
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCountUnexpectedFailureAsFailedTopic() throws Exception {
+        // GIVEN
+        TopicDataProvider provider = mockProvider("a", "b");
+        when(provider.getRunParts("b", TS)).thenThrow(new IllegalStateException("сбой"));
+        TopicsWarmUp warmUp = new TopicsWarmUp(provider, 1, 10000);
+        // WHEN
+        warmUp.start();
+        HealthView health = awaitReady(warmUp);
+        // THEN
+        assertThat(health.getWarmedTopics(), is(1));
+        assertThat(health.getFailedTopics(), is(1));
+        assertThat(health.getWarmUpComplete(), is(true));
+    }
+
+    /**
+     * Проверка прекращения обхода топиков по истечении бюджета времени
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldStopVisitingTopicsWhenBudgetIsExhausted() throws Exception {
+        // GIVEN
+        final AtomicInteger visited = new AtomicInteger();
+        TopicDataProvider provider = Mockito.mock(TopicDataProvider.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TopicVisitor visitor = (TopicVisitor) invocation.getArguments()[0];
+                Thread.sleep(200);
+                for (int i = 0; i < 1000; i++) {
+                    visited.incrementAndGet();
+                    visitor.visit("t" + i);
+                }
+                return null;
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
+        TopicsWarmUp warmUp = new TopicsWarmUp(provider, 1, 50);
+        // WHEN
+        warmUp.start();
+        HealthView health = awaitReady(warmUp);
+        // THEN
+        assertThat(visited.get(), is(1));
+        assertThat(health.getWarmUpComplete(), is(false));
+        verify(provider, never()).getLastTopicTimestamp(anyString());
+    }
+
+    /**
+     * Создаёт поставщика с заданными топиками.
+     *
+     * @param topicIds идентификаторы топиков
+     * @return поставщик
+     * @throws TopicDataException
+     */
+    private static TopicDataProvider mockProvider(final String... topicIds) throws TopicDataException {
+        TopicDataProvider provider = Mockito.mock(TopicDataProvider.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TopicVisitor visitor = (TopicVisitor) invocation.getArguments()[0];
+                for (String topicId : topicIds) {
+                    visitor.visit(topicId);
+                }
+                return null;
+            }
+        }).when(provider).visitTopics(Mockito.any(TopicVisitor.class));
+        when(provider.getLastTopicTimestamp(anyString())).thenReturn(TS);
+        return provider;
+    }
+
+    /**
+     * Ожидает окончания прогрева.
+     *
+     * @param warmUp прогрев
+     * @return состояние готовности
+     * @throws InterruptedException
+     */
+    private static HealthView awaitReady(TopicsWarmUp warmUp) throws InterruptedException {
+        for (int i = 0; i < 200 && !warmUp.isReady(); i++) {
+            Thread.sleep(25);
+        }
+        assertThat(warmUp.isReady(), is(true));
+        return warmUp.getHealth();
+    }
+}
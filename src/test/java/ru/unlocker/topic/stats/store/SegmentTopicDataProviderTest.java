@@ -0,0 +1,245 @@
+package ru.unlocker.topic.stats.store;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import ru.unlocker.topic.stats.TopicDataException;
+import ru.unlocker.topic.stats.filesystem.FileSystemTopicDataProvider;
+import ru.unlocker.topic.stats.views.PartitionCounts;
+import ru.unlocker.topic.stats.views.RunStats;
+import ru.unlocker.topic.stats.views.TopicStats;
+import ru.unlocker.topic.stats.views.TopicSummary;
+
+/**
+ * Тесты поставщика данных во встроенном хранилище и загрузки в него
+ *
+ * @author unlocker
+ */
+public class SegmentTopicDataProviderTest {
+
+    /**
+     * Префикс для временных файлов.
+     */
+    private static final String TEMP_FILE_PREFIX = "topic-stats";
+
+    /**
+     * Корневая папка с топиками.
+     */
+    private Path rootDir;
+
+    /**
+     * Папка хранилища.
+     */
+    private Path storeDir;
+
+    /**
+     * Установка
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        rootDir = Files.createTempDirectory(TEMP_FILE_PREFIX);
+        storeDir = Files.createTempDirectory(TEMP_FILE_PREFIX);
+    }
+
+    /**
+     * Очистка
+     *
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        for (Path dir : Arrays.asList(rootDir, storeDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.forceDelete(dir.toFile());
+            }
+        }
+    }
+
+    /**
+     * Проверка загрузки запусков из папки с топиками и ответов по индексу хранилища
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldAnswerFromImportedRuns() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 0);
+        writeRun("a", ts, "1,100\n2,200\n3,300\n");
+        writeRun("a", ts.plusHours(1), "1,150\n2,250\n3,350\n");
+        writeRun("a", ts.plusHours(2), "1,10\n2,20\n");
+        Files.createDirectories(rootDir.resolve("b"));
+        // WHEN
+        int imported;
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            imported = importer(store).importAll();
+        }
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            // THEN
+            assertThat(imported, is(3));
+            assertThat(store.getTopics(), contains("a", "b"));
+            assertThat(store.getLastTopicTimestamp("a"), is(ts.plusHours(2)));
+            assertThat(store.getTopicTimestamps("a", ts.plusHours(1), null),
+                    contains(ts.plusHours(1), ts.plusHours(2)));
+            PartitionCounts parts = store.getRunParts("a", ts.plusHours(1));
+            assertThat(parts.size(), is(3));
+            assertThat(parts.get(2), is(250L));
+            TopicStats stats = store.getTopicStats("a");
+            assertThat(stats.getMax(), is(20L));
+            assertThat(stats.getAvg(), is(15L));
+            TopicStats extended = store.getTopicStats("a", EnumSet.of(TopicStats.Metric.SUM), 1);
+            assertThat(extended.getDetails().getSum(), is(30L));
+            TopicSummary summary = store.getTopicSummary("a", EnumSet.allOf(TopicSummary.Section.class));
+            assertThat(summary.getParts().size(), is(2));
+            List<RunStats> recent = store.getRecentRunStats("a", 2);
+            assertThat(recent.size(), is(2));
+            assertThat(recent.get(0).getSum(), is(750L));
+            assertThat(recent.get(1).getSum(), is(30L));
+            assertThat(store.getTopicTrend("a", 10).getRuns(), is(3));
+            try {
+                store.getLastTopicTimestamp("b");
+                fail("Ожидалось исключение.");
+            } catch (TopicDataException.MissingTopicDataException ex) {
+                // топик без запусков
+            }
+            try {
+                store.getLastTopicTimestamp("c");
+                fail("Ожидалось исключение.");
+            } catch (TopicDataException.NoSuchTopicException ex) {
+                // топика нет в хранилище
+            }
+        }
+    }
+
+    /**
+     * Проверка дозагрузки только новых запусков и отбрасывания недописанной записи сегмента
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldImportOnlyNewRunsAndDropTornRecord() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 0);
+        writeRun("a", ts, "1,100\n");
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            importer(store).importAll();
+        }
+        Path segmentPath = storeDir.resolve("a" + TopicSegment.SEGMENT_FILE_SUFFIX);
+        final long size = Files.size(segmentPath);
+        Files.write(segmentPath, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        writeRun("a", ts.plusHours(1), "1,200\n2,300\n");
+        // WHEN
+        int imported;
+        List<DateTime> timestamps;
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            imported = importer(store).importAll();
+            timestamps = store.getTopicTimestamps("a", null, null);
+        }
+        // THEN
+        assertThat(imported, is(1));
+        assertThat(timestamps, contains(ts, ts.plusHours(1)));
+        assertThat(Files.size(segmentPath), is(size + TopicSegment.RECORD_HEADER_SIZE + 2 * (4 + 8)));
+    }
+
+    /**
+     * Проверка пропуска непрочитанного запуска при загрузке и усечения заполненного нулями хвоста сегмента
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldSkipBrokenRunAndTruncateZeroFilledTail() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 0);
+        writeRun("a", ts, "1,100\n");
+        Files.createDirectories(Paths.get(rootDir.toString(), "a", FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.plusHours(1).toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        writeRun("a", ts.plusHours(2), "1,200\n");
+        int imported;
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            imported = importer(store).importAll();
+        }
+        Path segmentPath = storeDir.resolve("a" + TopicSegment.SEGMENT_FILE_SUFFIX);
+        final long size = Files.size(segmentPath);
+        Files.write(segmentPath, new byte[TopicSegment.RECORD_HEADER_SIZE * 2], StandardOpenOption.APPEND);
+        // WHEN
+        List<DateTime> timestamps;
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            timestamps = store.getTopicTimestamps("a", null, null);
+        }
+        // THEN
+        assertThat(imported, is(2));
+        assertThat(timestamps, contains(ts, ts.plusHours(2)));
+        assertThat(Files.size(segmentPath), is(size));
+    }
+
+    /**
+     * Проверка чтения и дозаписи сегмента после прерывания потока, читавшего из него
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldReadAndAppendAfterInterruptedRead() throws Exception {
+        // GIVEN
+        final DateTime ts = new DateTime(2014, 5, 1, 5, 0);
+        writeRun("a", ts, "1,100\n2,200\n");
+        try (SegmentTopicDataProvider store = new SegmentTopicDataProvider(storeDir.toString())) {
+            importer(store).importAll();
+            // WHEN
+            Thread.currentThread().interrupt();
+            try {
+                store.getRunParts("a", ts);
+                fail("Ожидалось исключение.");
+            } catch (TopicDataException ex) {
+                // чтение прервано
+            } finally {
+                Thread.interrupted();
+            }
+            writeRun("a", ts.plusHours(1), "1,300\n");
+            final int imported = importer(store).importAll();
+            // THEN
+            assertThat(store.getRunParts("a", ts).get(2), is(200L));
+            assertThat(imported, is(1));
+            assertThat(store.getRunParts("a", ts.plusHours(1)).get(1), is(300L));
+        }
+    }
+
+    /**
+     * @param store хранилище
+     * @return загрузка из корневой папки с топиками
+     * @throws TopicDataException
+     */
+    private SegmentStoreImporter importer(SegmentTopicDataProvider store) throws TopicDataException {
+        return new SegmentStoreImporter(new FileSystemTopicDataProvider(rootDir.toString()), store);
+    }
+
+    /**
+     * Создаёт папку запуска топика с файлом CSV.
+     *
+     * @param topicId идентификатор топика
+     * @param ts временная метка запуска
+     * @param csv содержимое файла CSV
+     * @throws IOException
+     */
+    private void writeRun(String topicId, DateTime ts, String csv) throws IOException {
+        Path dir = Files.createDirectories(Paths.get(rootDir.toString(),
+                topicId,
+                FileSystemTopicDataProvider.HISTORY_FOLDER_NAME,
+                ts.toString(FileSystemTopicDataProvider.TIMESTAMP_FOLDER_TEMPLATE)));
+        Files.write(dir.resolve(FileSystemTopicDataProvider.CSV_DATAFILE_NAME),
+                csv.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,137 @@
+package ru.unlocker.topic.stats.views;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import static org.hamcrest.Matchers.*;
+import org.joda.time.DateTime;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты записи в компактный двоичный формат
+ *
+ * @author unlocker
+ */
+public class PackedHttpMessageConverterTest {
+
+    /**
+     * Временная метка запуска.
+     */
+    private static final DateTime TS = new DateTime(2014, 5, 1, 5, 43);
+
+    /**
+     * Проверка записи партиций разностями номеров и её размера относительно JSON
+     */
+    @Test
+    public void shouldWritePartsAsDeltaVarints() {
+        // GIVEN
+        final int n = 1000;
+        int[] partitions = new int[n];
+        long[] counts = new long[n];
+        for (int i = 0; i < n; i++) {
+            partitions[i] = i * 2;
+            counts[i] = 1000000L + i;
+        }
+        TopicParts parts = new TopicParts("a", TS, new PartitionCounts(partitions, counts));
+        // WHEN
+        ByteBuffer in = ByteBuffer.wrap(PackedHttpMessageConverter.encode(parts));
+        // THEN
+        assertThat((int) in.get(), is(PackedHttpMessageConverter.PARTS_TAG));
+        assertThat(readString(in), is("a"));
+        assertThat(readSigned(in), is(TS.getMillis()));
+        assertThat(readVarint(in), is((long) n));
+        assertThat(readSigned(in), is(0L));
+        for (int i = 1; i < n; i++) {
+            assertThat(readSigned(in), is(2L));
+        }
+        for (int i = 0; i < n; i++) {
+            assertThat(readSigned(in), is(counts[i]));
+        }
+        assertThat(in.remaining(), is(0));
+        assertThat(in.capacity(), lessThan(n * 5));
+    }
+
+    /**
+     * Проверка записи только присутствующих показателей статистики и перечня топиков
+     */
+    @Test
+    public void shouldWriteStatsByPresenceMaskAndTopicsList() {
+        // GIVEN
+        PartitionStats details = PartitionStats.of(new PartitionCounts(new int[]{1, 2, 3}, new long[]{2L, 6L, 4L}),
+                EnumSet.of(TopicStats.Metric.SUM, TopicStats.Metric.MEAN, TopicStats.Metric.TOP), 1);
+        TopicStats stats = new TopicStats("a", TS, 2L, 6L, 4L, details);
+        // WHEN
+        ByteBuffer in = ByteBuffer.wrap(PackedHttpMessageConverter.encode(stats));
+        ByteBuffer list = ByteBuffer.wrap(PackedHttpMessageConverter.encode(Arrays.asList("a", "топик")));
+        // THEN
+        assertThat((int) in.get(), is(PackedHttpMessageConverter.STATS_TAG));
+        assertThat(readString(in), is("a"));
+        assertThat(readVarint(in), is((long) (0b1111 | 1 << 4 | 1 << 6 | 1 << 12)));
+        assertThat(readSigned(in), is(TS.getMillis()));
+        assertThat(readSigned(in), is(2L));
+        assertThat(readSigned(in), is(6L));
+        assertThat(readSigned(in), is(4L));
+        assertThat(readSigned(in), is(12L));
+        assertThat(in.getDouble(), is(4.0));
+        assertThat(readVarint(in), is(1L));
+        assertThat(readSigned(in), is(2L));
+        assertThat(readSigned(in), is(6L));
+        assertThat(in.remaining(), is(0));
+
+        assertThat((int) list.get(), is(PackedHttpMessageConverter.LIST_TAG));
+        assertThat(readString(list), is("a"));
+        assertThat(readString(list), is("топик"));
+        assertThat(readVarint(list), is(0L));
+        assertThat(list.remaining(), is(0));
+    }
+
+    /**
+     * @param in буфер
+     * @return неотрицательное число varint
+     */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @param in буфер
+     * @return знаковое число varint
+     */
+    static long readSigned(ByteBuffer in) {
+        final long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param in буфер
+     * @return строка
+     */
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Проверка записи через механизм конвертеров только партиций и статистики
+     */
+    @Test
+    public void shouldWriteOnlyPartsAndStatsThroughConverter() {
+        // GIVEN
+        PackedHttpMessageConverter converter = new PackedHttpMessageConverter();
+        // THEN
+        assertThat(converter.canWrite(TopicParts.class, PackedHttpMessageConverter.PACKED_MEDIA_TYPE), is(true));
+        assertThat(converter.canWrite(TopicStats.class, PackedHttpMessageConverter.PACKED_MEDIA_TYPE), is(true));
+        assertThat(converter.canWrite(ArrayList.class, PackedHttpMessageConverter.PACKED_MEDIA_TYPE), is(false));
+    }
+}
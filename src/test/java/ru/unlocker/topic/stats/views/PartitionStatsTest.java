@@ -0,0 +1,77 @@
+package ru.unlocker.topic.stats.views;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Тесты расширенной статистики по партициям
+ *
+ * @author unlocker
+ */
+public class PartitionStatsTest {
+
+    /**
+     * Проверка совпадения квантилей, моментов и нагруженных партиций с расчётом по отсортированным значениям
+     */
+    @Test
+    public void shouldMatchCalculationOverSortedValues() {
+        final Random random = new Random(42);
+        for (int n : new int[]{1, 2, 3, 10, 101, 1000}) {
+            // GIVEN
+            int[] partitions = new int[n];
+            long[] counts = new long[n];
+            for (int i = 0; i < n; i++) {
+                partitions[i] = i;
+                counts[i] = random.nextInt(50);
+            }
+            long[] sorted = counts.clone();
+            Arrays.sort(sorted);
+            double mean = 0;
+            for (long count : counts) {
+                mean += (double) count / n;
+            }
+            double m2 = 0;
+            for (long count : counts) {
+                m2 += (count - mean) * (count - mean);
+            }
+            // WHEN
+            PartitionStats stats = PartitionStats.of(new PartitionCounts(partitions, counts),
+                    EnumSet.allOf(TopicStats.Metric.class), 3);
+            // THEN
+            assertThat(stats.getCount(), is(n));
+            assertThat(stats.getMin(), is(sorted[0]));
+            assertThat(stats.getMax(), is(sorted[n - 1]));
+            assertThat(stats.getMedian(), is((sorted[(n - 1) / 2] + sorted[n / 2]) / 2d));
+            assertThat(stats.getP90(), is(sorted[(int) Math.ceil(n * 0.9) - 1]));
+            assertThat(stats.getP99(), is(sorted[(int) Math.ceil(n * 0.99) - 1]));
+            assertThat(stats.getStddev(), closeTo(Math.sqrt(m2 / n), 1e-9));
+            assertThat(stats.getTop().size(), is(Math.min(3, n)));
+            assertThat(stats.getTop().get(0).getCount(), is(sorted[n - 1]));
+            for (int i = 1; i < stats.getTop().size(); i++) {
+                assertThat(stats.getTop().get(i).getCount(), is(sorted[n - 1 - i]));
+                assertThat(stats.getTop().get(i).getCount(), lessThanOrEqualTo(stats.getTop().get(i - 1).getCount()));
+            }
+        }
+    }
+
+    /**
+     * Проверка пропуска незапрошенных показателей и асимметрии распределения
+     */
+    @Test
+    public void shouldFillOnlyRequestedMetrics() {
+        // GIVEN
+        PartitionCounts parts = new PartitionCounts(new int[]{1, 2, 3, 4}, new long[]{1L, 1L, 1L, 9L});
+        // WHEN
+        PartitionStats stats = PartitionStats.of(parts, EnumSet.of(TopicStats.Metric.SUM, TopicStats.Metric.SKEW), 10);
+        // THEN
+        assertThat(stats.getSum(), is(12L));
+        assertThat(stats.getSkew(), closeTo(2 / Math.sqrt(3), 1e-9));
+        assertThat(stats.getCount(), is(nullValue()));
+        assertThat(stats.getMedian(), is(nullValue()));
+        assertThat(stats.getTop(), is(nullValue()));
+    }
+}